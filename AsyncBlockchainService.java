@@ -0,0 +1,160 @@
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+// Non-blocking view of the blockchain. Every call returns immediately with a future, so a
+// client can keep many submissions in flight and compose them with SQL work instead of
+// parking a thread per call. Implementations that can do better than a thread per call
+// (MockBlockchainService, LedgerBlockchainService) implement it natively; any other
+// BlockchainService is adapted with of(service, executor).
+interface AsyncBlockchainService {
+    CompletableFuture<String> castVoteAsync(String voterAddress, String candidateName, String signature);
+    CompletableFuture<Boolean> verifyVoterAsync(String voterAddress);
+    CompletableFuture<Map<String, Integer>> getVoteResultsAsync();
+    CompletableFuture<String> registerVoterOnBlockchainAsync(String voterHash, String publicKey);
+    boolean isBlockchainConnected();
+
+    // See BlockchainService.castVote(voterAddress, candidateName, signature, idempotencyKey)
+    default CompletableFuture<String> castVoteAsync(String voterAddress, String candidateName, String signature,
+                                                    String idempotencyKey) {
+        return castVoteAsync(voterAddress, candidateName, signature);
+    }
+
+    // Async view of a synchronous service; blocking calls run on the given executor
+    static AsyncBlockchainService of(BlockchainService service, Executor executor) {
+        if (service instanceof AsyncBlockchainService) {
+            return (AsyncBlockchainService) service;
+        }
+        return new AsyncBlockchainService() {
+            @Override
+            public CompletableFuture<String> castVoteAsync(String voterAddress, String candidateName, String signature) {
+                return call(() -> service.castVote(voterAddress, candidateName, signature));
+            }
+
+            @Override
+            public CompletableFuture<String> castVoteAsync(String voterAddress, String candidateName, String signature,
+                                                           String idempotencyKey) {
+                return call(() -> service.castVote(voterAddress, candidateName, signature, idempotencyKey));
+            }
+
+            @Override
+            public CompletableFuture<Boolean> verifyVoterAsync(String voterAddress) {
+                return call(() -> service.verifyVoter(voterAddress));
+            }
+
+            @Override
+            public CompletableFuture<Map<String, Integer>> getVoteResultsAsync() {
+                return call(service::getVoteResults);
+            }
+
+            @Override
+            public CompletableFuture<String> registerVoterOnBlockchainAsync(String voterHash, String publicKey) {
+                return call(() -> service.registerVoterOnBlockchain(voterHash, publicKey));
+            }
+
+            @Override
+            public boolean isBlockchainConnected() {
+                return service.isBlockchainConnected();
+            }
+
+            private <T> CompletableFuture<T> call(Call<T> call) {
+                CompletableFuture<T> result = new CompletableFuture<>();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            result.complete(call.call());
+                        } catch (Throwable t) {
+                            result.completeExceptionally(t);
+                        }
+                    });
+                } catch (RuntimeException rejected) {
+                    result.completeExceptionally(rejected);
+                }
+                return result;
+            }
+        };
+    }
+
+    // Synchronous adapter for callers that still expect BlockchainService
+    static BlockchainService blocking(AsyncBlockchainService async) {
+        if (async instanceof BlockchainService) {
+            return (BlockchainService) async;
+        }
+        return new BlockchainService() {
+            @Override
+            public String castVote(String voterAddress, String candidateName, String signature) throws BlockchainException {
+                return join(async.castVoteAsync(voterAddress, candidateName, signature));
+            }
+
+            @Override
+            public String castVote(String voterAddress, String candidateName, String signature,
+                                   String idempotencyKey) throws BlockchainException {
+                return join(async.castVoteAsync(voterAddress, candidateName, signature, idempotencyKey));
+            }
+
+            @Override
+            public boolean verifyVoter(String voterAddress) throws BlockchainException {
+                return join(async.verifyVoterAsync(voterAddress));
+            }
+
+            @Override
+            public Map<String, Integer> getVoteResults() throws BlockchainException {
+                return join(async.getVoteResultsAsync());
+            }
+
+            @Override
+            public String registerVoterOnBlockchain(String voterHash, String publicKey) throws BlockchainException {
+                return join(async.registerVoterOnBlockchainAsync(voterHash, publicKey));
+            }
+
+            @Override
+            public boolean isBlockchainConnected() {
+                return async.isBlockchainConnected();
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface Call<T> {
+        T call() throws Exception;
+    }
+
+    // Waits for a chain future, surfacing failures as BlockchainException
+    static <T> T join(CompletableFuture<T> future) throws BlockchainException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BlockchainException) throw (BlockchainException) cause;
+            throw new BlockchainException(String.valueOf(cause.getMessage()), cause);
+        }
+    }
+
+    // Runs cast at most once per idempotency key: the first caller claims the key with its
+    // future and every repeat gets that same future. A failed cast frees the key again, so
+    // a retry can still go through.
+    static CompletableFuture<String> once(Map<String, CompletableFuture<String>> claims, String idempotencyKey,
+                                          Supplier<CompletableFuture<String>> cast) {
+        CompletableFuture<String> claim = new CompletableFuture<>();
+        CompletableFuture<String> original = claims.putIfAbsent(idempotencyKey, claim);
+        if (original != null) return original;
+        cast.get().whenComplete((txHash, error) -> {
+            if (error != null) {
+                claims.remove(idempotencyKey, claim);
+                claim.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            } else {
+                claim.complete(txHash);
+            }
+        });
+        return claim;
+    }
+
+    // A future that has already failed, for argument or availability errors
+    static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Login admission and session tokens for VotingEngine.
+//
+// Logins run on a fixed pool of evoting.auth.threads workers behind a queue of
+// evoting.auth.queue slots, so an opening-bell storm queues a bounded amount of work
+// instead of queueing on the connection pool. A login that finds the queue full fails at
+// once with RejectedExecutionException, and one that waited longer than
+// evoting.auth.maxQueueMs is dropped unrun (its voter has most likely retried already).
+//
+// A successful login gets a random 128-bit token valid for evoting.auth.sessionTtlMs;
+// later steps (ballot, vote) check it against this in-memory table instead of reading
+// the users row again, and logout revokes it. It also carries the voter's Ed25519 key
+// pair, which the lookup unsealed with the password, to sign the voter's chain vote (see
+// VoteSignatures).
+class AuthService implements AutoCloseable {
+
+    // Credential check against the users table, returning the session with the voter's
+    // signing keys (if any); null when the credentials do not match
+    @FunctionalInterface
+    interface Lookup {
+        VotingEngine.Session find(String username, String password) throws Exception;
+    }
+
+    private static final SecureRandom TOKENS = new SecureRandom();
+    private static final int PURGE_EVERY = 1024;
+
+    private final ThreadPoolExecutor workers;
+    private final long maxQueueNanos;
+    private final long sessionTtlNanos;
+    private final Map<String, Long> sessions = new ConcurrentHashMap<>(); // token -> expiry (nanoTime)
+    private final AtomicInteger issuedSincePurge = new AtomicInteger();
+
+    // Instrumentation
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAdder validations = new LongAdder();
+
+    AuthService() {
+        int threads = Math.max(1, Integer.getInteger("evoting.auth.threads", Integer.getInteger("evoting.pool.size", 10)));
+        int queue = Math.max(1, Integer.getInteger("evoting.auth.queue", 2000));
+        this.maxQueueNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("evoting.auth.maxQueueMs", 10000L)));
+        this.sessionTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("evoting.auth.sessionTtlMs", 900000L)));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queue), task -> {
+                Thread thread = new Thread(task, "auth-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Completes with a tokened session, with null for bad credentials, or exceptionally
+    // with RejectedExecutionException when the login was not admitted
+    CompletableFuture<VotingEngine.Session> authenticate(String username, String password, Lookup lookup) {
+        CompletableFuture<VotingEngine.Session> result = new CompletableFuture<>();
+        long enqueued = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                long started = System.nanoTime();
+                queueWaitNanos.add(started - enqueued);
+                if (started - enqueued > maxQueueNanos) {
+                    shed.increment();
+                    result.completeExceptionally(new RejectedExecutionException("Login waited too long in the queue"));
+                    return;
+                }
+                try {
+                    VotingEngine.Session found = lookup.find(username, password);
+                    if (found == null) {
+                        denied.increment();
+                        result.complete(null);
+                    } else {
+                        succeeded.increment();
+                        result.complete(issue(found));
+                    }
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    serviceNanos.add(System.nanoTime() - started);
+                }
+            });
+            admitted.increment();
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(new RejectedExecutionException("Too many logins in progress"));
+        }
+        return result;
+    }
+
+    // True while the session's token is live
+    boolean validate(VotingEngine.Session session) {
+        validations.increment();
+        if (session == null || session.token == null) return false;
+        Long expiry = sessions.get(session.token);
+        if (expiry == null) return false;
+        if (System.nanoTime() - expiry >= 0) {
+            sessions.remove(session.token);
+            return false;
+        }
+        return true;
+    }
+
+    void revoke(VotingEngine.Session session) {
+        if (session != null && session.token != null) sessions.remove(session.token);
+    }
+
+    String stats() {
+        long started = Math.max(1, admitted.sum());
+        return String.format("auth admitted=%d rejected=%d shed=%d ok=%d denied=%d queued=%d " +
+                             "avgQueueWait=%.1fms avgService=%.1fms sessions=%d validations=%d",
+            admitted.sum(), rejected.sum(), shed.sum(), succeeded.sum(), denied.sum(), workers.getQueue().size(),
+            queueWaitNanos.sum() / 1e6 / started, serviceNanos.sum() / 1e6 / started, sessions.size(), validations.sum());
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private VotingEngine.Session issue(VotingEngine.Session found) {
+        byte[] bytes = new byte[16];
+        TOKENS.nextBytes(bytes);
+        String token = LedgerBlockchainService.toHex(bytes);
+        long now = System.nanoTime();
+        sessions.put(token, now + sessionTtlNanos);
+        if (issuedSincePurge.incrementAndGet() >= PURGE_EVERY) {
+            issuedSincePurge.set(0);
+            sessions.values().removeIf(expiry -> now - expiry >= 0);
+        }
+        return new VotingEngine.Session(found.userId, found.username, found.role, found.hasVoted,
+                                        found.blockchainAddress, token, found.keys);
+    }
+}
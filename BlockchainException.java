@@ -0,0 +1,12 @@
+// Custom Exception for Blockchain operations
+class BlockchainException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public BlockchainException(String message) {
+        super(message);
+    }
+    
+    public BlockchainException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,48 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+// Blockchain Service Interface
+interface BlockchainService {
+    String castVote(String voterAddress, String candidateName, String signature) throws BlockchainException;
+    boolean verifyVoter(String voterAddress) throws BlockchainException;
+    Map<String, Integer> getVoteResults() throws BlockchainException;
+    // publicKey is the voter's Ed25519 key (VoteSignatures.encodeKey); the chain keeps it with
+    // the address VoteSignatures.addressFor derives from it and checks that voter's votes
+    // against it. It may be null for a voter whose key is created later (VoterImport):
+    // registering that voter again with a key moves it to the key's address.
+    String registerVoterOnBlockchain(String voterHash, String publicKey) throws BlockchainException;
+    boolean isBlockchainConnected();
+
+    // Idempotent submission: repeating a call with the same key returns the original tx
+    // hash instead of casting again. Services without key support fall back to castVote,
+    // where the chain's own double-vote check still rejects the repeat.
+    default String castVote(String voterAddress, String candidateName, String signature,
+                            String idempotencyKey) throws BlockchainException {
+        return castVote(voterAddress, candidateName, signature);
+    }
+
+    // Whether the chain's signature check would pass a vote with this signature; nothing is
+    // cast. Lets a kiosk find out at startup that the chain does not trust its key.
+    // Services that do not check signatures accept everything.
+    default boolean acceptsSignature(String voterAddress, String candidateName, String signature) {
+        return true;
+    }
+
+    // -Devoting.chain=ledger runs the hash-chained LedgerBlockchainService; anything else
+    // (the default, "mock") uses the in-memory MockBlockchainService.
+    static BlockchainService fromSystemProperties() throws BlockchainException {
+        if ("ledger".equals(System.getProperty("evoting.chain", "mock"))) {
+            try {
+                return LedgerBlockchainService.fromSystemProperties();
+            } catch (IOException e) {
+                throw new BlockchainException("Could not open the ledger", e);
+            }
+        }
+        try {
+            return new MockBlockchainService();
+        } catch (UncheckedIOException e) {
+            throw new BlockchainException("Could not restore the mock chain", e.getCause());
+        }
+    }
+}
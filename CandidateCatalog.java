@@ -0,0 +1,168 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// The ballot, loaded once and served from memory to every voter session.
+// candidate_catalog_version.version is bumped by triggers whenever a candidate is added,
+// renamed or removed (vote count updates leave it alone). Reading the catalog never
+// blocks: at most every evoting.catalog.checkMs a reader kicks off one background check of
+// that single row, and the candidates are reloaded only when the version moved. Without
+// the TRIGGER privilege the check falls back to a fingerprint of the candidates table.
+class CandidateCatalog {
+
+    private static final int ER_TRG_ALREADY_EXISTS = 1359;
+
+    // Immutable ballot plus an id index for routing votes
+    static final class Snapshot {
+        final long version;
+        final List<VotingEngine.Candidate> candidates; // id order
+        private final Map<Integer, VotingEngine.Candidate> byId;
+
+        Snapshot(long version, List<VotingEngine.Candidate> candidates) {
+            this.version = version;
+            this.candidates = List.copyOf(candidates);
+            Map<Integer, VotingEngine.Candidate> index = new HashMap<>();
+            for (VotingEngine.Candidate candidate : candidates) index.put(candidate.id, candidate);
+            this.byId = Map.copyOf(index); // sized by the ballot, not by the largest id
+        }
+
+        // Null for an id this snapshot does not know
+        VotingEngine.Candidate byId(int id) {
+            return byId.get(id);
+        }
+    }
+
+    private final ConnectionPool connectionPool;
+    private final Executor executor;
+    private final long checkNanos;
+    private final AtomicBoolean checking = new AtomicBoolean();
+    private volatile boolean triggersInstalled;
+    private volatile Snapshot snapshot;
+    private volatile long nextCheckNanos;
+
+    // Instrumentation
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    CandidateCatalog(ConnectionPool connectionPool, Executor executor) throws SQLException {
+        this.connectionPool = connectionPool;
+        this.executor = executor;
+        this.checkNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Long.getLong("evoting.catalog.checkMs", 2000L)));
+        try (Connection connection = connectionPool.getConnection()) {
+            installSchema(connection);
+            snapshot = load(connection, readVersion(connection));
+        }
+        nextCheckNanos = System.nanoTime() + checkNanos;
+    }
+
+    private void installSchema(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS candidate_catalog_version (" +
+                               "id INT PRIMARY KEY, " +
+                               "version BIGINT NOT NULL DEFAULT 0" +
+                               ")");
+            stmt.executeUpdate("INSERT IGNORE INTO candidate_catalog_version (id, version) VALUES (1, 0)");
+        }
+        // Created only when missing: dropping and recreating them on every start would leave
+        // a window where another kiosk's candidate edit bumps nothing
+        String bump = "UPDATE candidate_catalog_version SET version = version + 1 WHERE id = 1";
+        try {
+            createTrigger(connection, "candidates_catalog_insert", "AFTER INSERT ON candidates FOR EACH ROW " + bump);
+            createTrigger(connection, "candidates_catalog_delete", "AFTER DELETE ON candidates FOR EACH ROW " + bump);
+            createTrigger(connection, "candidates_catalog_update", "AFTER UPDATE ON candidates FOR EACH ROW " +
+                          "BEGIN IF NEW.id <> OLD.id OR NOT (NEW.candidate_name <=> OLD.candidate_name) THEN " +
+                          bump + "; END IF; END");
+            triggersInstalled = true;
+        } catch (SQLException e) {
+            System.out.println("Candidate catalog triggers unavailable, checking a table fingerprint instead: " + e.getMessage());
+            triggersInstalled = false;
+        }
+    }
+
+    private static void createTrigger(Connection connection, String name, String body) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT 1 FROM information_schema.TRIGGERS WHERE TRIGGER_SCHEMA = DATABASE() AND TRIGGER_NAME = ?")) {
+            stmt.setString(1, name);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                if (resultSet.next()) return;
+            }
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TRIGGER " + name + " " + body);
+        } catch (SQLException e) {
+            // Another kiosk created it first
+            if (e.getErrorCode() != ER_TRG_ALREADY_EXISTS) throw e;
+        }
+    }
+
+    // Current ballot; never waits on the database
+    Snapshot current() {
+        reads.increment();
+        if (System.nanoTime() - nextCheckNanos >= 0 && checking.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::check);
+            } catch (RuntimeException rejected) {
+                checking.set(false); // shutting down; keep serving the cached ballot
+            }
+        }
+        return snapshot;
+    }
+
+    List<VotingEngine.Candidate> candidates() {
+        return current().candidates;
+    }
+
+    // Forces the next read to check the version, e.g. after an admin edits candidates here
+    void invalidate() {
+        nextCheckNanos = System.nanoTime();
+    }
+
+    String stats() {
+        return String.format("catalog version=%d candidates=%d reads=%d checks=%d reloads=%d triggers=%b",
+            snapshot.version, snapshot.candidates.size(), reads.sum(), checks.sum(), reloads.sum(), triggersInstalled);
+    }
+
+    private void check() {
+        try (Connection connection = connectionPool.getConnection()) {
+            checks.increment();
+            long version = readVersion(connection);
+            if (version != snapshot.version) {
+                snapshot = load(connection, version);
+                reloads.increment();
+            }
+        } catch (SQLException e) {
+            System.out.println("Candidate catalog check failed: " + e.getMessage());
+        } finally {
+            nextCheckNanos = System.nanoTime() + checkNanos;
+            checking.set(false);
+        }
+    }
+
+    private long readVersion(Connection connection) throws SQLException {
+        String sql = triggersInstalled
+            ? "SELECT version FROM candidate_catalog_version WHERE id = 1"
+            : "SELECT COUNT(*) * 31 + COALESCE(SUM(CRC32(CONCAT(id, ':', candidate_name))), 0) FROM candidates";
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery(sql)) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    private static Snapshot load(Connection connection, long version) throws SQLException {
+        List<VotingEngine.Candidate> candidates = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT id, candidate_name FROM candidates ORDER BY id")) {
+            while (resultSet.next()) {
+                candidates.add(new VotingEngine.Candidate(resultSet.getInt("id"), resultSet.getString("candidate_name")));
+            }
+        }
+        return new Snapshot(version, candidates);
+    }
+}
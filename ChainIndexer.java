@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Tails the ledger into MySQL so chain-side results are a cheap local read.
+// Every kiosk has its own ledger, so cursors and projection rows are keyed by the ledger's
+// identity, the hash of its block 0: the chain_index_cursor row holds the next block to
+// index plus the hash of the last indexed block. Each pass reads the blocks after the
+// cursor, folds their vote transactions into per-candidate increments and, in one
+// transaction, applies them to this ledger's chain_vote_projection rows and advances its
+// cursor with a compare-and-set, so two indexers on the same ledger never count a block
+// twice. After downtime it catches up in batches of evoting.indexer.batchBlocks without
+// sleeping between them. A wiped or replaced ledger has a new block 0 and so starts a
+// cursor of its own.
+//
+// A ledger shorter than its cursor is left alone until it grows again; only when the
+// first block after the cursor does not link to the stored hash is this ledger's
+// projection rebuilt from block 0.
+//
+// With a VoteMerkleIndex the same transaction also adds each vote to the chain-side
+// Merkle tree, so the tree always matches the cursors. That tree holds every ledger's
+// votes, so a rebuild clears it and sends every ledger's indexer back to block 0.
+class ChainIndexer implements AutoCloseable {
+
+    private static final String UPSERT_SQL =
+        "INSERT INTO chain_vote_projection (ledger_id, candidate_name, votes) VALUES (?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE votes = votes + VALUES(votes)";
+    private static final String ADVANCE_SQL =
+        "UPDATE chain_index_cursor SET next_block = ?, last_block_hash = ?, last_sync_timestamp = NOW() " +
+        "WHERE ledger_id = ? AND next_block = ?";
+
+    // Position of the indexer in the chain
+    private static final class Cursor {
+        final long next;          // next block number to index
+        final String lastHash;    // hex hash of block next - 1, null before the first block
+
+        Cursor(long next, String lastHash) {
+            this.next = next;
+            this.lastHash = lastHash;
+        }
+    }
+
+    private final ConnectionPool connectionPool;
+    private final LedgerBlockchainService ledger;
+    private final VoteMerkleIndex merkleIndex; // null when divergence detection is off
+    private final int batchBlocks;
+    private final long pollNanos;
+    private final Thread indexer;
+    private volatile boolean running = true;
+    private volatile long indexedHeight;
+
+    // Instrumentation
+    private final LongAdder blocksIndexed = new LongAdder();
+    private final LongAdder votesIndexed = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+
+    ChainIndexer(ConnectionPool connectionPool, LedgerBlockchainService ledger) throws SQLException {
+        this(connectionPool, ledger, null);
+    }
+
+    ChainIndexer(ConnectionPool connectionPool, LedgerBlockchainService ledger,
+                 VoteMerkleIndex merkleIndex) throws SQLException {
+        this.connectionPool = connectionPool;
+        this.ledger = ledger;
+        this.merkleIndex = merkleIndex;
+        this.batchBlocks = Math.max(1, Integer.getInteger("evoting.indexer.batchBlocks", 256));
+        this.pollNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("evoting.indexer.pollMs", 1000L)));
+        try (Connection connection = connectionPool.getConnection()) {
+            installSchema(connection);
+            String ledgerId = ledger.genesisHash();
+            indexedHeight = ledgerId == null ? 0 : readCursor(connection, ledgerId).next;
+        }
+        this.indexer = new Thread(this::run, "chain-indexer");
+        this.indexer.setDaemon(true);
+        this.indexer.start();
+    }
+
+    static void installSchema(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS chain_vote_projection (" +
+                               "ledger_id CHAR(64) NOT NULL, " +
+                               "candidate_name VARCHAR(255) NOT NULL, " +
+                               "votes BIGINT NOT NULL DEFAULT 0, " +
+                               "PRIMARY KEY (ledger_id, candidate_name)" +
+                               ")");
+            if (!VoteRepository.hasColumn(connection, "chain_vote_projection", "ledger_id")) {
+                // Rows from the old shared cursor cannot be attributed to a ledger; each
+                // ledger re-indexes from block 0 under its own cursor instead
+                stmt.executeUpdate("DELETE FROM chain_vote_projection");
+                if (VoteRepository.hasTable(connection, "merkle_nodes")) {
+                    VoteMerkleIndex.clear(connection, VoteMerkleIndex.CHAIN);
+                }
+                stmt.executeUpdate("ALTER TABLE chain_vote_projection ADD COLUMN ledger_id CHAR(64) NOT NULL FIRST, " +
+                                   "DROP PRIMARY KEY, ADD PRIMARY KEY (ledger_id, candidate_name)");
+            }
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS chain_index_cursor (" +
+                               "ledger_id CHAR(64) PRIMARY KEY, " +
+                               "next_block BIGINT NOT NULL DEFAULT 0, " +
+                               "last_block_hash CHAR(64) NULL, " +
+                               "last_sync_timestamp DATETIME DEFAULT CURRENT_TIMESTAMP" +
+                               ")");
+        }
+    }
+
+    // Candidate name -> votes on this kiosk's ledger, as of indexedHeight(); one row per candidate
+    Map<String, Integer> projectedResults() throws SQLException {
+        Map<String, Integer> results = new LinkedHashMap<>();
+        String ledgerId = ledger.genesisHash();
+        if (ledgerId == null) return results;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                 "SELECT candidate_name, votes FROM chain_vote_projection WHERE ledger_id = ? ORDER BY candidate_name")) {
+            statement.setString(1, ledgerId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    results.put(resultSet.getString("candidate_name"), resultSet.getInt("votes"));
+                }
+            }
+        }
+        return results;
+    }
+
+    // Number of chain blocks folded into the projection
+    long indexedHeight() {
+        return indexedHeight;
+    }
+
+    String stats() {
+        return String.format("indexer height=%d/%d blocks=%d votes=%d rebuilds=%d",
+            indexedHeight, ledger.height(), blocksIndexed.sum(), votesIndexed.sum(), rebuilds.sum());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(indexer);
+        try {
+            indexer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            boolean caughtUp = true;
+            try {
+                caughtUp = indexOnce();
+            } catch (SQLException | IOException e) {
+                System.out.println("Chain indexing failed: " + e.getMessage());
+            }
+            if (caughtUp && running) {
+                LockSupport.parkNanos(this, pollNanos);
+            }
+        }
+    }
+
+    // Indexes one batch of blocks; true when nothing is left to index
+    private boolean indexOnce() throws SQLException, IOException {
+        long chainHeight = ledger.height();
+        String ledgerId = ledger.genesisHash();
+        if (ledgerId == null) return true; // nothing sealed yet
+        try (Connection connection = connectionPool.getConnection()) {
+            Cursor cursor = readCursor(connection, ledgerId);
+            long from = cursor.next;
+            indexedHeight = from;
+            // At or past the end: a shorter ledger is checked against the cursor once it reaches it
+            if (from >= chainHeight) return true;
+
+            List<LedgerBlockchainService.Block> blocks = ledger.readBlocks(from, batchBlocks);
+            if (blocks.isEmpty()) return true;
+            if (cursor.lastHash != null
+                    && !LedgerBlockchainService.toHex(blocks.get(0).previousHash).equals(cursor.lastHash)) {
+                rebuild(connection, ledgerId);
+                return false;
+            }
+
+            Map<String, Integer> increments = new HashMap<>();
+            List<VoteMerkleIndex.VoteRecord> records = new ArrayList<>();
+            int votes = 0;
+            for (LedgerBlockchainService.Block block : blocks) {
+                for (LedgerBlockchainService.Transaction transaction : block.transactions) {
+                    if (transaction.type == LedgerBlockchainService.Transaction.VOTE) {
+                        increments.merge(transaction.target, 1, Integer::sum);
+                        if (merkleIndex != null) {
+                            records.add(new VoteMerkleIndex.VoteRecord(transaction.subject, transaction.target,
+                                                                       transaction.timestamp));
+                        }
+                        votes++;
+                    }
+                }
+            }
+            LedgerBlockchainService.Block last = blocks.get(blocks.size() - 1);
+            long next = last.number + 1;
+
+            connection.setAutoCommit(false);
+            try {
+                if (!increments.isEmpty()) {
+                    try (PreparedStatement upsertStmt = connection.prepareStatement(UPSERT_SQL)) {
+                        for (Map.Entry<String, Integer> increment : increments.entrySet()) {
+                            upsertStmt.setString(1, ledgerId);
+                            upsertStmt.setString(2, increment.getKey());
+                            upsertStmt.setInt(3, increment.getValue());
+                            upsertStmt.addBatch();
+                        }
+                        upsertStmt.executeBatch();
+                    }
+                }
+                if (merkleIndex != null) {
+                    merkleIndex.apply(connection, VoteMerkleIndex.CHAIN, records);
+                }
+                try (PreparedStatement advanceStmt = connection.prepareStatement(ADVANCE_SQL)) {
+                    advanceStmt.setLong(1, next);
+                    advanceStmt.setString(2, LedgerBlockchainService.toHex(last.hash));
+                    advanceStmt.setString(3, ledgerId);
+                    advanceStmt.setLong(4, from);
+                    if (advanceStmt.executeUpdate() == 0) {
+                        // Another indexer moved the cursor first; its increments already count
+                        connection.rollback();
+                        return false;
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+
+            indexedHeight = next;
+            blocksIndexed.add(blocks.size());
+            votesIndexed.add(votes);
+            return next >= chainHeight;
+        }
+    }
+
+    // This ledger no longer matches what was indexed from it: start its projection over.
+    // The chain-side Merkle tree cannot be split by ledger, so with one every ledger starts over.
+    private void rebuild(Connection connection, String ledgerId) throws SQLException {
+        System.out.println("Ledger does not link to the indexed block hash; rebuilding the chain projection");
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            if (merkleIndex != null) {
+                stmt.executeUpdate("DELETE FROM chain_vote_projection");
+                VoteMerkleIndex.clear(connection, VoteMerkleIndex.CHAIN);
+                stmt.executeUpdate("UPDATE chain_index_cursor SET next_block = 0, last_block_hash = NULL");
+            } else {
+                try (PreparedStatement deleteStmt = connection.prepareStatement(
+                         "DELETE FROM chain_vote_projection WHERE ledger_id = ?");
+                     PreparedStatement resetStmt = connection.prepareStatement(
+                         "UPDATE chain_index_cursor SET next_block = 0, last_block_hash = NULL WHERE ledger_id = ?")) {
+                    deleteStmt.setString(1, ledgerId);
+                    deleteStmt.executeUpdate();
+                    resetStmt.setString(1, ledgerId);
+                    resetStmt.executeUpdate();
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+        indexedHeight = 0;
+        rebuilds.increment();
+    }
+
+    // This ledger's cursor, created at block 0 the first time the ledger is seen
+    private static Cursor readCursor(Connection connection, String ledgerId) throws SQLException {
+        try (PreparedStatement insertStmt = connection.prepareStatement(
+                 "INSERT IGNORE INTO chain_index_cursor (ledger_id, next_block) VALUES (?, 0)")) {
+            insertStmt.setString(1, ledgerId);
+            insertStmt.executeUpdate();
+        }
+        try (PreparedStatement selectStmt = connection.prepareStatement(
+                 "SELECT next_block, last_block_hash FROM chain_index_cursor WHERE ledger_id = ?")) {
+            selectStmt.setString(1, ledgerId);
+            try (ResultSet resultSet = selectStmt.executeQuery()) {
+                if (!resultSet.next()) return new Cursor(0, null);
+                return new Cursor(resultSet.getLong("next_block"), resultSet.getString("last_block_hash"));
+            }
+        }
+    }
+}
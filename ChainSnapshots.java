@@ -0,0 +1,467 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+// Durable state for MockBlockchainService (-Devoting.mock.snapshotDir=<dir>): the voter
+// registry (voter hash, address, public key, voted bit), the per-candidate tallies and the
+// transaction hash of every vote cast with an idempotency key.
+//
+// Every accepted registration and vote is appended to a memory-mapped delta file
+// (deltas-<seq>.log) by the calling thread - a few dozen bytes copied into the page cache,
+// so it survives a process crash without a write() per vote. Every evoting.mock.snapshotMs
+// (or when the delta file fills up) the "chain-snapshot" thread seals the delta file and
+// folds it into a new snapshot-<seq>.snap: it loads the previous snapshot, replays the
+// sealed deltas on top, writes the result through a mapping of a temporary file, forces
+// it and renames it into place. Folding works on its own copy, so the live chain never
+// pauses for a snapshot; the price is a second copy of the state while one is written.
+//
+// Restart loads the newest snapshot whose CRC checks out and replays only the delta files
+// sealed after it. A vote being appended during a crash is lost whole: its record type
+// byte is written last, so replay stops cleanly at a torn record.
+//
+// Snapshot layout (big-endian): magic | covered delta seq | tally count |
+//   (candidate UTF, votes) per tally | key count | (key UTF, tx hash (32)) per key |
+//   VoterRegistry snapshot | CRC32 of all before it
+// ("SNP1" snapshots have no idempotency keys and no public keys, "SNP2" no public keys)
+// Delta records: type | register: voter hash (32) address (20) | vote: address (20) candidate UTF
+//   | keyed vote: address (20) tx hash (32) key UTF candidate UTF
+//   | keyed register: voter hash (32) address (20) public key (32)
+class ChainSnapshots implements AutoCloseable {
+
+    private static final int SNAPSHOT_MAGIC_V1 = 0x534E5031; // "SNP1"
+    private static final int SNAPSHOT_MAGIC_V2 = 0x534E5032; // "SNP2"
+    private static final int SNAPSHOT_MAGIC = 0x534E5033; // "SNP3"
+    private static final byte REGISTER = 1;
+    private static final byte VOTE = 2;
+    private static final byte KEYED_VOTE = 3;
+    private static final byte KEYED_REGISTER = 4;
+    private static final int HASH_BYTES = 32;
+    private static final int ADDRESS_BYTES = 20;
+    private static final String DELTA_PREFIX = "deltas-";
+    private static final String DELTA_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    // What a restore or a fold produces; the mock chain adopts it as its live state
+    static final class State {
+        final VoterRegistry registry;
+        final Map<String, LongAdder> tallies = new ConcurrentHashMap<>();
+        final Map<String, String> idempotentVotes = new ConcurrentHashMap<>(); // key -> tx hash
+
+        State(VoterRegistry registry) {
+            this.registry = registry;
+        }
+    }
+
+    private final Path directory;
+    private final long snapshotNanos;
+    private final int deltaBytes;
+    private int expectedVoters;
+
+    // Current delta file, guarded by this
+    private FileChannel deltaChannel;
+    private MappedByteBuffer delta;
+    private long deltaSeq;
+    private boolean deltaEmpty = true;
+
+    // Sealed delta files not yet in a snapshot, oldest first, guarded by this
+    private final List<Long> sealed = new ArrayList<>();
+    private volatile long snapshotSeq; // deltas up to and including this are in the snapshot
+    private volatile boolean running = true;
+    private Thread snapshotter;
+
+    // Instrumentation
+    private final LongAdder deltaRecords = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private volatile long lastSnapshotVoters;
+    private volatile long lastSnapshotMillis;
+    private volatile long restoreMillis;
+    private volatile long replayedRecords;
+
+    ChainSnapshots(Path directory, long snapshotMillis, int deltaBytes) {
+        this.directory = directory;
+        this.snapshotNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, snapshotMillis));
+        this.deltaBytes = Math.max(1 << 16, deltaBytes);
+    }
+
+    // Loads the newest good snapshot plus the deltas after it and starts taking snapshots.
+    // Call once, before the first log call.
+    State restore(int expectedVoters) throws IOException {
+        long start = System.nanoTime();
+        this.expectedVoters = expectedVoters;
+        Files.createDirectories(directory);
+
+        State state = null;
+        List<Long> snapshotSeqs = seqs(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        for (int i = snapshotSeqs.size() - 1; i >= 0 && state == null; i--) {
+            try {
+                state = loadSnapshot(snapshotSeqs.get(i));
+                snapshotSeq = snapshotSeqs.get(i);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Skipping unreadable chain snapshot #" + snapshotSeqs.get(i) + ": " + e.getMessage());
+            }
+        }
+        if (state == null) state = new State(new VoterRegistry(expectedVoters));
+
+        long lastSeq = snapshotSeq;
+        long replayed = 0;
+        for (long seq : seqs(DELTA_PREFIX, DELTA_SUFFIX)) {
+            lastSeq = Math.max(lastSeq, seq);
+            if (seq <= snapshotSeq) {
+                Files.deleteIfExists(deltaPath(seq)); // folded just before a crash
+                continue;
+            }
+            long records = replay(deltaPath(seq), state);
+            if (records > 0) {
+                sealed.add(seq); // folded into the next snapshot
+            } else {
+                Files.deleteIfExists(deltaPath(seq));
+            }
+            replayed += records;
+        }
+        replayedRecords = replayed;
+
+        synchronized (this) {
+            openDelta(lastSeq + 1);
+        }
+        restoreMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        snapshotter = new Thread(this::takeSnapshots, "chain-snapshot");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+        return state;
+    }
+
+    // publicKey is null for a voter registered without one
+    synchronized void logRegistration(String voterHash, String address, byte[] publicKey) {
+        int at = reserve(1 + HASH_BYTES + ADDRESS_BYTES + (publicKey != null ? VoteSignatures.KEY_BYTES : 0));
+        putHex(delta, voterHash, 0, HASH_BYTES);
+        putHex(delta, address, 2, ADDRESS_BYTES);
+        if (publicKey != null) delta.put(publicKey);
+        commit(at, publicKey != null ? KEYED_REGISTER : REGISTER);
+    }
+
+    // idempotencyKey is null for a vote cast without one
+    synchronized void logVote(String address, String candidateName, String idempotencyKey, String txHash) {
+        byte[] candidate = candidateName.getBytes(StandardCharsets.UTF_8);
+        byte[] key = idempotencyKey != null ? idempotencyKey.getBytes(StandardCharsets.UTF_8) : null;
+        if (key != null && key.length > 0xFFFF) throw new IllegalArgumentException("Idempotency key too long");
+        int at = reserve(1 + ADDRESS_BYTES + 2 + candidate.length + (key != null ? HASH_BYTES + 2 + key.length : 0));
+        putHex(delta, address, 2, ADDRESS_BYTES);
+        if (key != null) {
+            putHex(delta, txHash, 2, HASH_BYTES);
+            delta.putShort((short) key.length).put(key);
+        }
+        delta.putShort((short) candidate.length).put(candidate);
+        commit(at, key != null ? KEYED_VOTE : VOTE);
+    }
+
+    String stats() {
+        return String.format("snapshots=%d lastSnapshot=#%d voters=%d took=%dms deltaRecords=%d restore=%dms replayed=%d",
+            snapshots.sum(), snapshotSeq, lastSnapshotVoters, lastSnapshotMillis, deltaRecords.sum(),
+            restoreMillis, replayedRecords);
+    }
+
+    // Stops the snapshot thread and folds everything logged so far into a final snapshot,
+    // so the next start has nothing to replay
+    @Override
+    public void close() {
+        running = false;
+        if (snapshotter == null) return;
+        LockSupport.unpark(snapshotter);
+        try {
+            snapshotter.join(); // a fold in progress must finish before the final one
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            snapshotNow();
+            synchronized (this) {
+                delta = null;
+                deltaChannel.close();
+                if (deltaEmpty) Files.deleteIfExists(deltaPath(deltaSeq));
+            }
+        } catch (IOException e) {
+            System.out.println("Final chain snapshot failed: " + e.getMessage());
+        }
+    }
+
+    // Snapshots on the timer, and early when sealed deltas are waiting (a full delta file,
+    // or the tail replayed at startup); after a failure only the timer retries
+    private void takeSnapshots() {
+        long next = System.nanoTime() + snapshotNanos;
+        boolean failed = false;
+        while (running) {
+            long wait = next - System.nanoTime();
+            boolean due = wait <= 0;
+            if (!due && !failed) {
+                synchronized (this) {
+                    due = !sealed.isEmpty();
+                }
+            }
+            if (!due) {
+                LockSupport.parkNanos(this, Math.min(wait, TimeUnit.MILLISECONDS.toNanos(100)));
+                continue;
+            }
+            try {
+                snapshotNow();
+                failed = false;
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Chain snapshot failed: " + e.getMessage());
+                failed = true;
+            }
+            next = System.nanoTime() + snapshotNanos;
+        }
+    }
+
+    // Seals the current delta file and folds every sealed one into a new snapshot
+    private void snapshotNow() throws IOException {
+        List<Long> toFold;
+        synchronized (this) {
+            rotate();
+            if (sealed.isEmpty()) return;
+            toFold = new ArrayList<>(sealed);
+        }
+        long start = System.nanoTime();
+        State state = snapshotSeq > 0 ? loadSnapshot(snapshotSeq) : new State(new VoterRegistry(expectedVoters));
+        for (long seq : toFold) replay(deltaPath(seq), state);
+        long seq = toFold.get(toFold.size() - 1);
+        writeSnapshot(state, seq);
+
+        long previous = snapshotSeq;
+        snapshotSeq = seq;
+        synchronized (this) {
+            sealed.removeAll(toFold);
+        }
+        for (long folded : toFold) Files.deleteIfExists(deltaPath(folded));
+        if (previous > 0) Files.deleteIfExists(snapshotPath(previous));
+        snapshots.increment();
+        lastSnapshotVoters = state.registry.size();
+        lastSnapshotMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    // Guarded by this. Claims room for a record, moving to a new delta file if it is full,
+    // and leaves the buffer positioned after the record's type byte.
+    private int reserve(int length) {
+        if (delta == null) throw new IllegalStateException("Chain snapshots are closed");
+        if (delta.remaining() < length + 1) { // keep a zero type byte after the last record
+            try {
+                rotate();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not start a new delta file: " + e.getMessage(), e);
+            }
+            if (delta.remaining() < length + 1) throw new IllegalArgumentException("Delta record too large");
+        }
+        int at = delta.position();
+        delta.position(at + 1);
+        return at;
+    }
+
+    // Guarded by this. The type byte goes in last: until then replay sees the end of the log.
+    private void commit(int at, byte type) {
+        delta.put(at, type);
+        deltaEmpty = false;
+        deltaRecords.increment();
+    }
+
+    // Guarded by this
+    private void rotate() throws IOException {
+        if (deltaEmpty) return;
+        long next = deltaSeq + 1;
+        deltaChannel.close(); // the mapping stays valid; the page cache holds the records
+        sealed.add(deltaSeq);
+        openDelta(next);
+    }
+
+    // Guarded by this
+    private void openDelta(long seq) throws IOException {
+        deltaChannel = FileChannel.open(deltaPath(seq), StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        delta = deltaChannel.map(FileChannel.MapMode.READ_WRITE, 0, deltaBytes);
+        deltaSeq = seq;
+        deltaEmpty = true;
+    }
+
+    // Applies one delta file to the state; returns the records replayed
+    private static long replay(Path path, State state) throws IOException {
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] hash = new byte[HASH_BYTES];
+            byte[] address = new byte[ADDRESS_BYTES];
+            byte[] txHash = new byte[HASH_BYTES];
+            try {
+                while (in.hasRemaining()) {
+                    byte type = in.get();
+                    if (type == REGISTER || type == KEYED_REGISTER) {
+                        in.get(hash).get(address);
+                        byte[] publicKey = null;
+                        if (type == KEYED_REGISTER) {
+                            publicKey = new byte[VoteSignatures.KEY_BYTES];
+                            in.get(publicKey);
+                        }
+                        state.registry.register(LedgerBlockchainService.toHex(hash),
+                                                "0x" + LedgerBlockchainService.toHex(address), publicKey);
+                    } else if (type == VOTE || type == KEYED_VOTE) {
+                        in.get(address);
+                        String key = null;
+                        if (type == KEYED_VOTE) {
+                            in.get(txHash);
+                            key = readString(in);
+                        }
+                        String name = readString(in);
+                        if (state.registry.markVoted("0x" + LedgerBlockchainService.toHex(address))) {
+                            state.tallies.computeIfAbsent(name, candidate -> new LongAdder()).increment();
+                            if (key != null) state.idempotentVotes.put(key, "0x" + LedgerBlockchainService.toHex(txHash));
+                        }
+                    } else {
+                        break; // zero fill past the last record
+                    }
+                    records++;
+                }
+            } catch (BufferUnderflowException e) {
+                // record cut off at the end of the file
+            }
+        }
+        return records;
+    }
+
+    private State loadSnapshot(long seq) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotPath(seq), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 20 || size > Integer.MAX_VALUE) throw new IOException("Bad snapshot size " + size);
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            crc.update(in.duplicate().limit((int) size - 4));
+            if (in.getInt((int) size - 4) != (int) crc.getValue()) throw new IOException("Snapshot CRC mismatch");
+            in.limit((int) size - 4);
+            int magic = in.getInt();
+            if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V2 && magic != SNAPSHOT_MAGIC_V1) {
+                throw new IOException("Bad snapshot magic");
+            }
+            if (in.getLong() != seq) throw new IOException("Snapshot does not match its file name");
+
+            int tallyCount = in.getInt();
+            List<String> names = new ArrayList<>(tallyCount);
+            long[] votes = new long[tallyCount];
+            for (int i = 0; i < tallyCount; i++) {
+                names.add(readString(in));
+                votes[i] = in.getLong();
+            }
+            Map<String, String> idempotentVotes = new HashMap<>();
+            int keyCount = magic != SNAPSHOT_MAGIC_V1 ? in.getInt() : 0;
+            byte[] txHash = new byte[HASH_BYTES];
+            for (int i = 0; i < keyCount; i++) {
+                String key = readString(in);
+                in.get(txHash);
+                idempotentVotes.put(key, "0x" + LedgerBlockchainService.toHex(txHash));
+            }
+            State state = new State(VoterRegistry.fromSnapshot(in, expectedVoters, magic == SNAPSHOT_MAGIC));
+            state.idempotentVotes.putAll(idempotentVotes);
+            for (int i = 0; i < tallyCount; i++) {
+                LongAdder adder = new LongAdder();
+                adder.add(votes[i]);
+                state.tallies.put(names.get(i), adder);
+            }
+            return state;
+        }
+    }
+
+    private void writeSnapshot(State state, long seq) throws IOException {
+        List<byte[]> names = new ArrayList<>(state.tallies.size());
+        List<Long> votes = new ArrayList<>(state.tallies.size());
+        List<byte[]> keys = new ArrayList<>(state.idempotentVotes.size());
+        List<String> txHashes = new ArrayList<>(state.idempotentVotes.size());
+        long size = 4 + 8 + 4 + 4 + state.registry.snapshotBytes() + 4;
+        for (Map.Entry<String, LongAdder> entry : state.tallies.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            votes.add(entry.getValue().sum());
+            size += 2 + name.length + 8;
+        }
+        for (Map.Entry<String, String> entry : state.idempotentVotes.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            keys.add(key);
+            txHashes.add(entry.getValue());
+            size += 2 + key.length + HASH_BYTES;
+        }
+        if (size > Integer.MAX_VALUE) throw new IOException("Snapshot of " + size + " bytes is too large to map");
+
+        Path temporary = directory.resolve(snapshotPath(seq).getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(SNAPSHOT_MAGIC).putLong(seq).putInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                out.putShort((short) names.get(i).length).put(names.get(i)).putLong(votes.get(i));
+            }
+            out.putInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out.putShort((short) keys.get(i).length).put(keys.get(i));
+                putHex(out, txHashes.get(i), 2, HASH_BYTES);
+            }
+            state.registry.writeSnapshot(out);
+            CRC32 crc = new CRC32();
+            crc.update(out.duplicate().flip());
+            out.putInt((int) crc.getValue());
+            out.force();
+        }
+        Files.move(temporary, snapshotPath(seq), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A short length and that many UTF-8 bytes
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putHex(ByteBuffer out, String hex, int from, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            int high = Character.digit(hex.charAt(from + 2 * i), 16);
+            int low = Character.digit(hex.charAt(from + 2 * i + 1), 16);
+            out.put((byte) (high << 4 | low));
+        }
+    }
+
+    // Sequence numbers of the files with this prefix and suffix, ascending
+    private List<Long> seqs(String prefix, String suffix) throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    seqs.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        seqs.sort(null);
+        return seqs;
+    }
+
+    private Path deltaPath(long seq) {
+        return directory.resolve(String.format("%s%010d%s", DELTA_PREFIX, seq, DELTA_SUFFIX));
+    }
+
+    private Path snapshotPath(long seq) {
+        return directory.resolve(String.format("%s%010d%s", SNAPSHOT_PREFIX, seq, SNAPSHOT_SUFFIX));
+    }
+}
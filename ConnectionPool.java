@@ -0,0 +1,362 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded JDBC connection pool shared by the voting frames.
+// Every operation checks a connection out, uses it, and closes it to hand it back,
+// so concurrent kiosks / workers each get their own isolated transaction.
+class ConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long checkoutTimeoutMs;
+    private final long validateAfterIdleMs;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    // Instrumentation
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder checkoutWaitNanos = new LongAdder();
+    private final LongAdder checkoutTimeouts = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    ConnectionPool(String url, String user, String password,
+                   int maxSize, long checkoutTimeoutMs, long validateAfterIdleMs, int statementCacheSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("Pool size must be at least 1");
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.checkoutTimeoutMs = checkoutTimeoutMs;
+        this.validateAfterIdleMs = validateAfterIdleMs;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    // Pool sizing comes from -Devoting.pool.* so kiosks can be tuned without a rebuild
+    static ConnectionPool fromSystemProperties(String url, String user, String password) {
+        int size = Integer.getInteger("evoting.pool.size", 10);
+        long timeoutMs = Long.getLong("evoting.pool.checkoutTimeoutMs", 5000L);
+        long validateMs = Long.getLong("evoting.pool.validateAfterIdleMs", 30000L);
+        int cacheSize = Integer.getInteger("evoting.pool.statementCacheSize", 32);
+        return new ConnectionPool(url, user, password, size, timeoutMs, validateMs, cacheSize);
+    }
+
+    // Opens one connection eagerly so a bad URL or credentials fail at startup
+    void warmUp() throws SQLException {
+        getConnection().close(); // returned to the idle queue on close
+    }
+
+    Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(checkoutTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        checkoutWaitNanos.add(System.nanoTime() - start);
+        if (!acquired) {
+            checkoutTimeouts.increment();
+            throw new SQLTransientConnectionException(
+                "Timed out after " + checkoutTimeoutMs + " ms waiting for a database connection (" + stats() + ")");
+        }
+
+        try {
+            PhysicalConnection physical;
+            while ((physical = idle.pollFirst()) != null) {
+                if (isUsable(physical)) break;
+                validationFailures.increment();
+                physical.destroy();
+            }
+            if (physical == null) {
+                physical = open();
+            }
+            checkouts.increment();
+            return physical.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PhysicalConnection physical) {
+        if (System.currentTimeMillis() - physical.lastReturnedAt < validateAfterIdleMs) {
+            return true;
+        }
+        try {
+            return physical.raw.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PhysicalConnection open() throws SQLException {
+        Connection raw = DriverManager.getConnection(url, user, password);
+        openConnections.incrementAndGet();
+        return new PhysicalConnection(raw);
+    }
+
+    private void release(PhysicalConnection physical, boolean broken) {
+        try {
+            if (!broken && !closed) {
+                try {
+                    if (!physical.raw.getAutoCommit()) {
+                        physical.raw.rollback(); // never leak a half-finished transaction to the next borrower
+                        physical.raw.setAutoCommit(true);
+                    }
+                    physical.raw.clearWarnings();
+                } catch (SQLException e) {
+                    broken = true;
+                }
+            }
+            if (broken || closed) {
+                physical.destroy();
+            } else {
+                physical.lastReturnedAt = System.currentTimeMillis();
+                idle.offerFirst(physical); // LIFO keeps the hottest connections (and their statement caches) busy
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    String stats() {
+        long count = checkouts.sum();
+        double avgWaitMs = count == 0 ? 0 : checkoutWaitNanos.sum() / 1_000_000.0 / count;
+        return String.format(
+            "pool size=%d open=%d idle=%d inUse=%d waiting=%d checkouts=%d avgWait=%.2fms timeouts=%d " +
+            "validationFailures=%d stmtCacheHits=%d stmtCacheMisses=%d",
+            maxSize, openConnections.get(), idle.size(), maxSize - permits.availablePermits(),
+            permits.getQueueLength(), count, avgWaitMs, checkoutTimeouts.sum(), validationFailures.sum(),
+            statementCacheHits.sum(), statementCacheMisses.sum());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            physical.destroy();
+        }
+    }
+
+    // A real JDBC connection plus its prepared statement cache
+    private final class PhysicalConnection {
+        final Connection raw;
+        volatile long lastReturnedAt = System.currentTimeMillis();
+        private final Map<String, CachedStatement> statementCache =
+            new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() > statementCacheSize && !eldest.getValue().inUse) {
+                        eldest.getValue().closeQuietly();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+        PhysicalConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        Connection lease() {
+            Lease lease = new Lease(this);
+            return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, lease);
+        }
+
+        void destroy() {
+            for (CachedStatement cached : statementCache.values()) {
+                cached.closeQuietly();
+            }
+            statementCache.clear();
+            try {
+                raw.close();
+            } catch (SQLException ignored) {
+                // already gone
+            }
+            openConnections.decrementAndGet();
+        }
+    }
+
+    private static final class CachedStatement {
+        final String sql;
+        final PreparedStatement statement;
+        boolean inUse;
+
+        CachedStatement(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // nothing useful to do
+            }
+        }
+    }
+
+    // One checkout of a physical connection. close() hands it back instead of closing it.
+    private final class Lease implements InvocationHandler {
+        private final PhysicalConnection physical;
+        private final List<Statement> uncachedStatements = new ArrayList<>();
+        private final List<CachedStatement> borrowedStatements = new ArrayList<>();
+        private boolean returned = false;
+        private boolean broken = false;
+
+        Lease(PhysicalConnection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    returnToPool();
+                    return null;
+                case "isClosed":
+                    return returned || physical.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical.raw + "]";
+                default:
+                    break;
+            }
+            if (returned) throw new SQLException("Connection has already been returned to the pool");
+
+            if ("prepareStatement".equals(name) && args.length == 1 && statementCacheSize > 0) {
+                return prepareCached((String) args[0]);
+            }
+            try {
+                Object result = method.invoke(physical.raw, args);
+                if (result instanceof Statement) {
+                    uncachedStatements.add((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                markBrokenIfFatal(cause);
+                throw cause;
+            }
+        }
+
+        private PreparedStatement prepareCached(String sql) throws SQLException {
+            CachedStatement cached = physical.statementCache.get(sql);
+            if (cached != null && cached.inUse) {
+                // Same SQL prepared twice within one lease: hand out a private copy
+                PreparedStatement statement = physical.raw.prepareStatement(sql);
+                uncachedStatements.add(statement);
+                return statement;
+            }
+            if (cached == null) {
+                statementCacheMisses.increment();
+                try {
+                    cached = new CachedStatement(sql, physical.raw.prepareStatement(sql));
+                } catch (SQLException e) {
+                    markBrokenIfFatal(e);
+                    throw e;
+                }
+                physical.statementCache.put(sql, cached);
+            } else {
+                statementCacheHits.increment();
+            }
+            cached.inUse = true;
+            borrowedStatements.add(cached);
+            return wrapCached(cached);
+        }
+
+        private PreparedStatement wrapCached(CachedStatement cached) {
+            InvocationHandler handler = (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "close":
+                        resetCached(cached);
+                        return null;
+                    case "getConnection":
+                        throw new SQLFeatureNotSupportedException("Use the pooled connection directly");
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        try {
+                            return method.invoke(cached.statement, args);
+                        } catch (InvocationTargetException e) {
+                            markBrokenIfFatal(e.getCause());
+                            throw e.getCause();
+                        }
+                }
+            };
+            return (PreparedStatement) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, handler);
+        }
+
+        private void resetCached(CachedStatement cached) {
+            if (!cached.inUse) return;
+            cached.inUse = false;
+            try {
+                cached.statement.clearParameters();
+                cached.statement.clearBatch();
+            } catch (SQLException e) {
+                physical.statementCache.remove(cached.sql);
+                cached.closeQuietly();
+            }
+        }
+
+        private void markBrokenIfFatal(Throwable t) {
+            // SQLState class 08 = connection exception; such a connection must not go back into rotation
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && state.startsWith("08")) broken = true;
+            }
+        }
+
+        private void returnToPool() {
+            if (returned) return;
+            returned = true;
+            for (Statement statement : uncachedStatements) {
+                try {
+                    statement.close();
+                } catch (SQLException ignored) {
+                    // closing a dead statement is fine
+                }
+            }
+            uncachedStatements.clear();
+            for (Iterator<CachedStatement> it = borrowedStatements.iterator(); it.hasNext(); ) {
+                resetCached(it.next());
+                it.remove();
+            }
+            release(physical, broken);
+        }
+    }
+}
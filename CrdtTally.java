@@ -0,0 +1,379 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Replicated kiosk tally that converges without the central database.
+//
+// Every kiosk (node) counts the votes it accepts in its own row of a G-Counter
+// (node -> candidate -> count); merging takes the per-cell maximum, so any two nodes
+// that have seen the same rows report identical totals. Alongside it each node keeps a
+// grow-only voted-set: an append-only log of (voter address, candidate) for the votes it
+// accepted. Logs are replicated by anti-entropy: every evoting.crdt.gossipMs a node
+// broadcasts a digest (its counter rows plus how many entries it holds of every node's
+// log); a node that holds more of some log than a digest's sender answers that sender
+// alone with the missing entries. Nodes keep accepting votes while cut off and catch up
+// on reconnect.
+//
+// Every message is signed with the sending kiosk's Ed25519 key (evoting.crdt.keyFile) and
+// dropped unless it verifies against the key evoting.crdt.peerKeys lists for the sender's
+// node name. A kiosk vouches for everything it relays, including other kiosks' rows and
+// log entries. A replayed message is harmless: merges are idempotent.
+//
+// A voter found in the logs of two different nodes voted on both sides of a partition.
+// The counters cannot take the second vote back, so the merge reports it as a
+// Conflict (with each node's candidate) and Snapshot.contested counts the extra votes.
+//
+// A node's id carries a per-process incarnation, so a restarted kiosk starts a fresh
+// row instead of re-counting from zero into a row its peers already hold.
+class CrdtTally implements AutoCloseable {
+
+    private static final byte DIGEST = 1;
+    private static final byte ENTRIES = 2;
+    private static final int MAX_ENTRIES_PER_MESSAGE = 10_000;
+    private static final int SIGNATURE_BYTES = 64; // Ed25519
+
+    // One voter seen on more than one node: node -> candidate voted there
+    static final class Conflict {
+        final String voter;
+        final Map<String, String> ballots;
+
+        Conflict(String voter, Map<String, String> ballots) {
+            this.voter = voter;
+            this.ballots = ballots;
+        }
+    }
+
+    // Merged state as this node currently sees it
+    static final class Snapshot {
+        final Map<String, Long> totals; // candidate name -> votes, sorted by name
+        final List<String> nodes;
+        final long voters;
+        final List<Conflict> conflicts;
+        final long contested;           // votes beyond the first for conflicting voters
+
+        Snapshot(Map<String, Long> totals, List<String> nodes, long voters, List<Conflict> conflicts) {
+            this.totals = totals;
+            this.nodes = nodes;
+            this.voters = voters;
+            this.conflicts = conflicts;
+            long extra = 0;
+            for (Conflict conflict : conflicts) extra += conflict.ballots.size() - 1;
+            this.contested = extra;
+        }
+
+        String describe() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%d nodes, %d voters%n%n", nodes.size(), voters));
+            for (Map.Entry<String, Long> total : totals.entrySet()) {
+                text.append(String.format("%-20.20s %12d%n", total.getKey(), total.getValue()));
+            }
+            if (!conflicts.isEmpty()) {
+                text.append(String.format("%n%d voters voted on more than one node (%d contested votes):%n",
+                    conflicts.size(), contested));
+                for (Conflict conflict : conflicts) text.append(conflict.voter).append(": ").append(conflict.ballots).append('\n');
+            }
+            return text.toString();
+        }
+    }
+
+    // One node's voted-set log; entries are only ever appended
+    private static final class NodeLog {
+        final List<String[]> entries = new ArrayList<>(); // {voter, candidate}
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    private final String nodeId;
+    private final PrivateKey key;
+    private final Map<String, PublicKey> peerKeys; // node name -> key its messages are signed with
+    private final GossipTransport transport;
+    private final long gossipNanos;
+    private final Map<String, Map<String, AtomicLong>> counters = new ConcurrentHashMap<>(); // node -> candidate -> count
+    private final Map<String, NodeLog> logs = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> voters = new ConcurrentHashMap<>();    // voter -> node -> candidate
+    private final Map<String, Conflict> conflicts = new ConcurrentHashMap<>();
+    private final Thread gossiper;
+    private volatile boolean running = true;
+
+    // Instrumentation
+    private final LongAdder digestsSent = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder entriesSent = new LongAdder();
+    private final LongAdder entriesMerged = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    CrdtTally(String nodeName, PrivateKey key, Map<String, PublicKey> peerKeys,
+              GossipTransport transport) throws IOException {
+        this.nodeId = nodeName + "#" + Long.toString(System.currentTimeMillis(), 36);
+        this.key = key;
+        this.peerKeys = peerKeys;
+        this.transport = transport;
+        this.gossipNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, Long.getLong("evoting.crdt.gossipMs", 2000L)));
+        counters.put(nodeId, new ConcurrentHashMap<>());
+        logs.put(nodeId, new NodeLog());
+        transport.start(this::receive);
+        this.gossiper = new Thread(this::gossip, "crdt-gossip");
+        this.gossiper.setDaemon(true);
+        this.gossiper.start();
+    }
+
+    // Null unless -Devoting.crdt.port is set; the node name defaults to the host name.
+    // evoting.crdt.peerKeys is a comma-separated list of name=<public key> entries.
+    static CrdtTally fromSystemProperties() throws IOException {
+        if (System.getProperty("evoting.crdt.port") == null) return null;
+        String nodeName = System.getProperty("evoting.crdt.node");
+        if (nodeName == null) nodeName = InetAddress.getLocalHost().getHostName();
+        String keyFile = System.getProperty("evoting.crdt.keyFile", "");
+        if (keyFile.isEmpty()) {
+            throw new IOException("Kiosk gossip is signed; set evoting.crdt.keyFile and evoting.crdt.peerKeys");
+        }
+        PrivateKey key = VoteSignatures.readKioskKey(Paths.get(keyFile));
+        Map<String, PublicKey> peerKeys = new HashMap<>();
+        for (String entry : System.getProperty("evoting.crdt.peerKeys", "").split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            int equals = entry.indexOf('=');
+            if (equals <= 0) throw new IOException("evoting.crdt.peerKeys entry is not name=key: " + entry);
+            try {
+                peerKeys.put(entry.substring(0, equals), VoteSignatures.decodeKey(entry.substring(equals + 1)));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("evoting.crdt.peerKeys has a bad key for " + entry.substring(0, equals), e);
+            }
+        }
+        return new CrdtTally(nodeName, key, peerKeys, GossipTransport.fromSystemProperties());
+    }
+
+    String nodeId() {
+        return nodeId;
+    }
+
+    // Called once per vote this kiosk accepted; voter is the voter's chain address, so no
+    // username leaves the kiosk
+    void recordVote(String voter, String candidate) {
+        counters.get(nodeId).computeIfAbsent(candidate, name -> new AtomicLong()).incrementAndGet();
+        NodeLog log = logs.get(nodeId);
+        synchronized (log) {
+            log.entries.add(new String[] {voter, candidate});
+        }
+        index(nodeId, voter, candidate);
+    }
+
+    Snapshot snapshot() {
+        Map<String, Long> totals = new TreeMap<>();
+        for (Map<String, AtomicLong> row : counters.values()) {
+            for (Map.Entry<String, AtomicLong> cell : row.entrySet()) {
+                totals.merge(cell.getKey(), cell.getValue().get(), Long::sum);
+            }
+        }
+        List<String> nodes = new ArrayList<>(counters.keySet());
+        Collections.sort(nodes);
+        List<Conflict> found = new ArrayList<>(conflicts.values());
+        found.sort((a, b) -> a.voter.compareTo(b.voter));
+        return new Snapshot(totals, nodes, voters.size(), found);
+    }
+
+    String stats() {
+        return String.format("crdt node=%s nodes=%d voters=%d conflicts=%d digests=%d received=%d rejected=%d entriesSent=%d entriesMerged=%d",
+            nodeId, counters.size(), voters.size(), conflicts.size(), digestsSent.sum(), messagesReceived.sum(),
+            rejected.sum(), entriesSent.sum(), entriesMerged.sum());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(gossiper);
+        try {
+            gossiper.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        transport.close();
+    }
+
+    private void gossip() {
+        while (running) {
+            LockSupport.parkNanos(gossipNanos);
+            if (!running) break;
+            try {
+                transport.broadcast(signed(digest()));
+                digestsSent.increment();
+            } catch (RuntimeException e) {
+                System.out.println("CRDT gossip failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Counter rows plus the length of every log held here
+    private byte[] digest() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(DIGEST);
+            out.writeUTF(nodeId);
+            Map<String, Map<String, AtomicLong>> rows = new LinkedHashMap<>(counters);
+            out.writeInt(rows.size());
+            for (Map.Entry<String, Map<String, AtomicLong>> row : rows.entrySet()) {
+                Map<String, AtomicLong> cells = new LinkedHashMap<>(row.getValue());
+                out.writeUTF(row.getKey());
+                out.writeInt(cells.size());
+                for (Map.Entry<String, AtomicLong> cell : cells.entrySet()) {
+                    out.writeUTF(cell.getKey());
+                    out.writeLong(cell.getValue().get());
+                }
+            }
+            Map<String, NodeLog> held = new LinkedHashMap<>(logs);
+            out.writeInt(held.size());
+            for (Map.Entry<String, NodeLog> log : held.entrySet()) {
+                out.writeUTF(log.getKey());
+                out.writeInt(log.getValue().size());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream
+        }
+    }
+
+    // The message followed by this node's signature over it
+    private byte[] signed(byte[] message) {
+        byte[] signature = VoteSignatures.signMessage(key, message);
+        byte[] frame = Arrays.copyOf(message, message.length + signature.length);
+        System.arraycopy(signature, 0, frame, message.length, signature.length);
+        return frame;
+    }
+
+    private void receive(byte[] frame, Consumer<byte[]> reply) {
+        messagesReceived.increment();
+        if (frame.length <= SIGNATURE_BYTES) {
+            rejected.increment();
+            return;
+        }
+        byte[] message = Arrays.copyOf(frame, frame.length - SIGNATURE_BYTES);
+        byte[] signature = Arrays.copyOfRange(frame, message.length, frame.length);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+            byte type = in.readByte();
+            String sender = in.readUTF();
+            if (sender.equals(nodeId)) return;
+            int incarnation = sender.lastIndexOf('#');
+            PublicKey senderKey = incarnation > 0 ? peerKeys.get(sender.substring(0, incarnation)) : null;
+            if (senderKey == null || !VoteSignatures.verifyMessage(senderKey, message, signature)) {
+                rejected.increment();
+                return;
+            }
+            if (type == DIGEST) {
+                mergeDigest(in, reply);
+            } else if (type == ENTRIES) {
+                mergeEntries(in);
+            }
+        } catch (IOException e) {
+            System.out.println("Malformed CRDT gossip dropped: " + e.getMessage());
+        }
+    }
+
+    private void mergeDigest(DataInputStream in, Consumer<byte[]> reply) throws IOException {
+        int rows = in.readInt();
+        for (int r = 0; r < rows; r++) {
+            String node = in.readUTF();
+            Map<String, AtomicLong> row = counters.computeIfAbsent(node, n -> new ConcurrentHashMap<>());
+            int cells = in.readInt();
+            for (int c = 0; c < cells; c++) {
+                String candidate = in.readUTF();
+                long count = in.readLong();
+                row.computeIfAbsent(candidate, name -> new AtomicLong()).accumulateAndGet(count, Math::max);
+            }
+        }
+
+        Map<String, Integer> theirs = new ConcurrentHashMap<>();
+        int held = in.readInt();
+        for (int i = 0; i < held; i++) theirs.put(in.readUTF(), in.readInt());
+        // Anti-entropy: send the sender, and only the sender, whatever part of any log it is missing
+        for (Map.Entry<String, NodeLog> log : logs.entrySet()) {
+            int from = theirs.getOrDefault(log.getKey(), 0);
+            if (log.getValue().size() > from) sendEntries(log.getKey(), log.getValue(), from, reply);
+        }
+    }
+
+    private void sendEntries(String origin, NodeLog log, int from, Consumer<byte[]> reply) {
+        List<String[]> missing;
+        synchronized (log) {
+            int to = Math.min(log.entries.size(), from + MAX_ENTRIES_PER_MESSAGE);
+            missing = new ArrayList<>(log.entries.subList(from, to));
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(ENTRIES);
+            out.writeUTF(nodeId);
+            out.writeUTF(origin);
+            out.writeInt(from);
+            out.writeInt(missing.size());
+            for (String[] entry : missing) {
+                out.writeUTF(entry[0]);
+                out.writeUTF(entry[1]);
+            }
+            out.flush();
+            reply.accept(signed(bytes.toByteArray()));
+            entriesSent.add(missing.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream
+        }
+    }
+
+    // Appends the part of the range this node does not have yet; a range that starts past
+    // the end of the local copy is dropped and asked for again by the next digest
+    private void mergeEntries(DataInputStream in) throws IOException {
+        String origin = in.readUTF();
+        int from = in.readInt();
+        int count = in.readInt();
+        if (origin.equals(nodeId)) return; // only this node appends to its own log
+        NodeLog log = logs.computeIfAbsent(origin, n -> new NodeLog());
+        List<String[]> added = new ArrayList<>();
+        synchronized (log) {
+            int size = log.entries.size();
+            if (from > size) return;
+            for (int i = 0; i < count; i++) {
+                String[] entry = {in.readUTF(), in.readUTF()};
+                if (from + i >= size) {
+                    log.entries.add(entry);
+                    added.add(entry);
+                }
+            }
+        }
+        for (String[] entry : added) index(origin, entry[0], entry[1]);
+        entriesMerged.add(added.size());
+    }
+
+    private void index(String node, String voter, String candidate) {
+        Map<String, String> ballots = voters.computeIfAbsent(voter, v -> new ConcurrentHashMap<>());
+        ballots.put(node, candidate);
+        if (ballots.size() > 1) {
+            Conflict conflict = new Conflict(voter, new TreeMap<>(ballots));
+            if (conflicts.put(voter, conflict) == null) {
+                System.out.println("Duplicate voter " + voter + " across kiosks: " + conflict.ballots);
+            }
+        }
+    }
+}
@@ -1,16 +1,15 @@
 import java.awt.*;
-import java.security.MessageDigest;
 import java.sql.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import javax.swing.*;
 
 public class EVotingSystem {
 
     private JFrame mainFrame;
-    private Connection connection;
-    private Map<String, Integer> candidateVotes = new HashMap<>();
-    private String currentUser = null;
+    private VotingEngine votingEngine;
+    private VotingEngine.Session currentSession = null;
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
@@ -29,7 +28,11 @@ public class EVotingSystem {
         String user = "";
         String password = ""; 
 
-        connection = DriverManager.getConnection(url, user, password);
+        ConnectionPool connectionPool = ConnectionPool.fromSystemProperties(url, user, password);
+        connectionPool.warmUp();
+
+        // All voting logic runs in the engine; this frame only renders it
+        votingEngine = VotingEngine.start(connectionPool, null);
 
         mainFrame = new JFrame("E-Voting System");
         mainFrame.setSize(800, 600);
@@ -134,33 +137,32 @@ public class EVotingSystem {
 
     private void registerUser(String username, String password) {
         try {
-            String hashedPassword = hashPassword(password);
-            String sql = "INSERT INTO users (username, password, role) VALUES (?, ?, 'voter')";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, username);
-            preparedStatement.setString(2, hashedPassword);
-            preparedStatement.executeUpdate();
+            VotingEngine.await(votingEngine.register(username, password));
             JOptionPane.showMessageDialog(mainFrame, "Registration successful!");
             createLoginPanel();
-        } catch (SQLException ex) {
+        } catch (Exception ex) {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(mainFrame, "Registration failed.");
         }
     }
 
     private void authenticateUser(String username, String password) {
-        try {
-            String hashedPassword = hashPassword(password);
-            String sql = "SELECT * FROM users WHERE username = ? AND password = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, username);
-            preparedStatement.setString(2, hashedPassword);
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            if (resultSet.next()) {
-                String role = resultSet.getString("role");
-                currentUser = username; // set session
-                if ("admin".equals(role)) {
+        // Logins queue in the engine's auth pipeline; the EDT is not held while they wait
+        votingEngine.authenticate(username, password).whenComplete((session, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof RejectedExecutionException) {
+                    JOptionPane.showMessageDialog(mainFrame, "The system is busy, please try again in a moment.");
+                } else {
+                    cause.printStackTrace();
+                    JOptionPane.showMessageDialog(mainFrame, "Authentication failed.");
+                }
+                return;
+            }
+
+            if (session != null) {
+                currentSession = session; // set session
+                if (session.isAdmin()) {
                     createAdminPanel();
                 } else {
                     createVoterPanel();
@@ -168,29 +170,14 @@ public class EVotingSystem {
             } else {
                 JOptionPane.showMessageDialog(mainFrame, "Invalid username or password.");
             }
-
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(mainFrame, "Authentication failed.");
-        }
+        }));
     }
 
     private void createVoterPanel() {
-        try {
-            // Check if user has already voted
-            String checkVoteSql = "SELECT has_voted FROM users WHERE username = ?";
-            PreparedStatement checkStmt = connection.prepareStatement(checkVoteSql);
-            checkStmt.setString(1, currentUser);
-            ResultSet checkResult = checkStmt.executeQuery();
-    
-            if (checkResult.next() && checkResult.getBoolean("has_voted")) {
-                JOptionPane.showMessageDialog(mainFrame, "You have already voted!");
-                createLoginPanel();
-                return;
-            }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(mainFrame, "Error checking voting status.");
+        // Voting status was read together with the login
+        if (currentSession.hasVoted) {
+            JOptionPane.showMessageDialog(mainFrame, "You have already voted!");
+            createLoginPanel();
             return;
         }
     
@@ -199,94 +186,81 @@ public class EVotingSystem {
         JPanel votePanel = new JPanel(new GridLayout(0, 1));
     
         try {
-            String sql = "SELECT candidate_name FROM candidates";
-            Statement statement = connection.createStatement();
-            ResultSet resultSet = statement.executeQuery(sql);
+            List<VotingEngine.Candidate> candidates = VotingEngine.await(votingEngine.listCandidates());
     
             ButtonGroup group = new ButtonGroup();
     
-            while (resultSet.next()) {
-                String candidateName = resultSet.getString("candidate_name");
-                JRadioButton radioButton = new JRadioButton(candidateName);
+            for (VotingEngine.Candidate candidate : candidates) {
+                JRadioButton radioButton = new JRadioButton(candidate.name);
+                radioButton.putClientProperty("candidate", candidate);
                 group.add(radioButton);
                 votePanel.add(radioButton);
             }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(mainFrame, "Error loading candidates.");
+            return;
+        }
     
-            JButton voteButton = new JButton("Vote");
-            voteButton.addActionListener(e -> {
-                for (Component component : votePanel.getComponents()) {
-                    if (component instanceof JRadioButton) {
-                        JRadioButton radioButton = (JRadioButton) component;
-                        if (radioButton.isSelected()) {
-                            String selectedCandidate = radioButton.getText();
-                            try {
-                                connection.setAutoCommit(false); // Start transaction
-    
-                                // Increment vote count
-                                String updateCandidateSql = "UPDATE candidates SET votes = votes + 1 WHERE candidate_name = ?";
-                                PreparedStatement updateCandidateStmt = connection.prepareStatement(updateCandidateSql);
-                                updateCandidateStmt.setString(1, selectedCandidate);
-                                updateCandidateStmt.executeUpdate();
-    
-                                // Mark user as voted
-                                String updateUserSql = "UPDATE users SET has_voted = TRUE WHERE username = ?";
-                                PreparedStatement updateUserStmt = connection.prepareStatement(updateUserSql);
-                                updateUserStmt.setString(1, currentUser);
-                                updateUserStmt.executeUpdate();
-    
-                                connection.commit(); // Commit both updates
-    
+        JButton voteButton = new JButton("Vote");
+        voteButton.addActionListener(e -> {
+            for (Component component : votePanel.getComponents()) {
+                if (component instanceof JRadioButton) {
+                    JRadioButton radioButton = (JRadioButton) component;
+                    if (radioButton.isSelected()) {
+                        VotingEngine.Candidate candidate = (VotingEngine.Candidate) radioButton.getClientProperty("candidate");
+                        try {
+                            // Returns once the vote is durable (batch committed or journal record forced)
+                            VoteRepository.VoteStatus status =
+                                VotingEngine.await(votingEngine.castVote(currentSession, candidate)).status;
+                            if (status == VoteRepository.VoteStatus.CAST) {
                                 JOptionPane.showMessageDialog(mainFrame, "Vote cast successfully!");
                                 createLoginPanel();
-                                return;
-    
-                            } catch (SQLException ex) {
-                                try {
-                                    connection.rollback(); // Rollback if any error
-                                } catch (SQLException rollbackEx) {
-                                    rollbackEx.printStackTrace();
-                                }
-                                ex.printStackTrace();
+                            } else if (status == VoteRepository.VoteStatus.JOURNALED) {
+                                JOptionPane.showMessageDialog(mainFrame,
+                                    "Vote recorded! It will be counted once the database confirms it.");
+                                createLoginPanel();
+                            } else if (status == VoteRepository.VoteStatus.ALREADY_VOTED) {
+                                JOptionPane.showMessageDialog(mainFrame, "You have already voted!");
+                                createLoginPanel();
+                            } else {
                                 JOptionPane.showMessageDialog(mainFrame, "Voting failed.");
-                            } finally {
-                                try {
-                                    connection.setAutoCommit(true); // Reset to default
-                                } catch (SQLException ex1) {
-                                    ex1.printStackTrace();
-                                }
                             }
+                        } catch (Exception ex) {
+                            ex.printStackTrace();
+                            JOptionPane.showMessageDialog(mainFrame, "Voting failed.");
                         }
+                        return;
                     }
                 }
-                JOptionPane.showMessageDialog(mainFrame, "Please select a candidate.");
-            });
-    
-            voterPanel.add(votePanel, BorderLayout.CENTER);
-            voterPanel.add(voteButton, BorderLayout.SOUTH);
-            voterPanel.add(createLogoutButton(), BorderLayout.NORTH);
+            }
+            JOptionPane.showMessageDialog(mainFrame, "Please select a candidate.");
+        });
     
-            mainFrame.getContentPane().removeAll();
-            mainFrame.getContentPane().add(voterPanel);
-            mainFrame.revalidate();
-            mainFrame.repaint();
+        voterPanel.add(votePanel, BorderLayout.CENTER);
+        voterPanel.add(voteButton, BorderLayout.SOUTH);
+        voterPanel.add(createLogoutButton(), BorderLayout.NORTH);
     
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(mainFrame, "Error loading candidates.");
-        }
+        mainFrame.getContentPane().removeAll();
+        mainFrame.getContentPane().add(voterPanel);
+        mainFrame.revalidate();
+        mainFrame.repaint();
     }
-    
+
     private void createAdminPanel() {
         JMenuBar menuBar = new JMenuBar();
         JMenu resultsMenu = new JMenu("Results");
         JMenuItem viewResultsItem = new JMenuItem("View Results");
+        JMenuItem turnoutItem = new JMenuItem("Turnout");
         resultsMenu.add(viewResultsItem);
+        resultsMenu.add(turnoutItem);
         menuBar.add(resultsMenu);
 
         JMenu sessionMenu = new JMenu("Session");
         JMenuItem logoutItem = new JMenuItem("Logout");
         logoutItem.addActionListener(e -> {
-            currentUser = null;
+            votingEngine.logout(currentSession);
+            currentSession = null;
             createLoginPanel();
             mainFrame.setJMenuBar(null);
         });
@@ -296,6 +270,7 @@ public class EVotingSystem {
         mainFrame.setJMenuBar(menuBar);
 
         viewResultsItem.addActionListener(e -> showResults());
+        turnoutItem.addActionListener(e -> showTurnout());
 
         JPanel adminPanel = new JPanel();
         adminPanel.add(new JLabel("Welcome, Admin"));
@@ -307,52 +282,22 @@ public class EVotingSystem {
     }
 
     private void showResults() {
-        JPanel resultsPanel = new JPanel(new GridLayout(0, 2));
-
-        try {
-            String sql = "SELECT candidate_name, votes FROM candidates";
-            Statement statement = connection.createStatement();
-            ResultSet resultSet = statement.executeQuery(sql);
-
-            while (resultSet.next()) {
-                resultsPanel.add(new JLabel(resultSet.getString("candidate_name")));
-                resultsPanel.add(new JLabel(String.valueOf(resultSet.getInt("votes"))));
-            }
-
-            JFrame resultsFrame = new JFrame("Voting Results");
-            resultsFrame.setSize(400, 300);
-            resultsFrame.add(resultsPanel);
-            resultsFrame.setVisible(true);
+        // Follows the engine's in-memory projection; no query per refresh
+        LiveResultsPanel.showInFrame("Voting Results", votingEngine.liveResults());
+    }
 
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(mainFrame, "Error retrieving results");
-        }
+    private void showTurnout() {
+        // Reads the engine's turnout rings once a second while the window is open
+        TurnoutPanel.showInFrame("Turnout", votingEngine.turnout(), () -> votingEngine.listCandidates().join());
     }
 
     private JButton createLogoutButton() {
         JButton logoutButton = new JButton("Logout");
         logoutButton.addActionListener(e -> {
-            currentUser = null;
+            votingEngine.logout(currentSession);
+            currentSession = null;
             createLoginPanel();
         });
         return logoutButton;
     }
-
-    private String hashPassword(String password) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hashedBytes = md.digest(password.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashedBytes) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
 }
-
-
@@ -0,0 +1,393 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Several simultaneous elections on one deployment, each split into precincts.
+//
+// An election has its own ballot (election_candidates, drawn from the candidates table)
+// and its own voted-state: election_voters holds one row per (election, voter), so
+// voting in one election says nothing about another and the claim is a primary-key
+// insert rather than an update of users.has_voted. Tallies live in election_tallies,
+// one row per (election, precinct, candidate), so votes in different precincts or
+// different elections never wait on the same row lock. A voter's precinct is
+// users.precinct_id; voters without one count in precinct 0.
+//
+// Results read the partitions in parallel: a fork-join task splits the precinct list in
+// halves down to PRECINCTS_PER_QUERY precincts, each leaf reads its range on its own
+// pooled connection, and the per-precinct arrays are combined on the way back up.
+//
+// Usage: java Elections <jdbcUrl> <dbUser> <dbPassword> <command> [args]
+//   create-election <name> | add-precinct <name> | add-candidate <electionId> <candidateId>
+//   assign <username> <precinctId> | results <electionId> | list
+public class Elections {
+
+    static final int UNASSIGNED_PRECINCT = 0;
+    private static final int PRECINCTS_PER_QUERY = 32;
+
+    static final class Election {
+        final int id;
+        final String name;
+
+        Election(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    // Totals for one election: per candidate, and per precinct and candidate
+    static final class Results {
+        final Election election;
+        final List<VotingEngine.Candidate> candidates;
+        final int[] precinctIds;
+        final String[] precinctNames;
+        final long[][] votes; // [precinct index][candidate index]
+        final long[] totals;  // [candidate index]
+        final double seconds;
+
+        Results(Election election, List<VotingEngine.Candidate> candidates, int[] precinctIds, String[] precinctNames,
+                long[][] votes, double seconds) {
+            this.election = election;
+            this.candidates = candidates;
+            this.precinctIds = precinctIds;
+            this.precinctNames = precinctNames;
+            this.votes = votes;
+            this.totals = new long[candidates.size()];
+            for (long[] precinct : votes) {
+                for (int c = 0; c < totals.length; c++) totals[c] += precinct[c];
+            }
+            this.seconds = seconds;
+        }
+
+        // Totals first, then one row per precinct that has votes
+        String describe() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%s: %d precincts aggregated in %.3fs%n%n", election.name, precinctIds.length, seconds));
+            text.append(String.format("%-20s", "Precinct"));
+            for (VotingEngine.Candidate candidate : candidates) text.append(String.format(" %12.12s", candidate.name));
+            text.append('\n');
+            text.append(String.format("%-20s", "All precincts"));
+            for (long total : totals) text.append(String.format(" %12d", total));
+            text.append('\n');
+            for (int p = 0; p < precinctIds.length; p++) {
+                long sum = 0;
+                for (long count : votes[p]) sum += count;
+                if (sum == 0) continue;
+                text.append(String.format("%-20.20s", precinctNames[p]));
+                for (long count : votes[p]) text.append(String.format(" %12d", count));
+                text.append('\n');
+            }
+            return text.toString();
+        }
+    }
+
+    private final ConnectionPool connectionPool;
+
+    Elections(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    static void installSchema(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS elections (" +
+                               "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                               "name VARCHAR(100) NOT NULL UNIQUE" +
+                               ")");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS precincts (" +
+                               "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                               "name VARCHAR(100) NOT NULL UNIQUE" +
+                               ")");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS election_candidates (" +
+                               "election_id INT NOT NULL, " +
+                               "candidate_id INT NOT NULL, " +
+                               "PRIMARY KEY (election_id, candidate_id)" +
+                               ")");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS election_tallies (" +
+                               "election_id INT NOT NULL, " +
+                               "precinct_id INT NOT NULL, " +
+                               "candidate_id INT NOT NULL, " +
+                               "votes BIGINT NOT NULL DEFAULT 0, " +
+                               "PRIMARY KEY (election_id, precinct_id, candidate_id)" +
+                               ")");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS election_voters (" +
+                               "election_id INT NOT NULL, " +
+                               "user_id BIGINT NOT NULL, " +
+                               "precinct_id INT NOT NULL, " +
+                               "cast_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                               "PRIMARY KEY (election_id, user_id)" +
+                               ")");
+        }
+        if (!VoteRepository.hasColumn(connection, "users", "precinct_id")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("ALTER TABLE users ADD COLUMN precinct_id INT NULL");
+            }
+        }
+    }
+
+    Election find(int electionId) throws SQLException {
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("SELECT id, name FROM elections WHERE id = ?")) {
+            stmt.setInt(1, electionId);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? new Election(resultSet.getInt("id"), resultSet.getString("name")) : null;
+            }
+        }
+    }
+
+    List<Election> list() throws SQLException {
+        List<Election> elections = new ArrayList<>();
+        try (Connection connection = connectionPool.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT id, name FROM elections ORDER BY id")) {
+            while (resultSet.next()) elections.add(new Election(resultSet.getInt("id"), resultSet.getString("name")));
+        }
+        return elections;
+    }
+
+    // The election's candidates in id order
+    List<VotingEngine.Candidate> ballot(int electionId) throws SQLException {
+        List<VotingEngine.Candidate> candidates = new ArrayList<>();
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                 "SELECT c.id, c.candidate_name FROM election_candidates ec " +
+                 "JOIN candidates c ON c.id = ec.candidate_id WHERE ec.election_id = ? ORDER BY c.id")) {
+            stmt.setInt(1, electionId);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    candidates.add(new VotingEngine.Candidate(resultSet.getInt("id"), resultSet.getString("candidate_name")));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    // True if the voter already has a row in this election
+    boolean hasVoted(int electionId, long voterId) throws SQLException {
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                 "SELECT 1 FROM election_voters WHERE election_id = ? AND user_id = ?")) {
+            stmt.setInt(1, electionId);
+            stmt.setLong(2, voterId);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    // Claims (election, voter) and bumps the (election, precinct, candidate) tally in one
+    // transaction; the only rows locked belong to this voter and this precinct
+    VoteRepository.VoteStatus castVote(int electionId, long voterId, int candidateId) throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int precinctId = UNASSIGNED_PRECINCT;
+                try (PreparedStatement precinctStmt = connection.prepareStatement(
+                        "SELECT precinct_id FROM users WHERE id = ?")) {
+                    precinctStmt.setLong(1, voterId);
+                    try (ResultSet resultSet = precinctStmt.executeQuery()) {
+                        if (resultSet.next() && resultSet.getObject(1) != null) precinctId = resultSet.getInt(1);
+                    }
+                }
+
+                try (PreparedStatement claimStmt = connection.prepareStatement(
+                        "INSERT IGNORE INTO election_voters (election_id, user_id, precinct_id) VALUES (?, ?, ?)")) {
+                    claimStmt.setInt(1, electionId);
+                    claimStmt.setLong(2, voterId);
+                    claimStmt.setInt(3, precinctId);
+                    if (claimStmt.executeUpdate() == 0) {
+                        connection.rollback();
+                        return VoteRepository.VoteStatus.ALREADY_VOTED;
+                    }
+                }
+
+                try (PreparedStatement tallyStmt = connection.prepareStatement(
+                        "INSERT INTO election_tallies (election_id, precinct_id, candidate_id, votes) " +
+                        "SELECT election_id, ?, candidate_id, 1 FROM election_candidates " +
+                        "WHERE election_id = ? AND candidate_id = ? " +
+                        "ON DUPLICATE KEY UPDATE votes = votes + 1")) {
+                    tallyStmt.setInt(1, precinctId);
+                    tallyStmt.setInt(2, electionId);
+                    tallyStmt.setInt(3, candidateId);
+                    if (tallyStmt.executeUpdate() == 0) {
+                        connection.rollback();
+                        return VoteRepository.VoteStatus.UNKNOWN_CANDIDATE;
+                    }
+                }
+
+                connection.commit();
+                return VoteRepository.VoteStatus.CAST;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Every precinct's tallies for the election, read in parallel and summed
+    Results results(int electionId, ForkJoinPool pool) throws SQLException {
+        long start = System.nanoTime();
+        Election election = find(electionId);
+        if (election == null) throw new SQLException("No election with id " + electionId);
+        List<VotingEngine.Candidate> candidates = ballot(electionId);
+
+        List<Integer> ids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        ids.add(UNASSIGNED_PRECINCT);
+        names.add("(no precinct)");
+        try (Connection connection = connectionPool.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT id, name FROM precincts ORDER BY id")) {
+            while (resultSet.next()) {
+                ids.add(resultSet.getInt("id"));
+                names.add(resultSet.getString("name"));
+            }
+        }
+        int[] precinctIds = ids.stream().mapToInt(Integer::intValue).toArray();
+
+        int maxCandidateId = 0;
+        for (VotingEngine.Candidate candidate : candidates) maxCandidateId = Math.max(maxCandidateId, candidate.id);
+        int[] candidateIndex = new int[maxCandidateId + 1];
+        Arrays.fill(candidateIndex, -1);
+        for (int c = 0; c < candidates.size(); c++) candidateIndex[candidates.get(c).id] = c;
+
+        long[][] votes = new long[precinctIds.length][candidates.size()];
+        try {
+            pool.invoke(new PrecinctRange(electionId, precinctIds, candidateIndex, votes, 0, precinctIds.length));
+        } catch (RuntimeException e) {
+            // Fork-join may rethrow a copy that wraps the leaf's exception; find the SQLException
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof SQLException) throw (SQLException) cause;
+            }
+            throw e;
+        }
+        return new Results(election, candidates, precinctIds, names.toArray(new String[0]), votes,
+                           (System.nanoTime() - start) / 1e9);
+    }
+
+    static ForkJoinPool newPool() {
+        return new ForkJoinPool(Math.max(1, Integer.getInteger("evoting.election.parallelism", Runtime.getRuntime().availableProcessors())));
+    }
+
+    // Precincts [from, to) of the sorted precinct list; each leaf fills its own rows of votes
+    private final class PrecinctRange extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+        private final int electionId;
+        private final int[] precinctIds;
+        private final int[] candidateIndex;
+        private final long[][] votes;
+        private final int from;
+        private final int to;
+
+        PrecinctRange(int electionId, int[] precinctIds, int[] candidateIndex, long[][] votes, int from, int to) {
+            this.electionId = electionId;
+            this.precinctIds = precinctIds;
+            this.candidateIndex = candidateIndex;
+            this.votes = votes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Void compute() {
+            if (to - from > PRECINCTS_PER_QUERY) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PrecinctRange(electionId, precinctIds, candidateIndex, votes, from, middle),
+                          new PrecinctRange(electionId, precinctIds, candidateIndex, votes, middle, to));
+                return null;
+            }
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(
+                     "SELECT precinct_id, candidate_id, votes FROM election_tallies " +
+                     "WHERE election_id = ? AND precinct_id BETWEEN ? AND ?")) {
+                stmt.setInt(1, electionId);
+                stmt.setInt(2, precinctIds[from]);
+                stmt.setInt(3, precinctIds[to - 1]);
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        int p = Arrays.binarySearch(precinctIds, from, to, resultSet.getInt(1));
+                        int candidateId = resultSet.getInt(2);
+                        int c = candidateId < candidateIndex.length ? candidateIndex[candidateId] : -1;
+                        if (p >= 0 && c >= 0) votes[p][c] += resultSet.getLong(3);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: java Elections <jdbcUrl> <dbUser> <dbPassword> <command> [args]");
+            System.out.println("  create-election <name> | add-precinct <name> | add-candidate <electionId> <candidateId>");
+            System.out.println("  assign <username> <precinctId> | results <electionId> | list");
+            return;
+        }
+        ConnectionPool connectionPool = ConnectionPool.fromSystemProperties(args[0], args[1], args[2]);
+        try (Connection connection = connectionPool.getConnection()) {
+            installSchema(connection);
+        }
+        Elections elections = new Elections(connectionPool);
+        ForkJoinPool pool = newPool();
+        try {
+            switch (args[3]) {
+                case "create-election":
+                    System.out.println("Election " + elections.insertNamed("elections", args[4]) + " created");
+                    break;
+                case "add-precinct":
+                    System.out.println("Precinct " + elections.insertNamed("precincts", args[4]) + " created");
+                    break;
+                case "add-candidate":
+                    elections.update("INSERT IGNORE INTO election_candidates (election_id, candidate_id) VALUES (?, ?)",
+                                     Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+                    System.out.println("Candidate " + args[5] + " is on the ballot of election " + args[4]);
+                    break;
+                case "assign":
+                    int assigned = elections.update("UPDATE users SET precinct_id = ? WHERE username = ?",
+                                                    Integer.parseInt(args[5]), args[4]);
+                    System.out.println(assigned == 0 ? "No user " + args[4] : args[4] + " assigned to precinct " + args[5]);
+                    break;
+                case "results":
+                    System.out.println(elections.results(Integer.parseInt(args[4]), pool).describe());
+                    break;
+                case "list":
+                    for (Election election : elections.list()) System.out.println(election.id + "\t" + election.name);
+                    break;
+                default:
+                    System.out.println("Unknown command " + args[3]);
+            }
+        } finally {
+            pool.shutdown();
+            connectionPool.close();
+        }
+    }
+
+    private int insertNamed(String table, String name) throws SQLException {
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                 "INSERT INTO " + table + " (name) VALUES (?)", Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, name);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                return keys.getInt(1);
+            }
+        }
+    }
+
+    private int update(String sql, Object... params) throws SQLException {
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) stmt.setObject(i + 1, params[i]);
+            return stmt.executeUpdate();
+        }
+    }
+}
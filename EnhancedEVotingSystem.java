@@ -1,101 +1,21 @@
 import java.awt.*;
-import java.security.MessageDigest;
 import java.sql.*;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import javax.swing.*;
-import java.security.SecureRandom;
 import java.math.BigInteger;
 
-// Blockchain Service Interface
-interface BlockchainService {
-    String castVote(String voterAddress, String candidateName, String signature) throws BlockchainException;
-    boolean verifyVoter(String voterAddress) throws BlockchainException;
-    Map<String, Integer> getVoteResults() throws BlockchainException;
-    String registerVoterOnBlockchain(String voterHash) throws BlockchainException;
-    boolean isBlockchainConnected();
-}
-
-// Mock Blockchain Implementation (replace with actual Web3j integration)
-class MockBlockchainService implements BlockchainService {
-    private Map<String, String> voterRegistry = new HashMap<>();
-    private Map<String, Integer> blockchainVotes = new HashMap<>();
-    private Map<String, Boolean> votedAddresses = new HashMap<>();
-    private boolean connected = true;
-    
-    @Override
-    public String registerVoterOnBlockchain(String voterHash) throws BlockchainException {
-        if (!connected) throw new BlockchainException("Blockchain not connected");
-        
-        // Simulate blockchain address generation
-        String address = "0x" + generateRandomHex(40);
-        voterRegistry.put(voterHash, address);
-        
-        // Simulate transaction hash
-        return "0x" + generateRandomHex(64);
-    }
-    
-    @Override
-    public String castVote(String voterAddress, String candidateName, String signature) throws BlockchainException {
-        if (!connected) throw new BlockchainException("Blockchain not connected");
-        
-        if (votedAddresses.getOrDefault(voterAddress, false)) {
-            throw new BlockchainException("Address already voted on blockchain");
-        }
-        
-        // Record vote on blockchain
-        blockchainVotes.put(candidateName, blockchainVotes.getOrDefault(candidateName, 0) + 1);
-        votedAddresses.put(voterAddress, true);
-        
-        // Simulate transaction hash
-        return "0x" + generateRandomHex(64);
-    }
-    
-    @Override
-    public boolean verifyVoter(String voterAddress) throws BlockchainException {
-        if (!connected) throw new BlockchainException("Blockchain not connected");
-        return voterRegistry.containsValue(voterAddress) && !votedAddresses.getOrDefault(voterAddress, false);
-    }
-    
-    @Override
-    public Map<String, Integer> getVoteResults() throws BlockchainException {
-        if (!connected) throw new BlockchainException("Blockchain not connected");
-        return new HashMap<>(blockchainVotes);
-    }
-    
-    @Override
-    public boolean isBlockchainConnected() {
-        return connected;
-    }
-    
-    private String generateRandomHex(int length) {
-        SecureRandom random = new SecureRandom();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < length; i++) {
-            sb.append(Integer.toHexString(random.nextInt(16)));
-        }
-        return sb.toString();
-    }
-}
-
-// Custom Exception for Blockchain operations
-class BlockchainException extends Exception {
-    public BlockchainException(String message) {
-        super(message);
-    }
-    
-    public BlockchainException(String message, Throwable cause) {
-        super(message, cause);
-    }
-}
-
 public class EnhancedEVotingSystem {
 
     private JFrame mainFrame;
-    private Connection connection;
-    private Map<String, Integer> candidateVotes = new HashMap<>();
-    private String currentUser = null;
+    private ConnectionPool connectionPool;
+    private VotingEngine votingEngine;
+    private VotingEngine.Session currentSession = null;
     private BlockchainService blockchainService;
     private JLabel blockchainStatusLabel;
 
@@ -112,17 +32,29 @@ public class EnhancedEVotingSystem {
 
     private void initialize() throws SQLException {
         // Initialize blockchain service
-        blockchainService = new MockBlockchainService(); // Replace with actual implementation
+        try {
+            blockchainService = BlockchainService.fromSystemProperties(); // Replace with actual implementation
+        } catch (BlockchainException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(null, "Blockchain unavailable, falling back to an in-memory mock blockchain: " + e.getMessage());
+            MockBlockchainService.Config config = MockBlockchainService.Config.fromSystemProperties();
+            config.snapshotDir = null; // the snapshot directory may be what failed
+            blockchainService = new MockBlockchainService(config);
+        }
         
         // Database Connection
         String url = "jdbc:mysql://localhost:3306/evoting";
         String user = "root";
         String password = "Bsmps@123"; 
 
-        connection = DriverManager.getConnection(url, user, password);
+        connectionPool = ConnectionPool.fromSystemProperties(url, user, password);
+        connectionPool.warmUp();
         
         // Create enhanced database schema
         createEnhancedSchema();
+        
+        // All voting logic runs in the engine; this frame only renders it
+        votingEngine = VotingEngine.start(connectionPool, blockchainService);
 
         mainFrame = new JFrame("Blockchain-Enhanced E-Voting System");
         mainFrame.setSize(900, 700);
@@ -135,11 +67,11 @@ public class EnhancedEVotingSystem {
     
     private void createEnhancedSchema() throws SQLException {
         // Add blockchain-related columns to existing tables
-        try {
+        try (Connection connection = connectionPool.getConnection();
+             Statement stmt = connection.createStatement()) {
             String alterUsersSql = "ALTER TABLE users ADD COLUMN IF NOT EXISTS blockchain_address VARCHAR(42), " +
                                  "ADD COLUMN IF NOT EXISTS blockchain_tx_hash VARCHAR(66), " +
                                  "ADD COLUMN IF NOT EXISTS voter_hash VARCHAR(64)";
-            Statement stmt = connection.createStatement();
             stmt.executeUpdate(alterUsersSql);
             
             // Create blockchain sync table
@@ -288,21 +220,8 @@ public class EnhancedEVotingSystem {
             @Override
             protected Boolean doInBackground() throws Exception {
                 try {
-                    String hashedPassword = hashPassword(password);
-                    String voterHash = hashPassword(username + System.currentTimeMillis());
-                    
-                    // Register on blockchain first
-                    String blockchainTxHash = blockchainService.registerVoterOnBlockchain(voterHash);
-                    
-                    // Then register in SQL database
-                    String sql = "INSERT INTO users (username, password, role, voter_hash, blockchain_tx_hash) VALUES (?, ?, 'voter', ?, ?)";
-                    PreparedStatement preparedStatement = connection.prepareStatement(sql);
-                    preparedStatement.setString(1, username);
-                    preparedStatement.setString(2, hashedPassword);
-                    preparedStatement.setString(3, voterHash);
-                    preparedStatement.setString(4, blockchainTxHash);
-                    preparedStatement.executeUpdate();
-                    
+                    // Registers on the blockchain first, then in the SQL database
+                    VotingEngine.await(votingEngine.register(username, password));
                     return true;
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -337,18 +256,22 @@ public class EnhancedEVotingSystem {
     }
 
     private void authenticateUser(String username, String password) {
-        try {
-            String hashedPassword = hashPassword(password);
-            String sql = "SELECT * FROM users WHERE username = ? AND password = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, username);
-            preparedStatement.setString(2, hashedPassword);
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            if (resultSet.next()) {
-                String role = resultSet.getString("role");
-                currentUser = username;
-                if ("admin".equals(role)) {
+        // Logins queue in the engine's auth pipeline; the EDT is not held while they wait
+        votingEngine.authenticate(username, password).whenComplete((session, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof RejectedExecutionException) {
+                    JOptionPane.showMessageDialog(mainFrame, "The system is busy, please try again in a moment.");
+                } else {
+                    cause.printStackTrace();
+                    JOptionPane.showMessageDialog(mainFrame, "Authentication failed.");
+                }
+                return;
+            }
+
+            if (session != null) {
+                currentSession = session;
+                if (session.isAdmin()) {
                     createAdminPanel();
                 } else {
                     createVoterPanel();
@@ -356,39 +279,14 @@ public class EnhancedEVotingSystem {
             } else {
                 JOptionPane.showMessageDialog(mainFrame, "Invalid username or password.");
             }
-
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(mainFrame, "Authentication failed.");
-        }
+        }));
     }
 
     private void createVoterPanel() {
-        try {
-            // Check if user has already voted
-            String checkVoteSql = "SELECT has_voted, blockchain_address, voter_hash FROM users WHERE username = ?";
-            PreparedStatement checkStmt = connection.prepareStatement(checkVoteSql);
-            checkStmt.setString(1, currentUser);
-            ResultSet checkResult = checkStmt.executeQuery();
-    
-            if (!checkResult.next()) {
-                JOptionPane.showMessageDialog(mainFrame, "User not found!");
-                createLoginPanel();
-                return;
-            }
-            
-            if (checkResult.getBoolean("has_voted")) {
-                JOptionPane.showMessageDialog(mainFrame, "You have already voted!");
-                createLoginPanel();
-                return;
-            }
-            
-            String blockchainAddress = checkResult.getString("blockchain_address");
-            String voterHash = checkResult.getString("voter_hash");
-    
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(mainFrame, "Error checking voting status.");
+        // Voting status was read together with the login
+        if (currentSession.hasVoted) {
+            JOptionPane.showMessageDialog(mainFrame, "You have already voted!");
+            createLoginPanel();
             return;
         }
     
@@ -401,60 +299,141 @@ public class EnhancedEVotingSystem {
         headerPanel.add(blockchainStatusLabel);
         headerPanel.add(createLogoutButton());
         
+        boolean ranked = Boolean.getBoolean("evoting.ballot.ranked");
         JPanel votePanel = new JPanel(new GridLayout(0, 1));
-        JLabel instructionLabel = new JLabel("Select your candidate and cast your vote:");
+        JLabel instructionLabel = new JLabel(ranked
+            ? "Rank the candidates (1 = first choice) and cast your vote:"
+            : "Select your candidate and cast your vote:");
         instructionLabel.setFont(new Font("Arial", Font.BOLD, 14));
         votePanel.add(instructionLabel);
     
         try {
-            String sql = "SELECT candidate_name FROM candidates";
-            Statement statement = connection.createStatement();
-            ResultSet resultSet = statement.executeQuery(sql);
+            List<VotingEngine.Candidate> candidates = VotingEngine.await(votingEngine.listCandidates());
+            if (ranked) {
+                createRankedBallot(voterPanel, headerPanel, votePanel, candidates);
+                return;
+            }
     
             ButtonGroup group = new ButtonGroup();
     
-            while (resultSet.next()) {
-                String candidateName = resultSet.getString("candidate_name");
-                JRadioButton radioButton = new JRadioButton(candidateName);
+            for (VotingEngine.Candidate candidate : candidates) {
+                JRadioButton radioButton = new JRadioButton(candidate.name);
+                radioButton.putClientProperty("candidate", candidate);
                 group.add(radioButton);
                 votePanel.add(radioButton);
             }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(mainFrame, "Error loading candidates.");
+            return;
+        }
     
-            JButton voteButton = new JButton("Cast Vote on Blockchain");
-            voteButton.setBackground(new Color(0, 123, 255));
-            voteButton.setForeground(Color.WHITE);
-            voteButton.setFont(new Font("Arial", Font.BOLD, 12));
-            
-            voteButton.addActionListener(e -> {
-                for (Component component : votePanel.getComponents()) {
-                    if (component instanceof JRadioButton) {
-                        JRadioButton radioButton = (JRadioButton) component;
-                        if (radioButton.isSelected()) {
-                            String selectedCandidate = radioButton.getText();
-                            castVoteWithBlockchain(selectedCandidate);
-                            return;
-                        }
+        JButton voteButton = new JButton("Cast Vote on Blockchain");
+        voteButton.setBackground(new Color(0, 123, 255));
+        voteButton.setForeground(Color.WHITE);
+        voteButton.setFont(new Font("Arial", Font.BOLD, 12));
+        
+        voteButton.addActionListener(e -> {
+            for (Component component : votePanel.getComponents()) {
+                if (component instanceof JRadioButton) {
+                    JRadioButton radioButton = (JRadioButton) component;
+                    if (radioButton.isSelected()) {
+                        VotingEngine.Candidate selectedCandidate = (VotingEngine.Candidate) radioButton.getClientProperty("candidate");
+                        castVoteWithBlockchain(selectedCandidate);
+                        return;
                     }
                 }
-                JOptionPane.showMessageDialog(mainFrame, "Please select a candidate.");
-            });
+            }
+            JOptionPane.showMessageDialog(mainFrame, "Please select a candidate.");
+        });
     
-            voterPanel.add(headerPanel, BorderLayout.NORTH);
-            voterPanel.add(votePanel, BorderLayout.CENTER);
-            voterPanel.add(voteButton, BorderLayout.SOUTH);
+        voterPanel.add(headerPanel, BorderLayout.NORTH);
+        voterPanel.add(votePanel, BorderLayout.CENTER);
+        voterPanel.add(voteButton, BorderLayout.SOUTH);
     
-            mainFrame.getContentPane().removeAll();
-            mainFrame.getContentPane().add(voterPanel);
-            mainFrame.revalidate();
-            mainFrame.repaint();
+        mainFrame.getContentPane().removeAll();
+        mainFrame.getContentPane().add(voterPanel);
+        mainFrame.revalidate();
+        mainFrame.repaint();
+    }
     
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(mainFrame, "Error loading candidates.");
+    // One rank selector per candidate; the voter may leave candidates unranked but may
+    // not skip or repeat a rank
+    private void createRankedBallot(JPanel voterPanel, JPanel headerPanel, JPanel votePanel,
+                                    List<VotingEngine.Candidate> candidates) {
+        String[] ranks = new String[candidates.size() + 1];
+        ranks[0] = "-";
+        for (int i = 1; i < ranks.length; i++) ranks[i] = String.valueOf(i);
+        List<JComboBox<String>> rankBoxes = new ArrayList<>();
+        for (VotingEngine.Candidate candidate : candidates) {
+            JPanel row = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            JComboBox<String> rankBox = new JComboBox<>(ranks);
+            rankBoxes.add(rankBox);
+            row.add(rankBox);
+            row.add(new JLabel(candidate.name));
+            votePanel.add(row);
         }
+
+        JButton voteButton = new JButton("Cast Ranked Vote");
+        voteButton.setBackground(new Color(0, 123, 255));
+        voteButton.setForeground(Color.WHITE);
+        voteButton.setFont(new Font("Arial", Font.BOLD, 12));
+        voteButton.addActionListener(e -> {
+            VotingEngine.Candidate[] byRank = new VotingEngine.Candidate[candidates.size()];
+            int ranked = 0;
+            for (int i = 0; i < candidates.size(); i++) {
+                int rank = rankBoxes.get(i).getSelectedIndex();
+                if (rank == 0) continue;
+                if (byRank[rank - 1] != null) {
+                    JOptionPane.showMessageDialog(mainFrame, "Each rank can only be given to one candidate.");
+                    return;
+                }
+                byRank[rank - 1] = candidates.get(i);
+                ranked++;
+            }
+            if (ranked == 0) {
+                JOptionPane.showMessageDialog(mainFrame, "Please rank at least one candidate.");
+                return;
+            }
+            for (int rank = 0; rank < ranked; rank++) {
+                if (byRank[rank] == null) {
+                    JOptionPane.showMessageDialog(mainFrame, "Ranks must start at 1 with none skipped.");
+                    return;
+                }
+            }
+
+            List<VotingEngine.Candidate> ranking = Arrays.asList(byRank).subList(0, ranked);
+            voteButton.setEnabled(false);
+            votingEngine.castRankedVote(currentSession, ranking).whenComplete((status, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    JOptionPane.showMessageDialog(mainFrame, "Voting failed: " + cause.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                    voteButton.setEnabled(true);
+                } else if (status == VoteRepository.VoteStatus.CAST) {
+                    JOptionPane.showMessageDialog(mainFrame, "Ranked vote successfully recorded!");
+                    createLoginPanel();
+                } else if (status == VoteRepository.VoteStatus.ALREADY_VOTED) {
+                    JOptionPane.showMessageDialog(mainFrame, "You have already voted!");
+                    createLoginPanel();
+                } else {
+                    JOptionPane.showMessageDialog(mainFrame, "The ballot has changed; please log in again.");
+                    createLoginPanel();
+                }
+            }));
+        });
+
+        voterPanel.add(headerPanel, BorderLayout.NORTH);
+        voterPanel.add(votePanel, BorderLayout.CENTER);
+        voterPanel.add(voteButton, BorderLayout.SOUTH);
+
+        mainFrame.getContentPane().removeAll();
+        mainFrame.getContentPane().add(voterPanel);
+        mainFrame.revalidate();
+        mainFrame.repaint();
     }
-    
-    private void castVoteWithBlockchain(String selectedCandidate) {
+
+    private void castVoteWithBlockchain(VotingEngine.Candidate selectedCandidate) {
         // Show progress dialog
         JDialog progressDialog = new JDialog(mainFrame, "Recording Vote", true);
         JLabel progressLabel = new JLabel("Recording your vote on the blockchain...");
@@ -467,90 +446,45 @@ public class EnhancedEVotingSystem {
         progressDialog.setSize(350, 100);
         progressDialog.setLocationRelativeTo(mainFrame);
         
-        SwingWorker<String, Void> worker = new SwingWorker<String, Void>() {
-            @Override
-            protected String doInBackground() throws Exception {
-                try {
-                    // Get voter's blockchain info
-                    String getUserSql = "SELECT blockchain_address, voter_hash FROM users WHERE username = ?";
-                    PreparedStatement getUserStmt = connection.prepareStatement(getUserSql);
-                    getUserStmt.setString(1, currentUser);
-                    ResultSet userResult = getUserStmt.executeQuery();
-                    
-                    if (!userResult.next()) {
-                        throw new Exception("Voter not found");
-                    }
-                    
-                    String voterAddress = userResult.getString("blockchain_address");
-                    if (voterAddress == null) {
-                        // Generate blockchain address if not exists
-                        voterAddress = "0x" + hashPassword(currentUser + System.currentTimeMillis()).substring(0, 40);
-                        String updateAddressSql = "UPDATE users SET blockchain_address = ? WHERE username = ?";
-                        PreparedStatement updateStmt = connection.prepareStatement(updateAddressSql);
-                        updateStmt.setString(1, voterAddress);
-                        updateStmt.setString(2, currentUser);
-                        updateStmt.executeUpdate();
-                    }
-                    
-                    // Cast vote on blockchain
-                    String signature = hashPassword(selectedCandidate + currentUser + System.currentTimeMillis());
-                    String blockchainTxHash = blockchainService.castVote(voterAddress, selectedCandidate, signature);
-                    
-                    // Update SQL database
-                    connection.setAutoCommit(false);
-                    
-                    // Increment vote count
-                    String updateCandidateSql = "UPDATE candidates SET votes = votes + 1 WHERE candidate_name = ?";
-                    PreparedStatement updateCandidateStmt = connection.prepareStatement(updateCandidateSql);
-                    updateCandidateStmt.setString(1, selectedCandidate);
-                    updateCandidateStmt.executeUpdate();
-                    
-                    // Mark user as voted
-                    String updateUserSql = "UPDATE users SET has_voted = TRUE, blockchain_tx_hash = ? WHERE username = ?";
-                    PreparedStatement updateUserStmt = connection.prepareStatement(updateUserSql);
-                    updateUserStmt.setString(1, blockchainTxHash);
-                    updateUserStmt.setString(2, currentUser);
-                    updateUserStmt.executeUpdate();
-                    
-                    connection.commit();
-                    
-                    return blockchainTxHash;
-                    
-                } catch (Exception ex) {
-                    try {
-                        connection.rollback();
-                    } catch (SQLException rollbackEx) {
-                        rollbackEx.printStackTrace();
-                    }
-                    throw ex;
-                } finally {
-                    try {
-                        connection.setAutoCommit(true);
-                    } catch (SQLException ex1) {
-                        ex1.printStackTrace();
-                    }
-                }
+        // Captured on the EDT; the worker must not read the mutable session field
+        VotingEngine.Session session = currentSession;
+        
+        // The engine submits to the database first and to the blockchain once the database (or
+        // the vote journal) has accepted the vote; no thread is parked on either, and the dialog
+        // closes when both have answered
+        CompletableFuture<VotingEngine.VoteReceipt> vote = votingEngine.castVote(session, selectedCandidate);
+        vote.whenComplete((receipt, error) -> SwingUtilities.invokeLater(() -> {
+            progressDialog.dispose();
+            String failure = null;
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                failure = cause.getMessage();
+            } else if (receipt.status == VoteRepository.VoteStatus.ALREADY_VOTED) {
+                failure = "You have already voted";
+            } else if (receipt.status == VoteRepository.VoteStatus.UNKNOWN_CANDIDATE) {
+                failure = "Unknown candidate " + selectedCandidate.name;
             }
             
-            @Override
-            protected void done() {
-                progressDialog.dispose();
-                try {
-                    String txHash = get();
-                    JOptionPane.showMessageDialog(mainFrame, 
-                        "Vote successfully recorded on blockchain!\n" +
-                        "Transaction Hash: " + txHash.substring(0, 16) + "...",
-                        "Vote Recorded", JOptionPane.INFORMATION_MESSAGE);
-                    createLoginPanel();
-                } catch (Exception e) {
-                    JOptionPane.showMessageDialog(mainFrame, 
-                        "Failed to record vote: " + e.getMessage(), 
-                        "Error", JOptionPane.ERROR_MESSAGE);
-                }
+            if (failure == null && receipt.txHash == null) {
+                // Outbox mode: the vote is committed and will be published in the background
+                JOptionPane.showMessageDialog(mainFrame, 
+                    "Vote successfully recorded!\n" +
+                    "It has been queued for the blockchain.",
+                    "Vote Recorded", JOptionPane.INFORMATION_MESSAGE);
+                createLoginPanel();
+            } else if (failure == null) {
+                JOptionPane.showMessageDialog(mainFrame, 
+                    "Vote successfully recorded on blockchain!\n" +
+                    "Transaction Hash: " + receipt.txHash.substring(0, 16) + "...",
+                    "Vote Recorded", JOptionPane.INFORMATION_MESSAGE);
+                createLoginPanel();
+            } else {
+                JOptionPane.showMessageDialog(mainFrame, 
+                    "Failed to record vote: " + failure, 
+                    "Error", JOptionPane.ERROR_MESSAGE);
             }
-        };
+        }));
         
-        worker.execute();
         progressDialog.setVisible(true);
     }
     
@@ -560,16 +494,26 @@ public class EnhancedEVotingSystem {
         JMenuItem viewResultsItem = new JMenuItem("View Database Results");
         JMenuItem viewBlockchainResultsItem = new JMenuItem("View Blockchain Results");
         JMenuItem compareResultsItem = new JMenuItem("Compare Results");
+        JMenuItem turnoutItem = new JMenuItem("Turnout");
+        JMenuItem rankedChoiceItem = new JMenuItem("Ranked-Choice Rounds");
+        JMenuItem electionResultsItem = new JMenuItem("Election Results...");
+        JMenuItem kioskTallyItem = new JMenuItem("Kiosk Tally (Gossip)");
+        kioskTallyItem.setEnabled(votingEngine.kioskTally() != null);
         
         resultsMenu.add(viewResultsItem);
         resultsMenu.add(viewBlockchainResultsItem);
         resultsMenu.add(compareResultsItem);
+        resultsMenu.add(turnoutItem);
+        resultsMenu.add(rankedChoiceItem);
+        resultsMenu.add(electionResultsItem);
+        resultsMenu.add(kioskTallyItem);
         menuBar.add(resultsMenu);
 
         JMenu sessionMenu = new JMenu("Session");
         JMenuItem logoutItem = new JMenuItem("Logout");
         logoutItem.addActionListener(e -> {
-            currentUser = null;
+            votingEngine.logout(currentSession);
+            currentSession = null;
             createLoginPanel();
             mainFrame.setJMenuBar(null);
         });
@@ -581,6 +525,10 @@ public class EnhancedEVotingSystem {
         viewResultsItem.addActionListener(e -> showResults(false));
         viewBlockchainResultsItem.addActionListener(e -> showResults(true));
         compareResultsItem.addActionListener(e -> compareResults());
+        turnoutItem.addActionListener(e -> showTurnout());
+        rankedChoiceItem.addActionListener(e -> showRankedChoiceRounds());
+        electionResultsItem.addActionListener(e -> showElectionResults());
+        kioskTallyItem.addActionListener(e -> showKioskTally());
 
         JPanel adminPanel = new JPanel(new BorderLayout());
         JLabel welcomeLabel = new JLabel("Welcome, Admin - Blockchain-Enhanced E-Voting System");
@@ -600,26 +548,93 @@ public class EnhancedEVotingSystem {
         mainFrame.repaint();
     }
 
+    private void showTurnout() {
+        // Reads the engine's turnout rings once a second while the window is open
+        TurnoutPanel.showInFrame("Turnout", votingEngine.turnout(), () -> votingEngine.listCandidates().join());
+    }
+
+    private void showRankedChoiceRounds() {
+        votingEngine.rankedChoiceResults().whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                JOptionPane.showMessageDialog(mainFrame, "Ranked-choice tabulation failed: " + cause.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            JTextArea roundsArea = new JTextArea(result.describe());
+            roundsArea.setEditable(false);
+            roundsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JFrame roundsFrame = new JFrame("Ranked-Choice Rounds");
+            roundsFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            roundsFrame.setSize(700, 400);
+            roundsFrame.add(new JScrollPane(roundsArea));
+            roundsFrame.setVisible(true);
+        }));
+    }
+
+    private void showKioskTally() {
+        CrdtTally kioskTally = votingEngine.kioskTally();
+        JTextArea tallyArea = new JTextArea("Node " + kioskTally.nodeId() + "\n" + kioskTally.snapshot().describe());
+        tallyArea.setEditable(false);
+        tallyArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JFrame tallyFrame = new JFrame("Kiosk Tally");
+        tallyFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        tallyFrame.setSize(600, 400);
+        tallyFrame.add(new JScrollPane(tallyArea));
+        tallyFrame.setVisible(true);
+    }
+
+    private void showElectionResults() {
+        List<Elections.Election> elections;
+        try {
+            elections = VotingEngine.await(votingEngine.listElections());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(mainFrame, "Error loading elections.");
+            return;
+        }
+        if (elections.isEmpty()) {
+            JOptionPane.showMessageDialog(mainFrame, "No elections have been set up (see java Elections).");
+            return;
+        }
+        Elections.Election election = (Elections.Election) JOptionPane.showInputDialog(mainFrame,
+            "Election:", "Election Results", JOptionPane.PLAIN_MESSAGE, null,
+            elections.toArray(), elections.get(0));
+        if (election == null) return;
+
+        votingEngine.electionResults(election.id).whenComplete((results, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                JOptionPane.showMessageDialog(mainFrame, "Election results failed: " + cause.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            JTextArea resultsArea = new JTextArea(results.describe());
+            resultsArea.setEditable(false);
+            resultsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JFrame resultsFrame = new JFrame("Election Results - " + election.name);
+            resultsFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            resultsFrame.setSize(700, 400);
+            resultsFrame.add(new JScrollPane(resultsArea));
+            resultsFrame.setVisible(true);
+        }));
+    }
+
     private void showResults(boolean fromBlockchain) {
+        if (!fromBlockchain) {
+            // Follows the engine's in-memory projection; no query per refresh
+            LiveResultsPanel.showInFrame("Database Results", votingEngine.liveResults());
+            return;
+        }
+
         JPanel resultsPanel = new JPanel(new GridLayout(0, 2));
-        String title = fromBlockchain ? "Blockchain Results" : "Database Results";
+        String title = "Blockchain Results";
 
         try {
-            if (fromBlockchain) {
-                Map<String, Integer> blockchainResults = blockchainService.getVoteResults();
-                for (Map.Entry<String, Integer> entry : blockchainResults.entrySet()) {
-                    resultsPanel.add(new JLabel(entry.getKey()));
-                    resultsPanel.add(new JLabel(String.valueOf(entry.getValue())));
-                }
-            } else {
-                String sql = "SELECT candidate_name, votes FROM candidates";
-                Statement statement = connection.createStatement();
-                ResultSet resultSet = statement.executeQuery(sql);
-
-                while (resultSet.next()) {
-                    resultsPanel.add(new JLabel(resultSet.getString("candidate_name")));
-                    resultsPanel.add(new JLabel(String.valueOf(resultSet.getInt("votes"))));
-                }
+            Map<String, Integer> blockchainResults = VotingEngine.await(votingEngine.blockchainResults());
+            for (Map.Entry<String, Integer> entry : blockchainResults.entrySet()) {
+                resultsPanel.add(new JLabel(entry.getKey()));
+                resultsPanel.add(new JLabel(String.valueOf(entry.getValue())));
             }
 
             JFrame resultsFrame = new JFrame(title);
@@ -636,17 +651,10 @@ public class EnhancedEVotingSystem {
     private void compareResults() {
         try {
             // Get database results
-            Map<String, Integer> dbResults = new HashMap<>();
-            String sql = "SELECT candidate_name, votes FROM candidates";
-            Statement statement = connection.createStatement();
-            ResultSet resultSet = statement.executeQuery(sql);
-            
-            while (resultSet.next()) {
-                dbResults.put(resultSet.getString("candidate_name"), resultSet.getInt("votes"));
-            }
+            Map<String, Integer> dbResults = VotingEngine.await(votingEngine.results());
             
             // Get blockchain results
-            Map<String, Integer> blockchainResults = blockchainService.getVoteResults();
+            Map<String, Integer> blockchainResults = VotingEngine.await(votingEngine.blockchainResults());
             
             // Create comparison panel
             JPanel comparisonPanel = new JPanel(new GridLayout(0, 3));
@@ -676,9 +684,19 @@ public class EnhancedEVotingSystem {
                 comparisonPanel.add(blockchainLabel);
             }
             
-            JFrame comparisonFrame = new JFrame("Database vs Blockchain Comparison");
+            long indexedHeight = votingEngine.indexedBlockHeight();
+            JFrame comparisonFrame = new JFrame("Database vs Blockchain Comparison" +
+                (indexedHeight >= 0 ? " (chain indexed to height " + indexedHeight + ")" : ""));
             comparisonFrame.setSize(500, 400);
-            comparisonFrame.add(new JScrollPane(comparisonPanel));
+            comparisonFrame.add(new JScrollPane(comparisonPanel), BorderLayout.CENTER);
+            
+            // Name the individual votes behind any mismatch
+            if (votingEngine.canReconcile()) {
+                VoteMerkleIndex.Reconciliation reconciliation = VotingEngine.await(votingEngine.reconcile());
+                JTextArea divergenceArea = new JTextArea(describe(reconciliation), 8, 40);
+                divergenceArea.setEditable(false);
+                comparisonFrame.add(new JScrollPane(divergenceArea), BorderLayout.SOUTH);
+            }
             comparisonFrame.setVisible(true);
             
         } catch (Exception ex) {
@@ -687,27 +705,33 @@ public class EnhancedEVotingSystem {
         }
     }
 
+    private static String describe(VoteMerkleIndex.Reconciliation reconciliation) {
+        if (reconciliation.inSync()) {
+            return "Every database vote is on the chain (" + reconciliation.nodesVisited + " tree nodes compared)";
+        }
+        StringBuilder text = new StringBuilder();
+        int shown = 0;
+        for (VoteMerkleIndex.VoteRecord record : reconciliation.missingOnChain) {
+            if (shown++ == 200) break;
+            text.append("Missing on chain: ").append(record).append('\n');
+        }
+        for (VoteMerkleIndex.VoteRecord record : reconciliation.extraOnChain) {
+            if (shown++ == 200) break;
+            text.append("Extra on chain: ").append(record).append('\n');
+        }
+        text.append(reconciliation.missingOnChain.size()).append(" missing, ")
+            .append(reconciliation.extraOnChain.size()).append(" extra (")
+            .append(reconciliation.nodesVisited).append(" tree nodes compared)");
+        return text.toString();
+    }
+
     private JButton createLogoutButton() {
         JButton logoutButton = new JButton("Logout");
         logoutButton.addActionListener(e -> {
-            currentUser = null;
+            votingEngine.logout(currentSession);
+            currentSession = null;
             createLoginPanel();
         });
         return logoutButton;
     }
-
-    private String hashPassword(String password) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hashedBytes = md.digest(password.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashedBytes) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-}
\ No newline at end of file
+}
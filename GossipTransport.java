@@ -0,0 +1,198 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Carries CrdtTally gossip between kiosks. Delivery is best effort: a message may be
+// lost, duplicated or arrive late, and CrdtTally's merges are idempotent and commutative,
+// so none of that changes the converged state.
+interface GossipTransport extends AutoCloseable {
+
+    // An incoming message; reply sends a message back to the kiosk it came from, and only there
+    @FunctionalInterface
+    interface Receiver {
+        void receive(byte[] message, Consumer<byte[]> reply);
+    }
+
+    // Starts delivering incoming messages to the receiver, from transport threads
+    void start(Receiver receiver) throws IOException;
+
+    // Sends to every peer currently reachable; never blocks on an unreachable one for long
+    void broadcast(byte[] message);
+
+    @Override
+    void close();
+
+    // -Devoting.crdt.port=<listen port> -Devoting.crdt.peers=host:port,host:port
+    static GossipTransport fromSystemProperties() {
+        int port = Integer.getInteger("evoting.crdt.port", 0);
+        List<InetSocketAddress> peers = new ArrayList<>();
+        String peerList = System.getProperty("evoting.crdt.peers", "");
+        for (String peer : peerList.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) continue;
+            int colon = peer.lastIndexOf(':');
+            peers.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+        }
+        return new Sockets(port, peers);
+    }
+
+    // Length-prefixed frames over TCP. Each peer gets one outbound connection, opened on
+    // first use and dropped on any write error; the next broadcast reconnects, so a
+    // partitioned peer simply misses messages until it is reachable again. Replies travel
+    // back over the connection the message arrived on, so both ends read and write.
+    final class Sockets implements GossipTransport {
+
+        private static final int CONNECT_TIMEOUT_MS = 500;
+        private static final int MAX_FRAME = 64 << 20;
+
+        private final int port;
+        private final List<Peer> peers = new ArrayList<>();
+        private final AtomicInteger readerNumber = new AtomicInteger();
+        private volatile ServerSocket serverSocket;
+        private volatile Receiver receiver;
+        private volatile boolean running = true;
+
+        private static final class Peer {
+            final InetSocketAddress address;
+            Socket socket;
+            DataOutputStream out;
+
+            Peer(InetSocketAddress address) {
+                this.address = address;
+            }
+        }
+
+        Sockets(int port, List<InetSocketAddress> peers) {
+            this.port = port;
+            for (InetSocketAddress address : peers) this.peers.add(new Peer(address));
+        }
+
+        @Override
+        public void start(Receiver receiver) throws IOException {
+            this.receiver = receiver;
+            serverSocket = new ServerSocket(port);
+            Thread acceptor = new Thread(this::accept, "gossip-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int localPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void broadcast(byte[] message) {
+            for (Peer peer : peers) {
+                synchronized (peer) {
+                    try {
+                        if (peer.socket == null) {
+                            Socket socket = new Socket();
+                            socket.connect(peer.address, CONNECT_TIMEOUT_MS);
+                            socket.setTcpNoDelay(true);
+                            peer.socket = socket;
+                            peer.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                            DataOutputStream out = peer.out;
+                            startReader(socket, reply -> {
+                                synchronized (peer) {
+                                    if (peer.out != out) return; // that connection is gone
+                                    try {
+                                        writeFrame(out, reply);
+                                    } catch (IOException e) {
+                                        disconnect(peer);
+                                    }
+                                }
+                            });
+                        }
+                        writeFrame(peer.out, message);
+                    } catch (IOException e) {
+                        disconnect(peer); // unreachable for now; retried on the next broadcast
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            running = false;
+            try {
+                if (serverSocket != null) serverSocket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+            for (Peer peer : peers) {
+                synchronized (peer) {
+                    disconnect(peer);
+                }
+            }
+        }
+
+        private void accept() {
+            while (running) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    startReader(socket, reply -> {
+                        synchronized (out) {
+                            try {
+                                writeFrame(out, reply);
+                            } catch (IOException e) {
+                                // sender went away; its next digest asks again
+                            }
+                        }
+                    });
+                } catch (IOException e) {
+                    if (running) System.out.println("Gossip accept failed: " + e.getMessage());
+                }
+            }
+        }
+
+        private void startReader(Socket socket, Consumer<byte[]> reply) {
+            Thread reader = new Thread(() -> read(socket, reply), "gossip-in-" + readerNumber.incrementAndGet());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        // Delivers frames from one connection until it closes; replies go back over it
+        private void read(Socket socket, Consumer<byte[]> reply) {
+            try (Socket s = socket;
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()))) {
+                while (running) {
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_FRAME) throw new IOException("Bad gossip frame length " + length);
+                    byte[] message = new byte[length];
+                    in.readFully(message);
+                    receiver.receive(message, reply);
+                }
+            } catch (IOException e) {
+                // peer went away; it reconnects on its next broadcast
+            }
+        }
+
+        private static void writeFrame(DataOutputStream out, byte[] message) throws IOException {
+            out.writeInt(message.length);
+            out.write(message);
+            out.flush();
+        }
+
+        private static void disconnect(Peer peer) {
+            if (peer.socket != null) {
+                try {
+                    peer.socket.close();
+                } catch (IOException e) {
+                    // nothing left to release
+                }
+            }
+            peer.socket = null;
+            peer.out = null;
+        }
+    }
+}
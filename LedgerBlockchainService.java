@@ -0,0 +1,753 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+// In-process hash-chained ledger behind BlockchainService.
+//
+// Calls are validated and hashed on the caller's thread and queued; a single block builder
+// thread batches them into blocks (every blockIntervalMs or maxTxPerBlock transactions),
+// computes the block's Merkle root, links it to the previous block by hash and appends it
+// to a segment file before the block counts. A call returns (or its future completes) with
+// the transaction hash only once that block has been forced to disk, so a hash the ledger
+// handed out is never lost to a crash. Transaction hashes are SHA-256 content hashes, so
+// anything the ledger returned can be re-derived and checked against the blocks on disk.
+// Tallies reflect sealed blocks only, like a real chain.
+//
+// Block record layout in blocks-<first block number>.seg (big-endian):
+//   magic | payload length | payload | CRC32 of payload
+// The magic is the ledger format version: "BLK2" blocks only ever hold votes verified
+// against the voter's registered key (or the kiosk key); "BLK1" blocks were written
+// before that and may hold unsigned votes. VoteAudit uses it as the cut-over.
+//   payload = number | previous hash (32) | merkle root (32) | timestamp ms | tx count | transactions
+// A transaction is type | timestamp ms | three UTF fields (register: voter hash, address,
+// the voter's public key - "" for a voter registered without one; vote: address,
+// candidate, signature). A vote cast with an idempotency key has KEYED set
+// in its type byte and the key as a fourth UTF field, so recovery knows which keys were used.
+class LedgerBlockchainService implements BlockchainService, AsyncBlockchainService, AutoCloseable {
+
+    static final int BLOCK_MAGIC = 0x424C4B32; // "BLK2"
+    static final int LEGACY_BLOCK_MAGIC = 0x424C4B31; // "BLK1", still read
+    static final int HASH_BYTES = 32;
+    private static final String SEGMENT_PREFIX = "blocks-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    static final class Transaction {
+        static final byte REGISTER = 1;
+        static final byte VOTE = 2;
+        static final int KEYED = 0x80; // type flag: an idempotency key follows the signature
+
+        final byte type;
+        final long timestamp;
+        final String subject;     // voter hash (register) or voter address (vote)
+        final String target;      // assigned address (register) or candidate name (vote)
+        final String signature;   // vote signature, or the voter's public key for registrations
+        final String idempotencyKey; // "" when the vote was cast without one
+        final byte[] hash;
+
+        Transaction(byte type, long timestamp, String subject, String target, String signature) {
+            this(type, timestamp, subject, target, signature, "");
+        }
+
+        Transaction(byte type, long timestamp, String subject, String target, String signature,
+                    String idempotencyKey) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.subject = subject;
+            this.target = target;
+            this.signature = signature;
+            this.idempotencyKey = idempotencyKey;
+            this.hash = sha256(encode());
+        }
+
+        String hashHex() {
+            return "0x" + toHex(hash);
+        }
+
+        byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                writeTo(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // in-memory stream
+            }
+            return bytes.toByteArray();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            boolean keyed = !idempotencyKey.isEmpty();
+            out.writeByte(keyed ? type | KEYED : type);
+            out.writeLong(timestamp);
+            out.writeUTF(subject);
+            out.writeUTF(target);
+            out.writeUTF(signature);
+            if (keyed) out.writeUTF(idempotencyKey);
+        }
+
+        static Transaction readFrom(DataInputStream in) throws IOException {
+            int type = in.readUnsignedByte();
+            long timestamp = in.readLong();
+            String subject = in.readUTF();
+            String target = in.readUTF();
+            String signature = in.readUTF();
+            String idempotencyKey = (type & KEYED) != 0 ? in.readUTF() : "";
+            return new Transaction((byte) (type & ~KEYED), timestamp, subject, target, signature, idempotencyKey);
+        }
+    }
+
+    static final class Block {
+        final long number;
+        final byte[] previousHash;
+        final byte[] merkleRoot;
+        final long timestamp;
+        final List<Transaction> transactions;
+        final byte[] hash;
+
+        Block(long number, byte[] previousHash, long timestamp, List<Transaction> transactions) {
+            this.number = number;
+            this.previousHash = previousHash;
+            this.merkleRoot = merkleRoot(transactions);
+            this.timestamp = timestamp;
+            this.transactions = transactions;
+            this.hash = sha256(header());
+        }
+
+        String hashHex() {
+            return "0x" + toHex(hash);
+        }
+
+        private byte[] header() {
+            ByteBuffer header = ByteBuffer.allocate(8 + HASH_BYTES * 2 + 8 + 4);
+            header.putLong(number).put(previousHash).put(merkleRoot).putLong(timestamp).putInt(transactions.size());
+            return header.array();
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + transactions.size() * 160);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.write(header());
+                for (Transaction transaction : transactions) transaction.writeTo(out);
+            }
+            return bytes.toByteArray();
+        }
+
+        // Rebuilds a block from its payload and checks the stored Merkle root
+        static Block decode(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            long number = in.readLong();
+            byte[] previousHash = new byte[HASH_BYTES];
+            byte[] merkleRoot = new byte[HASH_BYTES];
+            in.readFully(previousHash);
+            in.readFully(merkleRoot);
+            long timestamp = in.readLong();
+            int count = in.readInt();
+            List<Transaction> transactions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) transactions.add(Transaction.readFrom(in));
+            Block block = new Block(number, previousHash, timestamp, transactions);
+            if (!Arrays.equals(block.merkleRoot, merkleRoot)) {
+                throw new IOException("Merkle root mismatch in block " + number);
+            }
+            return block;
+        }
+    }
+
+    // A queued transaction and the caller waiting for its block to be sealed
+    private static final class Submission {
+        final Transaction transaction;
+        final CompletableFuture<String> sealed = new CompletableFuture<>();
+
+        Submission(Transaction transaction) {
+            this.transaction = transaction;
+        }
+    }
+
+    // Where a sealed block lives on disk
+    private static final class BlockLocation {
+        final Path segment;
+        final long offset;
+
+        BlockLocation(Path segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    private final Path directory;
+    private final long blockIntervalNanos;
+    private final int maxTxPerBlock;
+    private final long segmentBytes;
+    private final BlockingQueue<Submission> mempool;
+
+    private final VoterRegistry voterRegistry;
+    private final Map<String, LongAdder> tallies = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> idempotentVotes = new ConcurrentHashMap<>(); // rebuilt by recover()
+    private final List<BlockLocation> blockLocations = new ArrayList<>(); // guarded by itself
+    private final VoteSignatures signatures = new VoteSignatures();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder sealedTransactions = new LongAdder();
+
+    // Builder thread state
+    private FileChannel segment;
+    private Path segmentPath;
+    private long segmentEnd; // end of the last sealed block in segment; anything after it is a failed append
+    private byte[] lastHash = new byte[HASH_BYTES];
+    private volatile long height; // number of sealed blocks
+    private volatile String genesisHash; // hex hash of block 0, null until it is sealed
+    private volatile boolean running = true;
+    private final Thread builder;
+
+    LedgerBlockchainService(Path directory, long blockIntervalMillis, int maxTxPerBlock,
+                            long segmentBytes, int expectedVoters) throws IOException {
+        this.directory = directory;
+        this.blockIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, blockIntervalMillis));
+        this.maxTxPerBlock = Math.max(1, maxTxPerBlock);
+        this.segmentBytes = segmentBytes;
+        this.mempool = new ArrayBlockingQueue<>(Math.max(this.maxTxPerBlock * 4, 1024));
+        this.voterRegistry = new VoterRegistry(expectedVoters);
+        Files.createDirectories(directory);
+        recover();
+        builder = new Thread(this::buildBlocks, "ledger-block-builder");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    static LedgerBlockchainService fromSystemProperties() throws IOException {
+        return new LedgerBlockchainService(
+            Paths.get(System.getProperty("evoting.ledger.dir", "ledger")),
+            Long.getLong("evoting.ledger.blockIntervalMs", 1000L),
+            Integer.getInteger("evoting.ledger.maxTxPerBlock", 1024),
+            Long.getLong("evoting.ledger.segmentBytes", 64L << 20),
+            Integer.getInteger("evoting.mock.expectedVoters", 1 << 16));
+    }
+
+    @Override
+    public String registerVoterOnBlockchain(String voterHash, String publicKey) throws BlockchainException {
+        return AsyncBlockchainService.join(register(voterHash, publicKey));
+    }
+
+    private CompletableFuture<String> register(String voterHash, String publicKey) throws BlockchainException {
+        checkRunning();
+        String address;
+        try {
+            if (publicKey == null) {
+                address = addressFor(voterHash);
+                voterRegistry.register(voterHash, address, null);
+            } else {
+                byte[] key = VoteSignatures.rawKey(publicKey);
+                address = VoteSignatures.addressFor(key);
+                if (!voterRegistry.register(voterHash, address, key).equals(address)) {
+                    throw new BlockchainException("Voter is already registered with another key");
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new BlockchainException(e.getMessage());
+        }
+        return submit(new Transaction(Transaction.REGISTER, System.currentTimeMillis(), voterHash, address,
+                                      publicKey == null ? "" : publicKey));
+    }
+
+    @Override
+    public String castVote(String voterAddress, String candidateName, String signature) throws BlockchainException {
+        return AsyncBlockchainService.join(castVoteAsync(voterAddress, candidateName, signature));
+    }
+
+    // Checks the signature against the key registered with the address (or, for a
+    // kiosk-attested vote, the configured kiosk key)
+    private CompletableFuture<Void> verifySignature(String voterAddress, String candidateName, String signature) {
+        byte[] voterKey;
+        try {
+            voterKey = voterRegistry.publicKey(voterAddress);
+        } catch (IllegalArgumentException e) {
+            return AsyncBlockchainService.failed(new BlockchainException(e.getMessage()));
+        }
+        return signatures.verify(voterKey, voterAddress, candidateName, signature);
+    }
+
+    // Claims the address only once the signature checked out against the address's
+    // registered key, so a vote signed with any other key cannot use up the voter's vote
+    private CompletableFuture<String> admitVote(String voterAddress, String candidateName, String signature,
+                                                String idempotencyKey) throws BlockchainException {
+        boolean firstVote;
+        try {
+            firstVote = voterRegistry.markVoted(voterAddress);
+        } catch (IllegalArgumentException e) {
+            throw new BlockchainException(e.getMessage());
+        }
+        if (!firstVote) {
+            throw new BlockchainException("Address already voted on blockchain");
+        }
+        return submit(new Transaction(Transaction.VOTE, System.currentTimeMillis(), voterAddress, candidateName, signature,
+                                      idempotencyKey));
+    }
+
+    // The key is sealed into the vote transaction and recover() reloads it, so a repeat
+    // gets the original hash back even across a restart
+    @Override
+    public String castVote(String voterAddress, String candidateName, String signature,
+                           String idempotencyKey) throws BlockchainException {
+        return AsyncBlockchainService.join(castVoteAsync(voterAddress, candidateName, signature, idempotencyKey));
+    }
+
+    @Override
+    public boolean verifyVoter(String voterAddress) throws BlockchainException {
+        checkRunning();
+        try {
+            return voterRegistry.verify(voterAddress);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean acceptsSignature(String voterAddress, String candidateName, String signature) {
+        try {
+            verifySignature(voterAddress, candidateName, signature).join();
+            return true;
+        } catch (CompletionException e) {
+            return false;
+        }
+    }
+
+    // Votes in sealed blocks
+    @Override
+    public Map<String, Integer> getVoteResults() throws BlockchainException {
+        checkRunning();
+        Map<String, Integer> results = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : tallies.entrySet()) {
+            results.put(entry.getKey(), entry.getValue().intValue());
+        }
+        return results;
+    }
+
+    @Override
+    public boolean isBlockchainConnected() {
+        return running && builder.isAlive();
+    }
+
+    // Admission is validation, hashing and a queue offer, so the async calls simply run it
+    // inline; only a full mempool (backpressure) can make a caller wait. A vote first goes
+    // through the signature verifier and is admitted on its worker thread. The futures
+    // complete on the block builder thread once the block is sealed.
+    @Override
+    public CompletableFuture<String> registerVoterOnBlockchainAsync(String voterHash, String publicKey) {
+        try {
+            return register(voterHash, publicKey);
+        } catch (BlockchainException e) {
+            return AsyncBlockchainService.failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> castVoteAsync(String voterAddress, String candidateName, String signature) {
+        return verifyAndAdmit(voterAddress, candidateName, signature, "");
+    }
+
+    @Override
+    public CompletableFuture<String> castVoteAsync(String voterAddress, String candidateName, String signature,
+                                                   String idempotencyKey) {
+        return AsyncBlockchainService.once(idempotentVotes, idempotencyKey,
+            () -> verifyAndAdmit(voterAddress, candidateName, signature, idempotencyKey));
+    }
+
+    private CompletableFuture<String> verifyAndAdmit(String voterAddress, String candidateName, String signature,
+                                                     String idempotencyKey) {
+        try {
+            checkRunning();
+        } catch (BlockchainException e) {
+            return AsyncBlockchainService.failed(e);
+        }
+        return verifySignature(voterAddress, candidateName, signature).thenCompose(verified -> {
+            try {
+                return admitVote(voterAddress, candidateName, signature, idempotencyKey);
+            } catch (BlockchainException e) {
+                return AsyncBlockchainService.failed(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> verifyVoterAsync(String voterAddress) {
+        try {
+            return CompletableFuture.completedFuture(verifyVoter(voterAddress));
+        } catch (BlockchainException e) {
+            return AsyncBlockchainService.failed(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Integer>> getVoteResultsAsync() {
+        try {
+            return CompletableFuture.completedFuture(getVoteResults());
+        } catch (BlockchainException e) {
+            return AsyncBlockchainService.failed(e);
+        }
+    }
+
+    long height() {
+        return height;
+    }
+
+    // Identity of this ledger: the hex hash of its block 0, or null while it has no blocks
+    String genesisHash() {
+        return genesisHash;
+    }
+
+    // Reads up to max sealed blocks starting at block number from, verifying hash links
+    List<Block> readBlocks(long from, int max) throws IOException {
+        List<BlockLocation> locations;
+        synchronized (blockLocations) {
+            int start = (int) Math.min(from, blockLocations.size());
+            int end = (int) Math.min((long) start + max, blockLocations.size());
+            locations = new ArrayList<>(blockLocations.subList(start, end));
+        }
+        List<Block> blocks = new ArrayList<>(locations.size());
+        FileChannel channel = null;
+        Path open = null;
+        try {
+            for (BlockLocation location : locations) {
+                if (!location.segment.equals(open)) {
+                    if (channel != null) channel.close();
+                    channel = FileChannel.open(location.segment, StandardOpenOption.READ);
+                    open = location.segment;
+                }
+                channel.position(location.offset);
+                Block block = readBlock(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))));
+                if (block == null) throw new IOException("Block missing at " + location.segment + "@" + location.offset);
+                if (!blocks.isEmpty() && !Arrays.equals(block.previousHash, blocks.get(blocks.size() - 1).hash)) {
+                    throw new IOException("Broken hash link at block " + block.number);
+                }
+                blocks.add(block);
+            }
+        } finally {
+            if (channel != null) channel.close();
+        }
+        return blocks;
+    }
+
+    String stats() {
+        return String.format("ledger height=%d submitted=%d sealed=%d pending=%d voters=%d; %s",
+            height, submitted.sum(), sealedTransactions.sum(), mempool.size(), voterRegistry.size(),
+            signatures.stats());
+    }
+
+    // Seals whatever is queued and stops the builder. The builder is not interrupted: an
+    // interrupt during FileChannel I/O would close the segment under it.
+    @Override
+    public void close() {
+        signatures.close();
+        running = false;
+        try {
+            builder.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!builder.isAlive()) failUnsealed(new ArrayList<>()); // anything submitted during the last seal
+        try {
+            if (segment != null) segment.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void checkRunning() throws BlockchainException {
+        if (!isBlockchainConnected()) throw new BlockchainException("Blockchain not connected");
+    }
+
+    // Completes with the transaction hash once the transaction's block is on disk
+    private CompletableFuture<String> submit(Transaction transaction) throws BlockchainException {
+        Submission submission = new Submission(transaction);
+        try {
+            mempool.put(submission);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlockchainException("Interrupted while submitting transaction", e);
+        }
+        submitted.increment();
+        return submission.sealed;
+    }
+
+    private void buildBlocks() {
+        List<Submission> pending = new ArrayList<>(maxTxPerBlock);
+        while (running || !mempool.isEmpty() || !pending.isEmpty()) {
+            try {
+                if (pending.isEmpty()) {
+                    Submission first = mempool.poll(blockIntervalNanos, TimeUnit.NANOSECONDS);
+                    if (first == null) continue;
+                    pending.add(first);
+                    long deadline = System.nanoTime() + blockIntervalNanos;
+                    while (pending.size() < maxTxPerBlock) {
+                        mempool.drainTo(pending, maxTxPerBlock - pending.size());
+                        long wait = deadline - System.nanoTime();
+                        if (pending.size() >= maxTxPerBlock || wait <= 0 || !running) break;
+                        Submission next = mempool.poll(wait, TimeUnit.NANOSECONDS);
+                        if (next != null) pending.add(next);
+                    }
+                }
+                seal(pending);
+                pending.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failUnsealed(pending);
+                return;
+            } catch (IOException e) {
+                // Keep the batch and retry; nothing counts until its block is on disk, and the
+                // retry first cuts the segment back to segmentEnd
+                e.printStackTrace();
+                try {
+                    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(blockIntervalNanos));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    failUnsealed(pending);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Fails the callers of transactions that will not be sealed by this builder
+    private void failUnsealed(List<Submission> pending) {
+        mempool.drainTo(pending);
+        for (Submission submission : pending) {
+            submission.sealed.completeExceptionally(new BlockchainException("Ledger closed before the transaction was sealed"));
+        }
+    }
+
+    private void seal(List<Submission> submissions) throws IOException {
+        // A failed earlier attempt may have left part or all of its block behind; drop it
+        // before building the block again, or recovery would find a torn record or the same
+        // block number twice
+        if (segment != null && segment.size() > segmentEnd) {
+            segment.truncate(segmentEnd);
+            segment.force(true);
+        }
+
+        List<Transaction> transactions = new ArrayList<>(submissions.size());
+        for (Submission submission : submissions) transactions.add(submission.transaction);
+        Block block = new Block(height, lastHash, System.currentTimeMillis(), transactions);
+        byte[] payload = block.encode();
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length + 4);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        record.putInt(BLOCK_MAGIC).putInt(payload.length).put(payload).putInt((int) crc.getValue());
+        record.flip();
+
+        if (segment == null || segmentEnd + record.remaining() > segmentBytes) {
+            if (segment != null) {
+                FileChannel full = segment;
+                segment = null; // a failed close must not leave a closed channel to retry on
+                full.close();
+            }
+            segmentPath = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, block.number, SEGMENT_SUFFIX));
+            segment = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            segmentEnd = 0;
+            if (segment.size() > 0) segment.truncate(0); // left by a failed first append
+        }
+        long offset = segmentEnd;
+        segment.position(offset);
+        while (record.hasRemaining()) segment.write(record);
+        segment.force(false);
+        segmentEnd = segment.position();
+
+        synchronized (blockLocations) {
+            blockLocations.add(new BlockLocation(segmentPath, offset));
+        }
+        apply(block);
+        if (block.number == 0) genesisHash = toHex(block.hash);
+        lastHash = block.hash;
+        height = block.number + 1;
+        for (Submission submission : submissions) submission.sealed.complete(submission.transaction.hashHex());
+    }
+
+    private void apply(Block block) {
+        for (Transaction transaction : block.transactions) {
+            if (transaction.type == Transaction.VOTE) {
+                tallies.computeIfAbsent(transaction.target, name -> new LongAdder()).increment();
+            }
+        }
+        sealedTransactions.add(block.transactions.size());
+    }
+
+    // Replays every segment, checking CRCs, Merkle roots and hash links. A torn block at
+    // the end of the last segment (crash mid-append) is truncated away.
+    private void recover() throws IOException {
+        List<Path> paths = segmentPaths(directory);
+
+        for (int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            long validEnd = 0;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                 CountingInputStream counter = new CountingInputStream(Channels.newInputStream(channel))) {
+                DataInputStream in = new DataInputStream(counter);
+                while (true) {
+                    long offset = counter.count;
+                    Block block;
+                    try {
+                        block = readBlock(in);
+                    } catch (IOException e) {
+                        block = null;
+                    }
+                    if (block == null) break;
+                    if (block.number != height || !Arrays.equals(block.previousHash, lastHash)) {
+                        throw new IOException("Ledger chain broken at block " + block.number + " in " + path);
+                    }
+                    blockLocations.add(new BlockLocation(path, offset));
+                    for (Transaction transaction : block.transactions) {
+                        if (transaction.type == Transaction.REGISTER) {
+                            String key = transaction.signature;
+                            voterRegistry.register(transaction.subject, transaction.target,
+                                                   key.isEmpty() ? null : VoteSignatures.rawKey(key));
+                        } else {
+                            voterRegistry.markVoted(transaction.subject);
+                            if (!transaction.idempotencyKey.isEmpty()) {
+                                idempotentVotes.put(transaction.idempotencyKey,
+                                                    CompletableFuture.completedFuture(transaction.hashHex()));
+                            }
+                        }
+                    }
+                    apply(block);
+                    if (block.number == 0) genesisHash = toHex(block.hash);
+                    lastHash = block.hash;
+                    height = block.number + 1;
+                    validEnd = counter.count;
+                }
+            }
+            if (validEnd < Files.size(path)) {
+                if (i != paths.size() - 1) throw new IOException("Corrupt block inside sealed segment " + path);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(validEnd);
+                }
+            }
+            segmentPath = path;
+            segmentEnd = validEnd;
+        }
+        if (segmentPath != null) {
+            segment = FileChannel.open(segmentPath, StandardOpenOption.WRITE);
+        }
+    }
+
+    // Address of a registration without a key (keyed ones use VoteSignatures.addressFor)
+    static String addressFor(String voterHash) {
+        return "0x" + toHex(sha256(("address:" + voterHash).getBytes(StandardCharsets.UTF_8))).substring(0, 40);
+    }
+
+    // Segment files in block order (names embed the zero-padded first block number)
+    static List<Path> segmentPaths(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) paths.add(path);
+        }
+        paths.sort(null);
+        return paths;
+    }
+
+    // Null at a clean end of stream; IOException for a torn or corrupt record
+    private static Block readBlock(DataInputStream in) throws IOException {
+        int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (magic != BLOCK_MAGIC && magic != LEGACY_BLOCK_MAGIC) throw new IOException("Bad block magic");
+        int length = in.readInt();
+        if (length < 0 || length > (256 << 20)) throw new IOException("Bad block length " + length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (in.readInt() != (int) crc.getValue()) throw new IOException("Block CRC mismatch");
+        return Block.decode(payload);
+    }
+
+    // Pairwise SHA-256 up the tree, duplicating the last node of odd levels
+    static byte[] merkleRoot(List<Transaction> transactions) {
+        if (transactions.isEmpty()) return new byte[HASH_BYTES];
+        List<byte[]> level = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) level.add(transaction.hash);
+        MessageDigest digest = newDigest();
+        while (level.size() > 1) {
+            List<byte[]> next = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                byte[] left = level.get(i);
+                byte[] right = i + 1 < level.size() ? level.get(i + 1) : left;
+                digest.update(left);
+                digest.update(right);
+                next.add(digest.digest());
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    static byte[] sha256(byte[] data) {
+        return newDigest().digest(data);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE ships SHA-256
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    // Tracks how far recovery has read so a torn tail can be truncated
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(new BufferedInputStream(in));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
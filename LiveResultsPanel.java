@@ -0,0 +1,64 @@
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.*;
+
+// Results grid bound to a ResultsProjection: labels are updated in place on the EDT as
+// snapshots arrive, and the grid is only rebuilt when the candidate list changes.
+class LiveResultsPanel extends JPanel implements ResultsProjection.Listener {
+
+    private static final long serialVersionUID = 1L;
+    private final List<JLabel> voteLabels = new ArrayList<>();
+    private List<String> shownNames = List.of();
+
+    LiveResultsPanel() {
+        super(new GridLayout(0, 2));
+    }
+
+    // Opens a window that follows the projection until it is closed
+    static void showInFrame(String title, ResultsProjection projection) {
+        LiveResultsPanel panel = new LiveResultsPanel();
+        JFrame resultsFrame = new JFrame(title);
+        resultsFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        resultsFrame.setSize(400, 300);
+        resultsFrame.add(panel);
+        ResultsProjection.Subscription subscription = projection.subscribe(panel);
+        resultsFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                subscription.close();
+            }
+        });
+        resultsFrame.setVisible(true);
+    }
+
+    @Override
+    public void resultsChanged(ResultsProjection.Snapshot snapshot) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            render(snapshot);
+        } else {
+            SwingUtilities.invokeLater(() -> render(snapshot));
+        }
+    }
+
+    private void render(ResultsProjection.Snapshot snapshot) {
+        if (!snapshot.names.equals(shownNames)) {
+            removeAll();
+            voteLabels.clear();
+            for (String name : snapshot.names) {
+                add(new JLabel(name));
+                JLabel votes = new JLabel();
+                voteLabels.add(votes);
+                add(votes);
+            }
+            shownNames = snapshot.names;
+            revalidate();
+            repaint();
+        }
+        for (int i = 0; i < voteLabels.size(); i++) {
+            voteLabels.get(i).setText(String.valueOf(snapshot.votes[i]));
+        }
+    }
+}
@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Mock Blockchain Implementation (replace with actual Web3j integration)
+//
+// Thread-safe local stand-in for a chain, usable from many SwingWorkers / engine threads
+// at once. Tallies are striped LongAdders and the double-vote check is an atomic bit flip
+// in the VoterRegistry, so concurrent casts never lose or duplicate votes. For load
+// testing it can simulate chain behaviour - network latency, failed transactions,
+// disconnects and block-limited throughput - configured through MockBlockchainService.Config or
+// -Devoting.mock.* properties. Everything stays in-process; there is no network. Vote
+// signatures are verified for real (VoteSignatures), against the key the voter registered,
+// before a vote reaches the mock chain.
+// With evoting.mock.snapshotDir set, the state outlives the process (see ChainSnapshots).
+class MockBlockchainService implements BlockchainService, AsyncBlockchainService, AutoCloseable {
+
+    // Latency distributions for simulated RPC round trips
+    interface LatencyModel {
+        long sampleNanos(ThreadLocalRandom random);
+
+        static LatencyModel none() {
+            return random -> 0L;
+        }
+
+        static LatencyModel fixed(long millis) {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            return random -> nanos;
+        }
+
+        static LatencyModel uniform(long minMillis, long maxMillis) {
+            long min = TimeUnit.MILLISECONDS.toNanos(minMillis);
+            long max = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+            return random -> min + (max > min ? random.nextLong(max - min) : 0L);
+        }
+
+        static LatencyModel exponential(double meanMillis) {
+            double meanNanos = meanMillis * 1_000_000.0;
+            return random -> (long) (-meanNanos * Math.log(1.0 - random.nextDouble()));
+        }
+
+        // Long-tailed, like real RPC endpoints: median in ms, sigma of the underlying normal
+        static LatencyModel logNormal(double medianMillis, double sigma) {
+            double mu = Math.log(medianMillis * 1_000_000.0);
+            return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+        }
+
+        // "none", "fixed:50", "uniform:20-200", "exp:150", "lognormal:100,0.6"
+        static LatencyModel parse(String spec) {
+            if (spec == null || spec.isEmpty() || "none".equals(spec)) return none();
+            String[] kind = spec.split(":", 2);
+            String arg = kind.length > 1 ? kind[1] : "";
+            switch (kind[0]) {
+                case "fixed":
+                    return fixed(Long.parseLong(arg));
+                case "uniform": {
+                    String[] range = arg.split("-");
+                    return uniform(Long.parseLong(range[0]), Long.parseLong(range[1]));
+                }
+                case "exp":
+                    return exponential(Double.parseDouble(arg));
+                case "lognormal": {
+                    String[] params = arg.split(",");
+                    return logNormal(Double.parseDouble(params[0]), Double.parseDouble(params[1]));
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown latency model: " + spec);
+            }
+        }
+    }
+
+    static final class Config {
+        LatencyModel latency = LatencyModel.none();
+        double failureRate = 0.0;            // probability a write transaction is rejected
+        double disconnectRate = 0.0;         // probability a call knocks the node offline
+        long disconnectMillis = 0L;          // how long an injected disconnect lasts
+        long blockIntervalMillis = 0L;       // 0 = no block timing, writes confirm immediately
+        int maxTxPerBlock = Integer.MAX_VALUE;
+        int expectedVoters = 1 << 16;        // pre-sizes the voter registry indexes
+        Path snapshotDir = null;             // null = state lives only in memory
+        long snapshotMillis = 60_000L;       // how often deltas are folded into a snapshot
+        int deltaBytes = 64 << 20;           // size of each memory-mapped delta file
+
+        static Config fromSystemProperties() {
+            Config config = new Config();
+            config.latency = LatencyModel.parse(System.getProperty("evoting.mock.latency", "none"));
+            config.failureRate = Double.parseDouble(System.getProperty("evoting.mock.failureRate", "0"));
+            config.disconnectRate = Double.parseDouble(System.getProperty("evoting.mock.disconnectRate", "0"));
+            config.disconnectMillis = Long.getLong("evoting.mock.disconnectMs", 2000L);
+            config.blockIntervalMillis = Long.getLong("evoting.mock.blockIntervalMs", 0L);
+            config.maxTxPerBlock = Integer.getInteger("evoting.mock.maxTxPerBlock", Integer.MAX_VALUE);
+            config.expectedVoters = Integer.getInteger("evoting.mock.expectedVoters", 1 << 16);
+            String snapshotDir = System.getProperty("evoting.mock.snapshotDir", "");
+            config.snapshotDir = snapshotDir.isEmpty() ? null : Paths.get(snapshotDir);
+            config.snapshotMillis = Long.getLong("evoting.mock.snapshotMs", 60_000L);
+            config.deltaBytes = Integer.getInteger("evoting.mock.deltaBytes", 64 << 20);
+            return config;
+        }
+    }
+
+    // Packed (block number << BLOCK_SHIFT | tx count in block) for lock-free slot claiming
+    private static final int BLOCK_SHIFT = 24;
+    private static final long USED_MASK = (1L << BLOCK_SHIFT) - 1;
+
+    // Shared by all mock instances: delays simulated network and block time for async calls
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mock-chain-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Config config;
+    private final VoterRegistry voterRegistry;
+    private final Map<String, LongAdder> blockchainVotes;
+    private final Map<String, CompletableFuture<String>> idempotentVotes = new ConcurrentHashMap<>();
+    private final VoteSignatures signatures = new VoteSignatures();
+    private final ChainSnapshots snapshots; // null without a snapshot directory
+    private volatile boolean connected = true;
+    private volatile long disconnectedUntilNanos = 0L;
+    private final AtomicLong blockSlots = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    // Instrumentation
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder injectedFailures = new LongAdder();
+    private final LongAdder injectedDisconnects = new LongAdder();
+
+    MockBlockchainService() {
+        this(Config.fromSystemProperties());
+    }
+
+    MockBlockchainService(Config config) {
+        this.config = config;
+        if (config.snapshotDir == null) {
+            this.snapshots = null;
+            this.voterRegistry = new VoterRegistry(config.expectedVoters);
+            this.blockchainVotes = new ConcurrentHashMap<>();
+            return;
+        }
+        this.snapshots = new ChainSnapshots(config.snapshotDir, config.snapshotMillis, config.deltaBytes);
+        try {
+            ChainSnapshots.State state = snapshots.restore(config.expectedVoters);
+            this.voterRegistry = state.registry;
+            this.blockchainVotes = state.tallies;
+            state.idempotentVotes.forEach((key, txHash) -> idempotentVotes.put(key, CompletableFuture.completedFuture(txHash)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not restore the mock chain from " + config.snapshotDir, e);
+        }
+    }
+
+    @Override
+    public String registerVoterOnBlockchain(String voterHash, String publicKey) throws BlockchainException {
+        LockSupport.parkNanos(sampleLatency());
+        return confirm(applyRegistration(voterHash, publicKey));
+    }
+
+    @Override
+    public String castVote(String voterAddress, String candidateName, String signature) throws BlockchainException {
+        AsyncBlockchainService.join(verifySignature(voterAddress, candidateName, signature));
+        LockSupport.parkNanos(sampleLatency());
+        return confirm(applyVote(voterAddress, candidateName, null));
+    }
+
+    // With snapshots on, the key is logged with the vote, so a repeat after a restart still
+    // gets the original hash back
+    @Override
+    public String castVote(String voterAddress, String candidateName, String signature,
+                           String idempotencyKey) throws BlockchainException {
+        return AsyncBlockchainService.join(castVoteAsync(voterAddress, candidateName, signature, idempotencyKey));
+    }
+
+    @Override
+    public boolean verifyVoter(String voterAddress) throws BlockchainException {
+        LockSupport.parkNanos(sampleLatency());
+        return applyVerify(voterAddress);
+    }
+
+    @Override
+    public Map<String, Integer> getVoteResults() throws BlockchainException {
+        LockSupport.parkNanos(sampleLatency());
+        return applyResults();
+    }
+
+    @Override
+    public boolean acceptsSignature(String voterAddress, String candidateName, String signature) {
+        try {
+            verifySignature(voterAddress, candidateName, signature).join();
+            return true;
+        } catch (CompletionException e) {
+            return false;
+        }
+    }
+
+    // Async calls hold no thread while "on the network": the latency and block wait are
+    // timer delays, so thousands of submissions can be in flight at once. Futures complete
+    // on the timer thread; callers should hop to their own executor for blocking work.
+    @Override
+    public CompletableFuture<String> registerVoterOnBlockchainAsync(String voterHash, String publicKey) {
+        return simulate(() -> applyRegistration(voterHash, publicKey), true);
+    }
+
+    @Override
+    public CompletableFuture<String> castVoteAsync(String voterAddress, String candidateName, String signature) {
+        return verifySignature(voterAddress, candidateName, signature)
+            .thenCompose(verified -> simulate(() -> applyVote(voterAddress, candidateName, null), true));
+    }
+
+    @Override
+    public CompletableFuture<String> castVoteAsync(String voterAddress, String candidateName, String signature,
+                                                   String idempotencyKey) {
+        return AsyncBlockchainService.once(idempotentVotes, idempotencyKey, () ->
+            verifySignature(voterAddress, candidateName, signature)
+            .thenCompose(verified -> simulate(() -> applyVote(voterAddress, candidateName, idempotencyKey), true)));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> verifyVoterAsync(String voterAddress) {
+        return simulate(() -> applyVerify(voterAddress), false);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Integer>> getVoteResultsAsync() {
+        return simulate(this::applyResults, false);
+    }
+
+    @Override
+    public boolean isBlockchainConnected() {
+        return connected && System.nanoTime() >= disconnectedUntilNanos;
+    }
+
+    // Manual disconnect switch for tests and demos
+    void setConnected(boolean connected) {
+        this.connected = connected;
+    }
+
+    // Takes the node offline for the given duration
+    void disconnectFor(long millis) {
+        disconnectedUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        injectedDisconnects.increment();
+    }
+
+    String stats() {
+        return String.format("mock chain tx=%d injectedFailures=%d injectedDisconnects=%d voters=%d registryBytes=%d; %s",
+            transactions.sum(), injectedFailures.sum(), injectedDisconnects.sum(), voterRegistry.size(),
+            voterRegistry.memoryBytes(), signatures.stats()) + (snapshots != null ? "; " + snapshots.stats() : "");
+    }
+
+    // Takes the node offline and, with snapshots on, writes a final snapshot
+    @Override
+    public void close() {
+        connected = false;
+        signatures.close();
+        if (snapshots != null) snapshots.close();
+    }
+
+    // Checks the signature against the key registered with the address (or, for a
+    // kiosk-attested vote, the configured kiosk key)
+    private CompletableFuture<Void> verifySignature(String voterAddress, String candidateName, String signature) {
+        byte[] voterKey;
+        try {
+            voterKey = voterRegistry.publicKey(voterAddress);
+        } catch (IllegalArgumentException e) {
+            return AsyncBlockchainService.failed(new BlockchainException(e.getMessage()));
+        }
+        return signatures.verify(voterKey, voterAddress, candidateName, signature);
+    }
+
+    private String applyRegistration(String voterHash, String publicKey) throws BlockchainException {
+        checkAvailable();
+        maybeFail();
+
+        // The address is the key's fingerprint, as on a real chain
+        String address;
+        byte[] key;
+        String registered;
+        try {
+            key = publicKey == null ? null : VoteSignatures.rawKey(publicKey);
+            address = key == null ? LedgerBlockchainService.addressFor(voterHash) : VoteSignatures.addressFor(key);
+            registered = voterRegistry.register(voterHash, address, key);
+        } catch (IllegalArgumentException e) {
+            throw new BlockchainException(e.getMessage());
+        }
+        if (key != null && !registered.equals(address)) {
+            throw new BlockchainException("Voter is already registered with another key");
+        }
+        if (snapshots != null) snapshots.logRegistration(voterHash, address, key);
+
+        // Simulate transaction hash
+        return "0x" + generateRandomHex(64);
+    }
+
+    // idempotencyKey is null for a vote cast without one
+    private String applyVote(String voterAddress, String candidateName, String idempotencyKey) throws BlockchainException {
+        checkAvailable();
+        maybeFail();
+
+        // Atomic claim: exactly one concurrent caller wins for a given address
+        boolean firstVote;
+        try {
+            firstVote = voterRegistry.markVoted(voterAddress);
+        } catch (IllegalArgumentException e) {
+            throw new BlockchainException(e.getMessage());
+        }
+        if (!firstVote) {
+            throw new BlockchainException("Address already voted on blockchain");
+        }
+
+        // Record vote on blockchain
+        blockchainVotes.computeIfAbsent(candidateName, name -> new LongAdder()).increment();
+
+        // Simulate transaction hash
+        String txHash = "0x" + generateRandomHex(64);
+        if (snapshots != null) snapshots.logVote(voterAddress, candidateName, idempotencyKey, txHash);
+        return txHash;
+    }
+
+    private boolean applyVerify(String voterAddress) throws BlockchainException {
+        checkAvailable();
+        try {
+            return voterRegistry.verify(voterAddress);
+        } catch (IllegalArgumentException e) {
+            return false; // not a well-formed address, so never registered
+        }
+    }
+
+    private Map<String, Integer> applyResults() throws BlockchainException {
+        checkAvailable();
+        Map<String, Integer> results = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : blockchainVotes.entrySet()) {
+            results.put(entry.getKey(), entry.getValue().intValue());
+        }
+        return results;
+    }
+
+    // Waits for the write's block to be mined
+    private String confirm(String txHash) {
+        long wait;
+        long minedAt = claimBlockSlot();
+        while ((wait = minedAt - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        transactions.increment();
+        return txHash;
+    }
+
+    private <T> CompletableFuture<T> simulate(AsyncBlockchainService.Call<T> call, boolean write) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        after(sampleLatency(), () -> {
+            try {
+                T value = call.call();
+                if (!write) {
+                    result.complete(value);
+                    return;
+                }
+                after(claimBlockSlot() - System.nanoTime(), () -> {
+                    transactions.increment();
+                    result.complete(value);
+                });
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
+    private static void after(long delayNanos, Runnable task) {
+        if (delayNanos <= 0) {
+            task.run();
+        } else {
+            TIMER.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private long sampleLatency() {
+        return config.latency.sampleNanos(ThreadLocalRandom.current());
+    }
+
+    // Every call that reaches the node may find (or knock) it offline
+    private void checkAvailable() throws BlockchainException {
+        if (config.disconnectRate > 0 && ThreadLocalRandom.current().nextDouble() < config.disconnectRate) {
+            disconnectFor(config.disconnectMillis);
+        }
+        if (!isBlockchainConnected()) throw new BlockchainException("Blockchain not connected");
+    }
+
+    private void maybeFail() throws BlockchainException {
+        if (config.failureRate > 0 && ThreadLocalRandom.current().nextDouble() < config.failureRate) {
+            injectedFailures.increment();
+            throw new BlockchainException("Simulated transaction failure (reverted)");
+        }
+    }
+
+    // Mimics block-limited throughput: each write claims a slot in the current block, or in
+    // the next block with room, and is confirmed once that block has been "mined". Returns
+    // the System.nanoTime() at which that happens (0 without block timing).
+    private long claimBlockSlot() {
+        long interval = TimeUnit.MILLISECONDS.toNanos(config.blockIntervalMillis);
+        if (interval <= 0) return 0L;
+
+        long claimedBlock;
+        while (true) {
+            long current = (System.nanoTime() - startNanos) / interval;
+            long state = blockSlots.get();
+            long block = state >>> BLOCK_SHIFT;
+            long used = state & USED_MASK;
+            long next;
+            if (block < current) {
+                claimedBlock = current;
+                next = (current << BLOCK_SHIFT) | 1;
+            } else if (used < Math.min(config.maxTxPerBlock, USED_MASK)) {
+                claimedBlock = block;
+                next = (block << BLOCK_SHIFT) | (used + 1);
+            } else {
+                claimedBlock = block + 1;
+                next = (claimedBlock << BLOCK_SHIFT) | 1;
+            }
+            if (blockSlots.compareAndSet(state, next)) break;
+        }
+        return startNanos + (claimedBlock + 1) * interval;
+    }
+
+    private String generateRandomHex(int length) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.PrivateKey;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Transactional outbox for blockchain submission (-Devoting.chain.outbox=true).
+// In outbox mode a vote never waits on the chain: VoteRepository inserts a vote_outbox row
+// in the same MySQL transaction that claims the voter and bumps the tally, so the vote and
+// the obligation to publish it commit or roll back together. This dispatcher then drains
+// pending rows to the BlockchainService in the background.
+//
+// Rows are claimed with a short lease (lease_owner / lease_until), so any number of kiosks
+// can run a dispatcher against the same database without publishing a row twice at once.
+// A claimed batch is submitted to the chain all at once, then the outcome of every row is
+// written back in one transaction: delivered rows keep their tx hash, failed rows get
+// exponential backoff with jitter, and rows that exhaust evoting.outbox.maxAttempts are
+// parked as dead letters. Each row carries an idempotency key derived from the voter, so a
+// retry after an ambiguous failure (timeout, crash before write-back) cannot vote twice.
+// A row is only marked delivered with a tx hash the chain has made durable: the ledger
+// completes a submission once the block carrying it is forced to disk, so a chain crash
+// before that leaves the row pending and it is sent again.
+// blockchain_sync.last_outbox_id records how far the outbox has been fully processed.
+//
+// By dispatch time the voter's session (and key) is gone, so outbox votes are
+// kiosk-attested: they are signed with the kiosk private key in evoting.outbox.kioskKeyFile,
+// and the chain accepts them only if it is configured with the matching evoting.sig.kioskKey
+// (see VoteSignatures; java VoteSignatures --kiosk-key <file> makes the pair).
+class OutboxDispatcher implements AutoCloseable {
+
+    static final int PENDING = 0;
+    static final int DELIVERED = 1;
+    static final int DEAD = 2;
+
+    static final String INSERT_SQL =
+        "INSERT INTO vote_outbox (user_id, candidate_id, idempotency_key) " +
+        "VALUES (?, ?, SHA2(CONCAT('vote:', ?), 256))";
+
+    private static final String CLAIM_SQL =
+        "UPDATE vote_outbox SET lease_owner = ?, lease_until = DATE_ADD(NOW(3), INTERVAL ? MICROSECOND) " +
+        "WHERE status = " + PENDING + " AND next_attempt_at <= NOW(3) " +
+        "AND (lease_until IS NULL OR lease_until < NOW(3)) ORDER BY id LIMIT ?";
+    private static final String CLAIMED_SQL =
+        "SELECT o.id, o.user_id, o.idempotency_key, o.attempts, u.username, u.blockchain_address, c.candidate_name " +
+        "FROM vote_outbox o JOIN users u ON u.id = o.user_id JOIN candidates c ON c.id = o.candidate_id " +
+        "WHERE o.lease_owner = ? AND o.status = " + PENDING + " ORDER BY o.id";
+    private static final String DELIVERED_SQL =
+        "UPDATE vote_outbox SET status = " + DELIVERED + ", tx_hash = ?, attempts = attempts + 1, last_error = NULL, " +
+        "lease_owner = NULL, lease_until = NULL WHERE id = ? AND lease_owner = ?";
+    // MySQL applies single-table SET clauses left to right, so status sees the new attempts
+    private static final String FAILED_SQL =
+        "UPDATE vote_outbox SET attempts = attempts + 1, status = IF(attempts >= ?, " + DEAD + ", " + PENDING + "), " +
+        "next_attempt_at = DATE_ADD(NOW(3), INTERVAL ? MICROSECOND), last_error = ?, " +
+        "lease_owner = NULL, lease_until = NULL WHERE id = ? AND lease_owner = ?";
+    private static final String PROGRESS_SQL =
+        "UPDATE blockchain_sync SET last_outbox_id = COALESCE(" +
+        "(SELECT MIN(id) - 1 FROM vote_outbox WHERE status = " + PENDING + "), " +
+        "(SELECT MAX(id) FROM vote_outbox), 0), last_sync_timestamp = NOW() WHERE id = 1";
+
+    // One claimed outbox row joined with what the chain call needs
+    private static final class Entry {
+        final long id;
+        final long userId;
+        final String idempotencyKey;
+        final int attempts;
+        final String username;
+        final String address;
+        final boolean derivedAddress;
+        final String candidateName;
+
+        Entry(ResultSet resultSet) throws SQLException {
+            id = resultSet.getLong("id");
+            userId = resultSet.getLong("user_id");
+            idempotencyKey = resultSet.getString("idempotency_key");
+            attempts = resultSet.getInt("attempts");
+            username = resultSet.getString("username");
+            candidateName = resultSet.getString("candidate_name");
+            String stored = resultSet.getString("blockchain_address");
+            derivedAddress = stored == null;
+            address = stored != null ? stored : derivedAddress(username, userId);
+        }
+    }
+
+    // Deterministic, so every retry (on any kiosk) submits from the same address
+    static String derivedAddress(String username, long userId) {
+        return "0x" + VotingEngine.hashPassword(username + ":" + userId).substring(0, 40);
+    }
+
+    private final ConnectionPool connectionPool;
+    private final AsyncBlockchainService chain;
+    private final int batchSize;
+    private final long pollNanos;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long leaseMillis;
+    private final String owner = UUID.randomUUID().toString();
+    private final PrivateKey kioskKey;
+    private final boolean recordsTxHash;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    // Instrumentation
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder deadLetters = new LongAdder();
+
+    OutboxDispatcher(ConnectionPool connectionPool, BlockchainService blockchainService, Executor executor)
+            throws SQLException, IOException {
+        String kioskKeyFile = System.getProperty("evoting.outbox.kioskKeyFile", "");
+        if (kioskKeyFile.isEmpty()) {
+            throw new IOException("Outbox mode signs votes with the kiosk key; set evoting.outbox.kioskKeyFile");
+        }
+        this.kioskKey = VoteSignatures.readKioskKey(Paths.get(kioskKeyFile));
+        // With a key the chain does not trust, every vote would end up a dead letter
+        String probeAddress = "0x" + "0".repeat(40);
+        String probe = VoteSignatures.attest(kioskKey, probeAddress, "kiosk-key-probe");
+        if (!blockchainService.acceptsSignature(probeAddress, "kiosk-key-probe", probe)) {
+            throw new IOException("The chain does not accept votes attested with " + kioskKeyFile +
+                                  "; start it with evoting.sig.kioskKey set to that key's public half");
+        }
+        this.connectionPool = connectionPool;
+        this.chain = AsyncBlockchainService.of(blockchainService, executor);
+        this.batchSize = Math.max(1, Integer.getInteger("evoting.outbox.batchSize", 128));
+        this.pollNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("evoting.outbox.pollMs", 200L)));
+        this.maxAttempts = Math.max(1, Integer.getInteger("evoting.outbox.maxAttempts", 10));
+        this.baseBackoffMillis = Math.max(1, Long.getLong("evoting.outbox.backoffMs", 500L));
+        this.maxBackoffMillis = Math.max(baseBackoffMillis, Long.getLong("evoting.outbox.maxBackoffMs", 60000L));
+        this.leaseMillis = Math.max(1000, Long.getLong("evoting.outbox.leaseMs", 30000L));
+        try (Connection connection = connectionPool.getConnection()) {
+            this.recordsTxHash = VoteRepository.hasColumn(connection, "users", "blockchain_tx_hash");
+        }
+        this.dispatcher = new Thread(this::run, "vote-outbox-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    // Creates vote_outbox and the progress row in blockchain_sync
+    static void installSchema(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS vote_outbox (" +
+                               "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                               "user_id BIGINT NOT NULL, " +
+                               "candidate_id INT NOT NULL, " +
+                               "idempotency_key CHAR(64) NOT NULL, " +
+                               "status TINYINT NOT NULL DEFAULT " + PENDING + ", " +
+                               "attempts INT NOT NULL DEFAULT 0, " +
+                               "next_attempt_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), " +
+                               "lease_owner CHAR(36) NULL, " +
+                               "lease_until TIMESTAMP(3) NULL, " +
+                               "tx_hash VARCHAR(66) NULL, " +
+                               "last_error VARCHAR(255) NULL, " +
+                               "created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), " +
+                               "UNIQUE KEY uk_vote_outbox_idempotency (idempotency_key), " +
+                               "KEY idx_vote_outbox_status (status, id)" +
+                               ")");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS blockchain_sync (" +
+                               "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                               "last_block_number BIGINT DEFAULT 0, " +
+                               "last_sync_timestamp DATETIME DEFAULT CURRENT_TIMESTAMP" +
+                               ")");
+            if (!VoteRepository.hasColumn(connection, "blockchain_sync", "last_outbox_id")) {
+                stmt.executeUpdate("ALTER TABLE blockchain_sync ADD COLUMN last_outbox_id BIGINT NOT NULL DEFAULT 0");
+            }
+            stmt.executeUpdate("INSERT IGNORE INTO blockchain_sync (id, last_block_number) VALUES (1, 0)");
+        }
+    }
+
+    // Called after a vote commits so the dispatcher does not wait out its poll interval
+    void wakeUp() {
+        LockSupport.unpark(dispatcher);
+    }
+
+    String stats() {
+        return String.format("outbox delivered=%d failedAttempts=%d deadLetters=%d",
+            delivered.sum(), failedAttempts.sum(), deadLetters.sum());
+    }
+
+    // Finishes the batch in flight; undelivered rows stay in the outbox for the next start
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(dispatcher);
+        try {
+            dispatcher.join(leaseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        int consecutiveErrors = 0;
+        while (running) {
+            int handled = 0;
+            try {
+                handled = dispatchOnce();
+                consecutiveErrors = 0;
+            } catch (SQLException e) {
+                consecutiveErrors++;
+                System.out.println("Outbox dispatch failed: " + e.getMessage());
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoffMillis(consecutiveErrors)));
+            }
+            if (handled < batchSize && running) {
+                LockSupport.parkNanos(this, pollNanos);
+            }
+        }
+    }
+
+    private int dispatchOnce() throws SQLException {
+        List<Entry> entries = claim();
+        if (entries.isEmpty()) return 0;
+
+        // Pipeline the whole batch: every claimed row is on its way to the chain at once
+        List<CompletableFuture<String>> submissions = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            String signature = VoteSignatures.attest(kioskKey, entry.address, entry.candidateName);
+            submissions.add(chain.castVoteAsync(entry.address, entry.candidateName, signature, entry.idempotencyKey));
+        }
+
+        // Leave time to write the outcome back before the lease runs out
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseMillis / 2);
+        String[] txHashes = new String[entries.size()];
+        String[] errors = new String[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                txHashes[i] = submissions.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                errors[i] = String.valueOf(e.getCause().getMessage());
+            } catch (TimeoutException e) {
+                errors[i] = "Timed out waiting for the blockchain";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errors[i] = "Interrupted";
+            }
+        }
+
+        record(entries, txHashes, errors);
+        return entries.size();
+    }
+
+    private List<Entry> claim() throws SQLException {
+        List<Entry> entries = new ArrayList<>();
+        try (Connection connection = connectionPool.getConnection()) {
+            try (PreparedStatement claimStmt = connection.prepareStatement(CLAIM_SQL)) {
+                claimStmt.setString(1, owner);
+                claimStmt.setLong(2, TimeUnit.MILLISECONDS.toMicros(leaseMillis));
+                claimStmt.setInt(3, batchSize);
+                if (claimStmt.executeUpdate() == 0) return entries;
+            }
+            try (PreparedStatement selectStmt = connection.prepareStatement(CLAIMED_SQL)) {
+                selectStmt.setString(1, owner);
+                try (ResultSet resultSet = selectStmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        entries.add(new Entry(resultSet));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    // Writes every row's outcome and the progress marker in one transaction
+    private void record(List<Entry> entries, String[] txHashes, String[] errors) throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement deliveredStmt = connection.prepareStatement(DELIVERED_SQL);
+                 PreparedStatement failedStmt = connection.prepareStatement(FAILED_SQL);
+                 PreparedStatement addressStmt = connection.prepareStatement(
+                     "UPDATE users SET blockchain_address = ? WHERE id = ? AND blockchain_address IS NULL");
+                 PreparedStatement txHashStmt = connection.prepareStatement(
+                     "UPDATE users SET blockchain_tx_hash = ? WHERE id = ?")) {
+                int newlyDead = 0;
+                for (int i = 0; i < entries.size(); i++) {
+                    Entry entry = entries.get(i);
+                    if (entry.derivedAddress) {
+                        addressStmt.setString(1, entry.address);
+                        addressStmt.setLong(2, entry.userId);
+                        addressStmt.addBatch();
+                    }
+                    if (errors[i] == null) {
+                        deliveredStmt.setString(1, txHashes[i]);
+                        deliveredStmt.setLong(2, entry.id);
+                        deliveredStmt.setString(3, owner);
+                        deliveredStmt.addBatch();
+                        if (recordsTxHash) {
+                            txHashStmt.setString(1, txHashes[i]);
+                            txHashStmt.setLong(2, entry.userId);
+                            txHashStmt.addBatch();
+                        }
+                    } else {
+                        failedStmt.setInt(1, maxAttempts);
+                        failedStmt.setLong(2, TimeUnit.MILLISECONDS.toMicros(backoffMillis(entry.attempts + 1)));
+                        String error = errors[i];
+                        failedStmt.setString(3, error.length() > 255 ? error.substring(0, 255) : error);
+                        failedStmt.setLong(4, entry.id);
+                        failedStmt.setString(5, owner);
+                        failedStmt.addBatch();
+                        if (entry.attempts + 1 >= maxAttempts) newlyDead++;
+                    }
+                }
+                addressStmt.executeBatch();
+                deliveredStmt.executeBatch();
+                failedStmt.executeBatch();
+                if (recordsTxHash) txHashStmt.executeBatch();
+                try (Statement progressStmt = connection.createStatement()) {
+                    progressStmt.executeUpdate(PROGRESS_SQL);
+                }
+                connection.commit();
+
+                int failures = 0;
+                for (String error : errors) {
+                    if (error != null) failures++;
+                }
+                delivered.add(entries.size() - failures);
+                failedAttempts.add(failures);
+                deadLetters.add(newlyDead);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Exponential backoff capped at maxBackoffMs, with jitter so kiosks do not retry in step
+    private long backoffMillis(int attempts) {
+        long delay = Math.min(maxBackoffMillis, baseBackoffMillis << Math.max(0, Math.min(attempts - 1, 20)));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+}
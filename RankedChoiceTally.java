@@ -0,0 +1,340 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Instant-runoff tabulation of the ballots in ranked_ballots.
+//
+// Ballots are held as one flat char[] of candidate indexes plus an offsets array (the
+// packed preferences column decoded once), so 10M ballots of five rankings cost about
+// 140 MB and no per-ballot objects. Every continuing candidate owns a pile: the ids of
+// the ballots currently counted for them. A round reads the pile sizes, and eliminating
+// a candidate walks only that candidate's pile, sending each ballot to its first
+// preference that is still continuing (or marking it exhausted). A ballot needs no
+// cursor: eliminations only ever grow, so "first continuing preference" is always right.
+//
+// The first-preference count and every transfer are split into slices processed on a
+// ForkJoinPool (evoting.rcv.parallelism), each slice filling private piles that are
+// appended to the shared ones when it finishes.
+//
+// Ties for last place go to the candidate who had fewer votes in the latest earlier
+// round where the tied candidates differed, and then to the later candidate in id order.
+//
+// Usage: java RankedChoiceTally <jdbcUrl> <dbUser> <dbPassword>
+public class RankedChoiceTally {
+
+    private static final int SLICE = 1 << 16; // ballots per task
+
+    // Every ballot, decoded: ballot b ranks prefs[offsets[b]] .. prefs[offsets[b + 1] - 1]
+    static final class Ballots {
+        final List<VotingEngine.Candidate> candidates; // index -> candidate
+        final char[] prefs;
+        final int[] offsets;
+        final int count;
+        final long skipped; // rankings of candidates no longer on the ballot
+
+        Ballots(List<VotingEngine.Candidate> candidates, char[] prefs, int[] offsets, int count, long skipped) {
+            this.candidates = candidates;
+            this.prefs = prefs;
+            this.offsets = offsets;
+            this.count = count;
+            this.skipped = skipped;
+        }
+    }
+
+    // Counts at the start of one round and what happened at its end
+    static final class Round {
+        final int number;
+        final long[] votes;      // per candidate index; -1 once eliminated
+        final long exhausted;    // ballots with no continuing preference so far
+        final int eliminated;    // candidate index, or -1 in the final round
+        final long[] received;   // transfers out of the eliminated pile, per candidate index
+
+        Round(int number, long[] votes, long exhausted, int eliminated, long[] received) {
+            this.number = number;
+            this.votes = votes;
+            this.exhausted = exhausted;
+            this.eliminated = eliminated;
+            this.received = received;
+        }
+    }
+
+    static final class Result {
+        final List<VotingEngine.Candidate> candidates;
+        final List<Round> rounds;
+        final int winner; // candidate index, or -1 when there were no countable ballots
+        final int ballots;
+        final double seconds;
+
+        Result(List<VotingEngine.Candidate> candidates, List<Round> rounds, int winner, int ballots, double seconds) {
+            this.candidates = candidates;
+            this.rounds = rounds;
+            this.winner = winner;
+            this.ballots = ballots;
+            this.seconds = seconds;
+        }
+
+        String winnerName() {
+            return winner < 0 ? null : candidates.get(winner).name;
+        }
+
+        // Round-by-round table, one row per candidate
+        String describe() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%d ballots, %d rounds, tabulated in %.2fs%n%n", ballots, rounds.size(), seconds));
+            text.append(String.format("%-20s", "Candidate"));
+            for (Round round : rounds) text.append(String.format(" %12s", "Round " + round.number));
+            text.append('\n');
+            for (int c = 0; c < candidates.size(); c++) {
+                text.append(String.format("%-20.20s", candidates.get(c).name));
+                for (Round round : rounds) {
+                    text.append(round.votes[c] < 0 ? String.format(" %12s", "-") : String.format(" %12d", round.votes[c]));
+                }
+                text.append('\n');
+            }
+            text.append(String.format("%-20s", "Exhausted"));
+            for (Round round : rounds) text.append(String.format(" %12d", round.exhausted));
+            text.append("\n\n");
+            for (Round round : rounds) {
+                if (round.eliminated < 0) continue;
+                text.append("Round ").append(round.number).append(": ")
+                    .append(candidates.get(round.eliminated).name).append(" eliminated");
+                for (int c = 0; c < candidates.size(); c++) {
+                    if (round.received[c] > 0) {
+                        text.append(", ").append(round.received[c]).append(" to ").append(candidates.get(c).name);
+                    }
+                }
+                text.append('\n');
+            }
+            text.append(winner < 0 ? "No winner: no countable ballots" : "Winner: " + winnerName());
+            return text.toString();
+        }
+    }
+
+    // Growable int array for pile slices
+    private static final class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(IntList other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, values.length + (values.length >> 1)));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+    }
+
+    // One slice's output: new pile entries per candidate plus ballots that ran out
+    private static final class Moves {
+        final IntList[] piles;
+        long exhausted;
+
+        Moves(int candidates) {
+            piles = new IntList[candidates];
+            for (int c = 0; c < candidates; c++) piles[c] = new IntList();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java RankedChoiceTally <jdbcUrl> <dbUser> <dbPassword>");
+            return;
+        }
+        ConnectionPool connectionPool = ConnectionPool.fromSystemProperties(args[0], args[1], args[2]);
+        ForkJoinPool pool = newPool();
+        try {
+            long start = System.nanoTime();
+            Ballots ballots = load(connectionPool, candidates(connectionPool));
+            System.out.printf("Loaded %d ballots in %.2fs (%d rankings of removed candidates skipped)%n",
+                ballots.count, (System.nanoTime() - start) / 1e9, ballots.skipped);
+            System.out.println(tabulate(ballots, pool).describe());
+        } finally {
+            pool.shutdown();
+            connectionPool.close();
+        }
+    }
+
+    static ForkJoinPool newPool() {
+        return new ForkJoinPool(Math.max(1, Integer.getInteger("evoting.rcv.parallelism", Runtime.getRuntime().availableProcessors())));
+    }
+
+    static List<VotingEngine.Candidate> candidates(ConnectionPool connectionPool) throws SQLException {
+        List<VotingEngine.Candidate> candidates = new ArrayList<>();
+        try (Connection connection = connectionPool.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT id, candidate_name FROM candidates ORDER BY id")) {
+            while (resultSet.next()) {
+                candidates.add(new VotingEngine.Candidate(resultSet.getInt("id"), resultSet.getString("candidate_name")));
+            }
+        }
+        return candidates;
+    }
+
+    // Streams ranked_ballots into the packed in-memory form
+    static Ballots load(ConnectionPool connectionPool, List<VotingEngine.Candidate> candidates) throws SQLException {
+        int maxId = 0;
+        for (VotingEngine.Candidate candidate : candidates) maxId = Math.max(maxId, candidate.id);
+        int[] indexById = new int[maxId + 1];
+        Arrays.fill(indexById, -1);
+        for (int c = 0; c < candidates.size(); c++) indexById[candidates.get(c).id] = c;
+
+        char[] prefs = new char[1 << 20];
+        int[] offsets = new int[1 << 16];
+        int count = 0;
+        int used = 0;
+        long skipped = 0;
+        try (Connection connection = connectionPool.getConnection();
+             Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(Integer.MIN_VALUE); // MySQL Connector/J: stream rows instead of buffering them
+            try (ResultSet resultSet = stmt.executeQuery("SELECT preferences FROM ranked_ballots")) {
+                while (resultSet.next()) {
+                    byte[] packed = resultSet.getBytes(1);
+                    if (count + 2 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    if (used + packed.length / 2 > prefs.length) {
+                        prefs = Arrays.copyOf(prefs, Math.max(used + packed.length / 2, prefs.length * 2));
+                    }
+                    offsets[count] = used;
+                    for (int i = 0; i + 1 < packed.length; i += 2) {
+                        int id = (packed[i] & 0xFF) << 8 | (packed[i + 1] & 0xFF);
+                        int index = id < indexById.length ? indexById[id] : -1;
+                        if (index < 0) {
+                            skipped++;
+                        } else {
+                            prefs[used++] = (char) index;
+                        }
+                    }
+                    count++;
+                }
+            }
+        }
+        offsets[count] = used;
+        return new Ballots(candidates, prefs, Arrays.copyOf(offsets, count + 1), count, skipped);
+    }
+
+    // Runs elimination rounds until a candidate holds a majority of the continuing ballots
+    static Result tabulate(Ballots ballots, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        int candidateCount = ballots.candidates.size();
+        boolean[] eliminated = new boolean[candidateCount];
+        IntList[] piles = new IntList[candidateCount];
+        for (int c = 0; c < candidateCount; c++) piles[c] = new IntList();
+
+        // First preferences
+        List<Callable<Moves>> slices = new ArrayList<>();
+        for (int from = 0; from < ballots.count; from += SLICE) {
+            int sliceStart = from;
+            int sliceEnd = Math.min(ballots.count, from + SLICE);
+            slices.add(() -> {
+                Moves moves = new Moves(candidateCount);
+                for (int b = sliceStart; b < sliceEnd; b++) place(ballots, eliminated, b, moves);
+                return moves;
+            });
+        }
+        long exhausted = merge(pool.invokeAll(slices), piles, null);
+
+        List<Round> rounds = new ArrayList<>();
+        int continuing = candidateCount;
+        while (true) {
+            long[] votes = new long[candidateCount];
+            long total = 0;
+            int leader = -1;
+            for (int c = 0; c < candidateCount; c++) {
+                if (eliminated[c]) {
+                    votes[c] = -1;
+                    continue;
+                }
+                votes[c] = piles[c].size;
+                total += votes[c];
+                if (leader < 0 || votes[c] > votes[leader]) leader = c;
+            }
+            if (leader < 0 || total == 0) {
+                rounds.add(new Round(rounds.size() + 1, votes, exhausted, -1, new long[candidateCount]));
+                return new Result(ballots.candidates, rounds, -1, ballots.count, (System.nanoTime() - start) / 1e9);
+            }
+            if (votes[leader] * 2 > total || continuing == 1) {
+                rounds.add(new Round(rounds.size() + 1, votes, exhausted, -1, new long[candidateCount]));
+                return new Result(ballots.candidates, rounds, leader, ballots.count, (System.nanoTime() - start) / 1e9);
+            }
+
+            int loser = lastPlace(votes, rounds);
+            eliminated[loser] = true;
+            continuing--;
+            IntList pile = piles[loser];
+            piles[loser] = new IntList();
+
+            // Only the eliminated candidate's ballots move
+            slices.clear();
+            for (int from = 0; from < pile.size; from += SLICE) {
+                int sliceStart = from;
+                int sliceEnd = Math.min(pile.size, from + SLICE);
+                slices.add(() -> {
+                    Moves moves = new Moves(candidateCount);
+                    for (int i = sliceStart; i < sliceEnd; i++) place(ballots, eliminated, pile.values[i], moves);
+                    return moves;
+                });
+            }
+            long[] received = new long[candidateCount];
+            rounds.add(new Round(rounds.size() + 1, votes, exhausted, loser, received));
+            exhausted += merge(pool.invokeAll(slices), piles, received);
+        }
+    }
+
+    // Files ballot b under its first continuing preference
+    private static void place(Ballots ballots, boolean[] eliminated, int b, Moves moves) {
+        for (int i = ballots.offsets[b]; i < ballots.offsets[b + 1]; i++) {
+            int c = ballots.prefs[i];
+            if (!eliminated[c]) {
+                moves.piles[c].add(b);
+                return;
+            }
+        }
+        moves.exhausted++;
+    }
+
+    // Appends every slice's moves to the shared piles; returns the ballots exhausted
+    private static long merge(List<Future<Moves>> results, IntList[] piles, long[] received)
+            throws InterruptedException, ExecutionException {
+        long exhausted = 0;
+        for (Future<Moves> result : results) {
+            Moves moves = result.get();
+            exhausted += moves.exhausted;
+            for (int c = 0; c < piles.length; c++) {
+                if (moves.piles[c].size == 0) continue;
+                piles[c].addAll(moves.piles[c]);
+                if (received != null) received[c] += moves.piles[c].size;
+            }
+        }
+        return exhausted;
+    }
+
+    private static int lastPlace(long[] votes, List<Round> previous) {
+        int loser = -1;
+        for (int c = 0; c < votes.length; c++) {
+            if (votes[c] < 0) continue;
+            if (loser < 0 || votes[c] < votes[loser] || (votes[c] == votes[loser] && !trailed(loser, c, previous))) {
+                loser = c;
+            }
+        }
+        return loser;
+    }
+
+    // True if a had fewer votes than b in the latest earlier round where they differed;
+    // false with no such round, so the later candidate (b) goes
+    private static boolean trailed(int a, int b, List<Round> previous) {
+        for (int r = previous.size() - 1; r >= 0; r--) {
+            long[] votes = previous.get(r).votes;
+            if (votes[a] != votes[b]) return votes[a] < votes[b];
+        }
+        return false;
+    }
+}
@@ -0,0 +1,201 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// In-memory tally indexed by candidate id, kept current as votes commit, so dashboards
+// show live results without querying candidates.
+//
+// VotingEngine calls recordVote(candidateId) for every vote once MySQL has it (a batch
+// commit, or the journal applying a record): an array lookup and a LongAdder increment. A publisher thread wakes every evoting.results.refreshMs and, only
+// if something changed since the last tick, pushes one immutable Snapshot to every
+// subscriber, so a burst of thousands of votes costs a dashboard one repaint per tick.
+//
+// Votes cast on other kiosks arrive through a resync every evoting.results.resyncMs: each
+// candidate's total is reset to the database's count, up or down. A vote commits before it
+// is recorded here, so a resync can catch one in between and count it twice; the next
+// resync takes that back, so totals never stay above the database for longer than one
+// interval. New candidates are picked up the same way.
+class ResultsProjection implements AutoCloseable {
+
+    interface Listener {
+        void resultsChanged(Snapshot snapshot);
+    }
+
+    interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    // Totals at one instant, in candidate id order
+    static final class Snapshot {
+        final List<String> names;
+        final long[] votes;
+
+        Snapshot(List<String> names, long[] votes) {
+            this.names = names;
+            this.votes = votes;
+        }
+
+        Map<String, Long> asMap() {
+            Map<String, Long> results = new LinkedHashMap<>();
+            for (int i = 0; i < names.size(); i++) results.put(names.get(i), votes[i]);
+            return results;
+        }
+    }
+
+    // Candidate layout; replaced as a whole when the candidate list changes
+    private static final class Slots {
+        final int[] slotById;           // candidate id -> slot, -1 when unknown
+        final String[] names;
+        final LongAdder[] recorded;     // votes recorded by this process
+        final AtomicLongArray baseline; // database totals at load, moved by each resync
+
+        Slots(List<VoteRepository.CandidateTally> tallies) {
+            int maxId = 0;
+            for (VoteRepository.CandidateTally tally : tallies) maxId = Math.max(maxId, tally.id);
+            slotById = new int[maxId + 1];
+            Arrays.fill(slotById, -1);
+            names = new String[tallies.size()];
+            recorded = new LongAdder[tallies.size()];
+            baseline = new AtomicLongArray(tallies.size());
+            for (int slot = 0; slot < tallies.size(); slot++) {
+                VoteRepository.CandidateTally tally = tallies.get(slot);
+                slotById[tally.id] = slot;
+                names[slot] = tally.name;
+                recorded[slot] = new LongAdder();
+                baseline.set(slot, tally.votes);
+            }
+        }
+    }
+
+    private final VoteRepository voteRepository;
+    private final long refreshNanos;
+    private final long resyncNanos;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder changes = new LongAdder();
+    private final Thread publisher;
+    private volatile Slots slots;
+    private volatile boolean resyncRequested;
+    private volatile boolean running = true;
+
+    // Instrumentation
+    private final LongAdder published = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+
+    ResultsProjection(VoteRepository voteRepository) throws SQLException {
+        this.voteRepository = voteRepository;
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, Long.getLong("evoting.results.refreshMs", 250L)));
+        this.resyncNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Long.getLong("evoting.results.resyncMs", 5000L)));
+        this.slots = new Slots(voteRepository.loadTallies());
+        this.publisher = new Thread(this::publish, "results-publisher");
+        this.publisher.setDaemon(true);
+        this.publisher.start();
+    }
+
+    // Called once per committed vote
+    void recordVote(int candidateId) {
+        Slots current = slots;
+        if (candidateId < current.slotById.length && current.slotById[candidateId] >= 0) {
+            current.recorded[current.slotById[candidateId]].increment();
+        } else {
+            resyncRequested = true; // candidate added after the last load; the database has the vote
+        }
+        changes.increment();
+    }
+
+    Snapshot snapshot() {
+        Slots current = slots;
+        long[] votes = new long[current.names.length];
+        for (int slot = 0; slot < votes.length; slot++) {
+            votes[slot] = current.baseline.get(slot) + current.recorded[slot].sum();
+        }
+        return new Snapshot(List.of(current.names), votes);
+    }
+
+    // Delivers the current snapshot right away, then coalesced updates from the publisher
+    // thread; listeners must hand off to their own thread (e.g. the Swing EDT) quickly
+    Subscription subscribe(Listener listener) {
+        listeners.add(listener);
+        listener.resultsChanged(snapshot());
+        return () -> listeners.remove(listener);
+    }
+
+    String stats() {
+        return String.format("results candidates=%d subscribers=%d changes=%d published=%d resyncs=%d",
+            slots.names.length, listeners.size(), changes.sum(), published.sum(), resyncs.sum());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(publisher);
+        try {
+            publisher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        listeners.clear();
+    }
+
+    private void publish() {
+        long lastPublished = changes.sum();
+        long nextResync = System.nanoTime() + resyncNanos;
+        while (running) {
+            LockSupport.parkNanos(this, refreshNanos);
+            if (!running) break;
+            if (resyncRequested || (resyncNanos > 0 && System.nanoTime() - nextResync >= 0)) {
+                resyncRequested = false;
+                nextResync = System.nanoTime() + resyncNanos;
+                try {
+                    resync();
+                } catch (SQLException e) {
+                    System.out.println("Results resync failed: " + e.getMessage());
+                }
+            }
+            long current = changes.sum();
+            if (current == lastPublished || listeners.isEmpty()) continue;
+            lastPublished = current;
+            Snapshot snapshot = snapshot();
+            for (Listener listener : listeners) {
+                try {
+                    listener.resultsChanged(snapshot);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            published.increment();
+        }
+    }
+
+    // Brings every total back to the database: folds in votes from other kiosks, takes back
+    // any counted twice, and picks up new candidates
+    private void resync() throws SQLException {
+        List<VoteRepository.CandidateTally> tallies = voteRepository.loadTallies();
+        Slots current = slots;
+        boolean sameCandidates = tallies.size() == current.names.length;
+        for (int i = 0; sameCandidates && i < tallies.size(); i++) {
+            int id = tallies.get(i).id;
+            sameCandidates = id < current.slotById.length && current.slotById[id] == i;
+        }
+        if (!sameCandidates) {
+            slots = new Slots(tallies);
+            changes.increment();
+        } else {
+            for (int slot = 0; slot < tallies.size(); slot++) {
+                long drift = tallies.get(slot).votes - (current.baseline.get(slot) + current.recorded[slot].sum());
+                if (drift != 0) {
+                    current.baseline.addAndGet(slot, drift);
+                    changes.increment();
+                }
+            }
+        }
+        resyncs.increment();
+    }
+}
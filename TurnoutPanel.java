@@ -0,0 +1,138 @@
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.List;
+import java.util.function.Supplier;
+import javax.swing.*;
+
+// Admin view of a TurnoutSeries: rolling rates per candidate over 1, 5 and 15 minutes
+// with per-second percentiles of the total, and a chart of turnout over the last five
+// minutes (per second) or the last day (per minute). A Swing timer repaints it every
+// second while the window is open; each tick reads the rings, nothing else.
+class TurnoutPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+    private static final int[] RATE_WINDOWS = {60, 300, 900};
+    private static final Color[] PALETTE = {
+        new Color(0x1f77b4), new Color(0xff7f0e), new Color(0x2ca02c), new Color(0xd62728),
+        new Color(0x9467bd), new Color(0x8c564b), new Color(0xe377c2), new Color(0x17becf)
+    };
+
+    private final TurnoutSeries series;
+    private final Supplier<List<VotingEngine.Candidate>> candidates;
+    private final JTextArea ratesArea = new JTextArea();
+    private final JComboBox<String> range = new JComboBox<>(new String[] {"Last 5 minutes (per second)", "Last 24 hours (per minute)"});
+    private final Chart chart = new Chart();
+    private final Timer timer;
+
+    TurnoutPanel(TurnoutSeries series, Supplier<List<VotingEngine.Candidate>> candidates) {
+        super(new BorderLayout());
+        this.series = series;
+        this.candidates = candidates;
+        ratesArea.setEditable(false);
+        ratesArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        range.addActionListener(e -> refresh());
+        JPanel top = new JPanel(new BorderLayout());
+        top.add(range, BorderLayout.NORTH);
+        top.add(ratesArea, BorderLayout.CENTER);
+        add(top, BorderLayout.NORTH);
+        add(chart, BorderLayout.CENTER);
+        timer = new Timer(1000, e -> refresh());
+        refresh();
+    }
+
+    // Opens a window that refreshes until it is closed
+    static void showInFrame(String title, TurnoutSeries series, Supplier<List<VotingEngine.Candidate>> candidates) {
+        TurnoutPanel panel = new TurnoutPanel(series, candidates);
+        JFrame turnoutFrame = new JFrame(title);
+        turnoutFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        turnoutFrame.setSize(700, 500);
+        turnoutFrame.add(panel);
+        turnoutFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                panel.timer.stop();
+            }
+        });
+        panel.timer.start();
+        turnoutFrame.setVisible(true);
+    }
+
+    private void refresh() {
+        List<VotingEngine.Candidate> ballot = candidates.get();
+        StringBuilder text = new StringBuilder(String.format("%-20s %10s %10s %10s%n", "votes/min", "1 min", "5 min", "15 min"));
+        appendRates(text, "All candidates", TurnoutSeries.ALL);
+        for (VotingEngine.Candidate candidate : ballot) appendRates(text, candidate.name, candidate.id);
+        TurnoutSeries.Rates total = series.rates(TurnoutSeries.ALL, 300);
+        text.append(String.format("Votes/s over 5 min: p50=%d p95=%d p99=%d peak=%d", total.p50, total.p95, total.p99, total.peak));
+        ratesArea.setText(text.toString());
+
+        boolean perSecond = range.getSelectedIndex() == 0;
+        long[][] lines = new long[ballot.size()][];
+        for (int i = 0; i < ballot.size(); i++) {
+            int id = ballot.get(i).id;
+            lines[i] = perSecond ? series.perSecond(id, 300) : series.perMinute(id, TurnoutSeries.MINUTES);
+        }
+        chart.show(ballot, lines, perSecond ? "seconds ago" : "minutes ago");
+    }
+
+    private void appendRates(StringBuilder text, String name, int candidateId) {
+        text.append(String.format("%-20.20s", name));
+        for (int window : RATE_WINDOWS) text.append(String.format(" %10.1f", series.rates(candidateId, window).perMinute()));
+        text.append('\n');
+    }
+
+    // One line per candidate, newest sample at the right edge
+    private static final class Chart extends JComponent {
+        private static final long serialVersionUID = 1L;
+        private List<VotingEngine.Candidate> ballot = List.of();
+        private long[][] lines = new long[0][];
+        private String axisLabel = "";
+
+        void show(List<VotingEngine.Candidate> ballot, long[][] lines, String axisLabel) {
+            this.ballot = ballot;
+            this.lines = lines;
+            this.axisLabel = axisLabel;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            int left = 50, right = 10, top = 10, bottom = 40;
+            int width = getWidth() - left - right;
+            int height = getHeight() - top - bottom;
+            if (width <= 0 || height <= 0) return;
+
+            long max = 1;
+            int samples = 0;
+            for (long[] line : lines) {
+                samples = Math.max(samples, line.length);
+                for (long count : line) max = Math.max(max, count);
+            }
+            g2.setColor(Color.GRAY);
+            g2.drawLine(left, top, left, top + height);
+            g2.drawLine(left, top + height, left + width, top + height);
+            g2.drawString(String.valueOf(max), 5, top + 10);
+            g2.drawString("0", 5, top + height);
+            g2.drawString(samples + " " + axisLabel, left, top + height + 15);
+            g2.drawString("now", left + width - 25, top + height + 15);
+            if (samples < 2) return;
+
+            for (int i = 0; i < lines.length; i++) {
+                long[] line = lines[i];
+                g2.setColor(PALETTE[i % PALETTE.length]);
+                int previousX = 0, previousY = 0;
+                for (int s = 0; s < line.length; s++) {
+                    int x = left + (int) ((long) s * width / (samples - 1));
+                    int y = top + height - (int) (line[s] * height / max);
+                    if (s > 0) g2.drawLine(previousX, previousY, x, y);
+                    previousX = x;
+                    previousY = y;
+                }
+                g2.drawString(ballot.get(i).name, left + width - 150, top + 15 + i * 15); // legend
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Turnout over time: per-candidate vote counts for each of the last SECONDS seconds and
+// the last MINUTES minutes, fed by every vote this process commits.
+//
+// Each bucket is one long in a ring: the epoch second (or minute) it counts in the high
+// 32 bits and the count in the low 32. Recording a vote reads a volatile second that the
+// "turnout-clock" thread advances at each second boundary (a wall-clock call per vote
+// would cost more than the rest put together) and bumps two buckets: a bucket still
+// holding its own period takes a plain atomic increment, and one left over from a
+// previous lap is restarted with a single CAS, so there is no lock and no allocation on
+// the hot path. Readers ignore buckets whose stamp is not the period they ask for, which
+// makes a stale lap read as zero.
+//
+// Only votes committed here are counted; other kiosks show up in their own series.
+class TurnoutSeries implements AutoCloseable {
+
+    static final int SECONDS = 3600;     // one hour at one-second resolution
+    static final int MINUTES = 24 * 60;  // one day at one-minute resolution
+    static final int ALL = -1;           // candidate id meaning "every candidate"
+
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+    // Rolling rates over a window that ends at the last complete second
+    static final class Rates {
+        final int windowSeconds;
+        final long votes;
+        final double perSecond;
+        final long p50;
+        final long p95;
+        final long p99;
+        final long peak;
+
+        Rates(int windowSeconds, long[] perSecondCounts) {
+            this.windowSeconds = windowSeconds;
+            long sum = 0;
+            for (long count : perSecondCounts) sum += count;
+            this.votes = sum;
+            this.perSecond = (double) sum / windowSeconds;
+            long[] sorted = perSecondCounts.clone();
+            Arrays.sort(sorted);
+            this.p50 = percentile(sorted, 0.50);
+            this.p95 = percentile(sorted, 0.95);
+            this.p99 = percentile(sorted, 0.99);
+            this.peak = sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        }
+
+        double perMinute() {
+            return perSecond * 60;
+        }
+    }
+
+    // Both rings of one candidate
+    private static final class Series {
+        final AtomicLongArray seconds = new AtomicLongArray(SECONDS);
+        final AtomicLongArray minutes = new AtomicLongArray(MINUTES);
+    }
+
+    private final Thread clock;
+    private volatile Series[] byId = new Series[0];
+    private volatile long second = System.currentTimeMillis() / 1000;
+    private volatile boolean running = true;
+
+    TurnoutSeries() {
+        this.clock = new Thread(this::tick, "turnout-clock");
+        this.clock.setDaemon(true);
+        this.clock.start();
+    }
+
+    // Called once per committed vote
+    void recordVote(int candidateId) {
+        if (candidateId < 0) return;
+        long now = second;
+        Series series = series(candidateId);
+        bump(series.seconds, now, SECONDS);
+        bump(series.minutes, now / 60, MINUTES);
+    }
+
+    // Votes in each of the last `seconds` seconds, oldest first; the last entry is the
+    // current, still filling second
+    long[] perSecond(int candidateId, int seconds) {
+        return counts(candidateId, second, Math.min(seconds, SECONDS), true);
+    }
+
+    // Votes in each of the last `minutes` minutes, oldest first, ending with the current one
+    long[] perMinute(int candidateId, int minutes) {
+        return counts(candidateId, second / 60, Math.min(minutes, MINUTES), false);
+    }
+
+    // Mean rate and per-second percentiles over the last `windowSeconds` complete seconds
+    Rates rates(int candidateId, int windowSeconds) {
+        int window = Math.max(1, Math.min(windowSeconds, SECONDS - 1));
+        return new Rates(window, counts(candidateId, second - 1, window, true));
+    }
+
+    String stats() {
+        Rates minute = rates(ALL, 60);
+        return String.format("turnout last60s=%d rate=%.1f/s p95=%d/s peak=%d/s candidates=%d",
+            minute.votes, minute.perSecond, minute.p95, minute.peak, byId.length);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(clock);
+        try {
+            clock.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Sleeps to just past each second boundary and publishes the new second
+    private void tick() {
+        while (running) {
+            long millis = System.currentTimeMillis();
+            second = millis / 1000;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1000 - millis % 1000 + 1));
+        }
+    }
+
+    private Series series(int candidateId) {
+        Series[] current = byId;
+        if (candidateId < current.length && current[candidateId] != null) return current[candidateId];
+        synchronized (this) {
+            current = byId;
+            if (candidateId >= current.length) {
+                current = Arrays.copyOf(current, Math.max(candidateId + 1, current.length * 2));
+            } else if (current[candidateId] != null) {
+                return current[candidateId];
+            } else {
+                current = current.clone();
+            }
+            current[candidateId] = new Series();
+            byId = current;
+            return current[candidateId];
+        }
+    }
+
+    private static void bump(AtomicLongArray ring, long period, int length) {
+        int index = (int) (period % length);
+        long stamp = period & COUNT_MASK;
+        long word = ring.get(index);
+        while (true) {
+            if (word >>> 32 == stamp) {
+                // A restart to a later period can slip in after the read; the vote then lands
+                // in that period, which is at most one bucket off
+                ring.getAndIncrement(index);
+                return;
+            }
+            long restarted = stamp << 32 | 1;
+            long witness = ring.compareAndExchange(index, word, restarted);
+            if (witness == word) return;
+            word = witness;
+        }
+    }
+
+    private long[] counts(int candidateId, long last, int length, boolean perSecond) {
+        long[] counts = new long[Math.max(0, length)];
+        Series[] current = byId;
+        if (candidateId == ALL) {
+            for (Series series : current) {
+                if (series != null) add(counts, perSecond ? series.seconds : series.minutes, last, perSecond ? SECONDS : MINUTES);
+            }
+        } else if (candidateId >= 0 && candidateId < current.length && current[candidateId] != null) {
+            Series series = current[candidateId];
+            add(counts, perSecond ? series.seconds : series.minutes, last, perSecond ? SECONDS : MINUTES);
+        }
+        return counts;
+    }
+
+    private static void add(long[] counts, AtomicLongArray ring, long last, int ringLength) {
+        for (int i = 0; i < counts.length; i++) {
+            long period = last - (counts.length - 1 - i);
+            long word = ring.get((int) (period % ringLength));
+            if (word >>> 32 == (period & COUNT_MASK)) counts[i] += word & COUNT_MASK;
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1))];
+    }
+}
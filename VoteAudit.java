@@ -0,0 +1,483 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+
+// Post-election recount straight from the ledger, trusting none of the stored counters.
+// Every block's CRC, transaction hashes (via its Merkle root), hash link and number are
+// re-checked, every registration's address is re-derived from the voter's public key,
+// every vote's address is checked and its Ed25519 signature re-verified against the key
+// that address registered - or, for a kiosk-attested outbox vote, against the kiosk key
+// given as evoting.sig.kioskKey - and no address may vote twice. Votes written before
+// votes were signed hold a 64-hex placeholder, which is only format-checked; it is
+// accepted only in legacy "BLK1" blocks ahead of the ledger's first "BLK2" block (the
+// format cut-over), and a legacy block after the cut-over is itself a problem.
+// The votes are then recounted and diffed against the candidates table and the chain
+// projection.
+//
+// Segments are memory-mapped and indexed in parallel (block headers only), then a
+// fork-join recount splits the block range until LEAF_BLOCKS remain. Each leaf counts
+// into its own long[] indexed by candidate and the partial tallies are merged pairwise
+// on the way back up, so no counter is shared between threads.
+//
+// The vote journal is not an input: it is trimmed once MySQL has applied it, so only the
+// ledger holds every vote.
+//
+// Usage: java VoteAudit <jdbcUrl> <dbUser> <dbPassword> [ledgerDir]
+public class VoteAudit {
+
+    private static final int LEAF_BLOCKS = 8;
+    private static final int MAX_PROBLEMS = 100;
+
+    // Recount of one contiguous run of blocks
+    static final class Tally {
+        long firstNumber = -1;
+        long lastNumber = -1;
+        byte[] firstPreviousHash;
+        byte[] lastHash;
+        final long[] votes; // per candidate index
+        final Map<String, Long> otherVotes = new HashMap<>(); // names not in the candidates table
+        long blocks;
+        long transactions;
+        long registrations;
+        long bytes;
+        final List<long[]> voterKeys = new ArrayList<>();
+        final List<String> problems = new ArrayList<>();
+
+        Tally(int candidates) {
+            this.votes = new long[candidates];
+        }
+
+        void problem(String problem) {
+            if (problems.size() < MAX_PROBLEMS) problems.add(problem);
+        }
+
+        Tally merge(Tally right) {
+            if (lastHash != null && right.firstPreviousHash != null && !Arrays.equals(lastHash, right.firstPreviousHash)) {
+                problem("Broken hash link at block " + right.firstNumber);
+            }
+            for (int i = 0; i < votes.length; i++) votes[i] += right.votes[i];
+            for (Map.Entry<String, Long> entry : right.otherVotes.entrySet()) {
+                otherVotes.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+            blocks += right.blocks;
+            transactions += right.transactions;
+            registrations += right.registrations;
+            bytes += right.bytes;
+            voterKeys.addAll(right.voterKeys);
+            for (String problem : right.problems) problem(problem);
+            if (firstPreviousHash == null) {
+                firstPreviousHash = right.firstPreviousHash;
+                firstNumber = right.firstNumber;
+            }
+            if (right.lastHash != null) {
+                lastHash = right.lastHash;
+                lastNumber = right.lastNumber;
+            }
+            return this;
+        }
+    }
+
+    static final class Report {
+        final Map<String, Long> recount;
+        final long blocks;
+        final long votes;
+        final long registrations;
+        final long duplicateVoters;
+        final long bytes;
+        final List<String> problems;
+        final double seconds;
+
+        Report(Map<String, Long> recount, long blocks, long votes, long registrations, long duplicateVoters,
+               long bytes, List<String> problems, double seconds) {
+            this.recount = recount;
+            this.blocks = blocks;
+            this.votes = votes;
+            this.registrations = registrations;
+            this.duplicateVoters = duplicateVoters;
+            this.bytes = bytes;
+            this.problems = problems;
+            this.seconds = seconds;
+        }
+
+        boolean verified() {
+            return problems.isEmpty() && duplicateVoters == 0;
+        }
+    }
+
+    // Recounts the block range [from, to) of the ledger
+    private static final class Recount extends RecursiveTask<Tally> {
+        private static final long serialVersionUID = 1L;
+        private final Ledger ledger;
+        private final int from;
+        private final int to;
+
+        Recount(Ledger ledger, int from, int to) {
+            this.ledger = ledger;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (to - from <= LEAF_BLOCKS) return ledger.recount(from, to);
+            int middle = (from + to) >>> 1;
+            Recount left = new Recount(ledger, from, middle);
+            left.fork();
+            Tally right = new Recount(ledger, middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    // Mapped segments plus the location of every block in them
+    private static final class Ledger {
+        final List<ByteBuffer> segments;
+        final int[] blockSegment;
+        final int[] blockOffset;
+        final Map<String, Integer> candidateIndex;
+        final VoterRegistry voterKeys = new VoterRegistry(1 << 16); // filled by registerKeys
+        final PublicKey kioskKey;
+        final int signedFrom; // first block in the signed-vote format; every block when there is none
+
+        Ledger(List<ByteBuffer> segments, int[] blockSegment, int[] blockOffset, Map<String, Integer> candidateIndex,
+               PublicKey kioskKey) {
+            this.segments = segments;
+            this.blockSegment = blockSegment;
+            this.blockOffset = blockOffset;
+            this.candidateIndex = candidateIndex;
+            this.kioskKey = kioskKey;
+            int first = blockSegment.length;
+            for (int i = 0; i < blockSegment.length && first == blockSegment.length; i++) {
+                if (!legacy(i)) first = i;
+            }
+            this.signedFrom = first;
+        }
+
+        boolean legacy(int block) {
+            return segments.get(blockSegment[block]).getInt(blockOffset[block]) == LedgerBlockchainService.LEGACY_BLOCK_MAGIC;
+        }
+
+        // Records the public key of every well-formed registration in [from, to), so a vote in
+        // any block can be checked against the key its address registered. Damaged blocks
+        // and forged registrations are skipped here and reported by recount.
+        void registerKeys(int from, int to) {
+            for (int i = from; i < to; i++) {
+                ByteBuffer segment = segments.get(blockSegment[i]);
+                int offset = blockOffset[i];
+                byte[] payload = new byte[segment.getInt(offset + 4)];
+                segment.get(offset + 8, payload);
+                LedgerBlockchainService.Block block;
+                try {
+                    block = LedgerBlockchainService.Block.decode(payload);
+                } catch (IOException e) {
+                    continue;
+                }
+                for (LedgerBlockchainService.Transaction transaction : block.transactions) {
+                    if (transaction.type != LedgerBlockchainService.Transaction.REGISTER) continue;
+                    byte[] key = registeredKey(transaction);
+                    if (key != null) voterKeys.register(transaction.subject, transaction.target, key);
+                }
+            }
+        }
+
+        boolean validSignature(LedgerBlockchainService.Transaction vote, boolean beforeCutOver) {
+            String signature = vote.signature;
+            if (beforeCutOver && signature.length() == 64 && isHex(signature, 0, 64)) return true; // unsigned era
+            return VoteSignatures.verifyNow(voterKeys.publicKey(vote.subject), kioskKey, vote.subject, vote.target,
+                                            signature);
+        }
+
+        Tally recount(int from, int to) {
+            Tally tally = new Tally(candidateIndex.size());
+            long[] keys = new long[256];
+            int keyCount = 0;
+            CRC32 crc = new CRC32();
+            for (int i = from; i < to; i++) {
+                ByteBuffer segment = segments.get(blockSegment[i]);
+                int offset = blockOffset[i];
+                int length = segment.getInt(offset + 4);
+                byte[] payload = new byte[length];
+                segment.get(offset + 8, payload);
+                crc.reset();
+                crc.update(payload);
+                tally.bytes += length + 12L;
+                if (segment.getInt(offset + 8 + length) != (int) crc.getValue()) {
+                    tally.problem("CRC mismatch in block " + i);
+                    continue;
+                }
+                LedgerBlockchainService.Block block;
+                try {
+                    block = LedgerBlockchainService.Block.decode(payload); // recomputes tx hashes and the Merkle root
+                } catch (IOException e) {
+                    tally.problem("Block " + i + ": " + e.getMessage());
+                    continue;
+                }
+                if (block.number != i) tally.problem("Block " + i + " is numbered " + block.number);
+                boolean beforeCutOver = i < signedFrom;
+                if (!beforeCutOver && legacy(i)) tally.problem("Block " + i + " uses the pre-signature format after the cut-over");
+                byte[] expectedPrevious = i == 0 ? new byte[LedgerBlockchainService.HASH_BYTES] : tally.lastHash;
+                if (expectedPrevious != null && !Arrays.equals(block.previousHash, expectedPrevious)) {
+                    tally.problem("Broken hash link at block " + i);
+                }
+                if (tally.firstPreviousHash == null) {
+                    tally.firstPreviousHash = block.previousHash;
+                    tally.firstNumber = i;
+                }
+                tally.lastHash = block.hash;
+                tally.lastNumber = i;
+                tally.blocks++;
+
+                for (LedgerBlockchainService.Transaction transaction : block.transactions) {
+                    tally.transactions++;
+                    if (transaction.type == LedgerBlockchainService.Transaction.REGISTER) {
+                        tally.registrations++;
+                        boolean keyless = transaction.signature.isEmpty();
+                        if (keyless ? !LedgerBlockchainService.addressFor(transaction.subject).equals(transaction.target)
+                                    : registeredKey(transaction) == null) {
+                            tally.problem("Registration " + transaction.hashHex() + " has a forged address");
+                        }
+                    } else if (transaction.type == LedgerBlockchainService.Transaction.VOTE) {
+                        String address = transaction.subject;
+                        if (!isAddress(address) || !validSignature(transaction, beforeCutOver)) {
+                            tally.problem("Vote " + transaction.hashHex() + " has a malformed address or bad signature");
+                            continue;
+                        }
+                        if (keyCount == keys.length) keys = Arrays.copyOf(keys, keyCount * 2);
+                        keys[keyCount++] = voterKey(address);
+                        Integer candidate = candidateIndex.get(transaction.target);
+                        if (candidate != null) {
+                            tally.votes[candidate]++;
+                        } else {
+                            tally.otherVotes.merge(transaction.target, 1L, Long::sum);
+                        }
+                    } else {
+                        tally.problem("Unknown transaction type " + transaction.type + " in block " + i);
+                    }
+                }
+            }
+            tally.voterKeys.add(Arrays.copyOf(keys, keyCount));
+            return tally;
+        }
+    }
+
+    // Verifies and recounts every block under ledgerDir
+    static Report audit(Path ledgerDir, List<String> candidateNames, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        List<Path> paths = LedgerBlockchainService.segmentPaths(ledgerDir);
+        List<ByteBuffer> segments = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                segments.add(buffer); // the mapping outlives the channel
+            }
+        }
+
+        // Block headers, one task per segment
+        List<String> problems = new ArrayList<>();
+        List<Callable<int[]>> scans = new ArrayList<>();
+        for (int s = 0; s < segments.size(); s++) {
+            ByteBuffer segment = segments.get(s);
+            scans.add(() -> blockOffsets(segment));
+        }
+        List<int[]> offsets = new ArrayList<>();
+        for (Future<int[]> scan : pool.invokeAll(scans)) {
+            try {
+                offsets.add(scan.get());
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Scanning ledger segments failed", e);
+            }
+        }
+        int totalBlocks = 0;
+        for (int s = 0; s < segments.size(); s++) {
+            int[] segmentOffsets = offsets.get(s);
+            totalBlocks += segmentOffsets.length - 1;
+            int end = segmentOffsets[segmentOffsets.length - 1];
+            if (end != segments.get(s).limit()) {
+                // The live ledger truncates a torn tail on restart; anywhere else it is corruption
+                problems.add((s == segments.size() - 1 ? "Torn tail ignored" : "Corrupt record") +
+                             " at " + paths.get(s) + "@" + end);
+            }
+        }
+        int[] blockSegment = new int[totalBlocks];
+        int[] blockOffset = new int[totalBlocks];
+        int block = 0;
+        for (int s = 0; s < offsets.size(); s++) {
+            int[] segmentOffsets = offsets.get(s);
+            for (int i = 0; i < segmentOffsets.length - 1; i++) {
+                blockSegment[block] = s;
+                blockOffset[block++] = segmentOffsets[i];
+            }
+        }
+
+        Map<String, Integer> candidateIndex = new HashMap<>();
+        for (String name : candidateNames) candidateIndex.putIfAbsent(name, candidateIndex.size());
+        Ledger ledger = new Ledger(segments, blockSegment, blockOffset, candidateIndex,
+                                   VoteSignatures.configuredKioskKey());
+        List<Callable<Void>> registrations = new ArrayList<>();
+        int step = Math.max(LEAF_BLOCKS, totalBlocks / Math.max(1, pool.getParallelism()) + 1);
+        for (int from = 0; from < totalBlocks; from += step) {
+            int first = from;
+            int end = Math.min(totalBlocks, from + step);
+            registrations.add(() -> {
+                ledger.registerKeys(first, end);
+                return null;
+            });
+        }
+        for (Future<Void> registration : pool.invokeAll(registrations)) {
+            try {
+                registration.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Reading ledger registrations failed", e);
+            }
+        }
+        Tally tally = totalBlocks == 0 ? new Tally(candidateIndex.size()) : pool.invoke(new Recount(ledger, 0, totalBlocks));
+        problems.addAll(tally.problems);
+
+        // One vote per address: sort the 64-bit address keys and look for neighbours
+        int voteCount = 0;
+        for (long[] keys : tally.voterKeys) voteCount += keys.length;
+        long[] voters = new long[voteCount];
+        int position = 0;
+        for (long[] keys : tally.voterKeys) {
+            System.arraycopy(keys, 0, voters, position, keys.length);
+            position += keys.length;
+        }
+        Arrays.parallelSort(voters);
+        long duplicates = 0;
+        for (int i = 1; i < voters.length; i++) {
+            if (voters[i] == voters[i - 1]) duplicates++;
+        }
+
+        Map<String, Long> recount = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : candidateIndex.entrySet()) {
+            recount.put(entry.getKey(), tally.votes[entry.getValue()]);
+        }
+        recount.putAll(tally.otherVotes);
+        return new Report(recount, tally.blocks, voteCount, tally.registrations, duplicates, tally.bytes, problems,
+                          (System.nanoTime() - start) / 1e9);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java VoteAudit <jdbcUrl> <dbUser> <dbPassword> [ledgerDir]");
+            return;
+        }
+        Path ledgerDir = Paths.get(args.length > 3 ? args[3] : System.getProperty("evoting.ledger.dir", "ledger"));
+
+        ConnectionPool connectionPool = ConnectionPool.fromSystemProperties(args[0], args[1], args[2]);
+        Map<String, Integer> databaseResults = new LinkedHashMap<>();
+        Map<String, Integer> chainResults = new HashMap<>();
+        // Plain reads only: an audit must not touch the schema or the procedures kiosks run
+        try (Connection connection = connectionPool.getConnection()) {
+            boolean sharded = VoteRepository.hasTable(connection, "candidate_vote_shards");
+            for (VoteRepository.CandidateTally tally : VoteRepository.readTallies(connection, sharded)) {
+                databaseResults.put(tally.name, (int) tally.votes);
+            }
+            if (VoteRepository.hasTable(connection, "chain_vote_projection")) {
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery(
+                         "SELECT candidate_name, SUM(votes) AS votes FROM chain_vote_projection GROUP BY candidate_name")) {
+                    while (resultSet.next()) {
+                        chainResults.put(resultSet.getString("candidate_name"), resultSet.getInt("votes"));
+                    }
+                }
+            }
+        } finally {
+            connectionPool.close();
+        }
+
+        int parallelism = Integer.getInteger("evoting.audit.parallelism", Runtime.getRuntime().availableProcessors());
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        Report report;
+        try {
+            report = audit(ledgerDir, new ArrayList<>(databaseResults.keySet()), pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.printf("%-24s %12s %12s %12s%n", "Candidate", "Recount", "Database", "Chain");
+        boolean matches = true;
+        for (Map.Entry<String, Long> entry : report.recount.entrySet()) {
+            long database = databaseResults.getOrDefault(entry.getKey(), 0);
+            long chain = chainResults.getOrDefault(entry.getKey(), 0);
+            boolean mismatch = database != entry.getValue() || chain != entry.getValue();
+            matches &= !mismatch;
+            System.out.printf("%-24s %12d %12d %12d%s%n", entry.getKey(), entry.getValue(), database, chain,
+                              mismatch ? "  MISMATCH" : "");
+        }
+        for (String problem : report.problems) System.out.println("PROBLEM: " + problem);
+        System.out.printf("%d blocks, %d votes, %d registrations, %d duplicate voters in %.2fs " +
+                          "(%.0f votes/s, %.1f MB/s, parallelism %d)%n",
+            report.blocks, report.votes, report.registrations, report.duplicateVoters, report.seconds,
+            report.votes / Math.max(report.seconds, 1e-9), report.bytes / 1e6 / Math.max(report.seconds, 1e-9), parallelism);
+        System.out.println(report.verified() && matches ? "AUDIT PASSED" : "AUDIT FAILED");
+        if (!report.verified() || !matches) System.exit(1);
+    }
+
+    // Offsets of each well-formed record, followed by the end of the last one
+    private static int[] blockOffsets(ByteBuffer segment) {
+        int[] offsets = new int[64];
+        int count = 0;
+        int position = 0;
+        int limit = segment.limit();
+        while (position + 8 <= limit && (segment.getInt(position) == LedgerBlockchainService.BLOCK_MAGIC
+                || segment.getInt(position) == LedgerBlockchainService.LEGACY_BLOCK_MAGIC)) {
+            int length = segment.getInt(position + 4);
+            long end = position + 12L + length;
+            if (length < 0 || end > limit) break;
+            if (count + 1 >= offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[count++] = position;
+            position = (int) end;
+        }
+        offsets[count++] = position;
+        return Arrays.copyOf(offsets, count);
+    }
+
+    // All 160 address bits folded into 64; a false duplicate among 50M voters is ~1e-4 likely
+    private static long voterKey(String address) {
+        long key = Long.parseUnsignedLong(address.substring(2, 18), 16);
+        key = key * 0x9E3779B97F4A7C15L + Long.parseUnsignedLong(address.substring(18, 34), 16);
+        return key * 0x9E3779B97F4A7C15L + Long.parseLong(address.substring(34, 42), 16);
+    }
+
+    private static boolean isAddress(String address) {
+        return address.length() == 42 && address.startsWith("0x") && isHex(address, 2, 42);
+    }
+
+    // The raw key of a keyed registration whose address matches it, or null
+    private static byte[] registeredKey(LedgerBlockchainService.Transaction registration) {
+        try {
+            byte[] key = VoteSignatures.rawKey(registration.signature);
+            return VoteSignatures.addressFor(key).equals(registration.target) ? key : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isHex(String value, int from, int to) {
+        if (value.length() != to) return false;
+        for (int i = from; i < to; i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,167 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Group-commit stage in front of VoteRepository.
+// Sessions submit votes and get a future; a single writer thread collects them into
+// micro-batches (bounded by size or a few milliseconds), applies each batch in one
+// transaction and completes every caller's future once that transaction commits.
+// This amortizes one commit/fsync over the whole batch instead of paying it per vote.
+// A batch that fails on a bad row is retried vote by vote; one that fails because the
+// database is unreachable (VoteJournal.isUnreachable) fails every vote in it at once.
+class VoteBatcher implements VoteSink {
+
+    private static final class PendingVote {
+        final VoteRepository.CastRequest request;
+        final CompletableFuture<VoteRepository.VoteStatus> result = new CompletableFuture<>();
+
+        PendingVote(VoteRepository.CastRequest request) {
+            this.request = request;
+        }
+    }
+
+    private final VoteRepository voteRepository;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingVote> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Instrumentation
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder votes = new LongAdder();
+    private final LongAdder fallbackBatches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+
+    VoteBatcher(VoteRepository voteRepository) {
+        this(voteRepository,
+             Integer.getInteger("evoting.batch.maxSize", 256),
+             Long.getLong("evoting.batch.maxDelayMs", 2L));
+    }
+
+    VoteBatcher(VoteRepository voteRepository, int maxBatchSize, long maxDelayMs) {
+        this.voteRepository = voteRepository;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMs));
+        this.writer = new Thread(this::runWriter, "vote-batcher");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public CompletableFuture<VoteRepository.VoteStatus> submit(long voterId, int candidateId, String txHash) {
+        PendingVote pending = new PendingVote(new VoteRepository.CastRequest(voterId, candidateId, txHash));
+        if (!running) {
+            pending.result.completeExceptionally(new IllegalStateException("Vote batcher is shut down"));
+            return pending.result;
+        }
+        queue.add(pending);
+        return pending.result;
+    }
+
+    private void runWriter() {
+        List<PendingVote> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingVote first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // Fill the batch until it is full or the oldest vote has waited maxDelay
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    PendingVote next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingVote> batch) {
+        List<VoteRepository.CastRequest> requests = new ArrayList<>(batch.size());
+        for (PendingVote pending : batch) {
+            requests.add(pending.request);
+        }
+
+        try {
+            VoteRepository.VoteStatus[] statuses = voteRepository.applyBatch(requests);
+            batches.increment();
+            votes.add(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(statuses[i]);
+            }
+        } catch (SQLException batchFailure) {
+            if (VoteJournal.isUnreachable(batchFailure)) {
+                // No row is at fault; retrying vote by vote would only hit the database again per vote
+                failedBatches.increment();
+                fail(batch, 0, batchFailure);
+                return;
+            }
+            // The whole batch rolled back; retry vote by vote so one bad row cannot fail the rest
+            fallbackBatches.increment();
+            for (int i = 0; i < batch.size(); i++) {
+                PendingVote pending = batch.get(i);
+                try {
+                    VoteRepository.CastRequest request = pending.request;
+                    pending.result.complete(
+                        voteRepository.castVote(request.voterId, request.candidateId, request.txHash));
+                    votes.increment();
+                } catch (SQLException e) {
+                    if (VoteJournal.isUnreachable(e)) {
+                        fail(batch, i, e);
+                        return;
+                    }
+                    pending.result.completeExceptionally(e);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (PendingVote pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static void fail(List<PendingVote> batch, int from, Throwable cause) {
+        for (int i = from; i < batch.size(); i++) {
+            batch.get(i).result.completeExceptionally(cause);
+        }
+    }
+
+    String stats() {
+        long batchCount = batches.sum();
+        double avgBatch = batchCount == 0 ? 0 : (double) votes.sum() / batchCount;
+        return String.format("batcher votes=%d batches=%d avgBatch=%.1f fallbacks=%d failed=%d queued=%d",
+            votes.sum(), batchCount, avgBatch, fallbackBatches.sum(), failedBatches.sum(), queue.size());
+    }
+
+    // Stops accepting votes, flushes what is queued and waits for the writer to finish
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingVote pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new IllegalStateException("Vote batcher is shut down"));
+        }
+    }
+}
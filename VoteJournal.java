@@ -0,0 +1,548 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+// Append-only, memory-mapped write-ahead journal for votes.
+// A vote is acknowledged as JOURNALED as soon as its fixed-size record is forced to disk;
+// a background applier drains the journal into MySQL through VoteRepository.applyBatch
+// and records the last applied sequence number in a checkpoint file. On startup the
+// journal replays everything after the checkpoint, so a database stall never blocks a
+// voter and a crash never loses an acknowledged vote. MySQL's ruling on each record (or
+// its quarantine) goes to the onApplied listener, which is where the vote gets counted.
+//
+// Record layout (64 bytes, big-endian):
+//   0 magic | 4 voter id | 12 candidate id | 16 timestamp ms | 24 tx hash (32 bytes) | 56 reserved | 60 CRC32 of bytes 0-59
+//
+// Duplicate voters are rejected before a record is written while this process still holds
+// an unapplied record for them; once it is applied the database's has_voted claim guards
+// them, and a duplicate (or one journaled by another kiosk) is dropped by the applier and
+// logged. A vote for a candidate the catalog does not know is refused
+// before it is journaled; one removed within the catalog's check interval is dropped by
+// the applier like a duplicate.
+//
+// If a batch fails for any reason other than the database being unreachable, the applier
+// retries its records one at a time, so a single bad record (or a driver that reports no
+// per-row counts) cannot hold back the rest. A record that still fails after
+// evoting.journal.maxAttempts tries is copied to quarantine.log (same 64-byte layout) for
+// an operator to inspect, and the journal moves past it.
+class VoteJournal implements VoteSink {
+
+    static final int RECORD_SIZE = 64;
+    private static final int RECORD_MAGIC = 0x564F5445; // "VOTE"
+    private static final int TX_HASH_OFFSET = 24;
+    private static final int TX_HASH_BYTES = 32;
+    private static final int CRC_OFFSET = 60;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String QUARANTINE_FILE = "quarantine.log";
+
+    // One decoded journal record
+    static final class Record {
+        final long sequence;
+        final long voterId;
+        final int candidateId;
+        final long timestamp;
+        final String txHash;
+
+        Record(long sequence, long voterId, int candidateId, long timestamp, String txHash) {
+            this.sequence = sequence;
+            this.voterId = voterId;
+            this.candidateId = candidateId;
+            this.timestamp = timestamp;
+            this.txHash = txHash;
+        }
+    }
+
+    private final Path directory;
+    private final VoteRepository voteRepository;
+    private final CandidateCatalog candidateCatalog;
+    private final int recordsPerSegment;
+    private final int applyBatchSize;
+    private final long applyIdleNanos;
+    private final int maxAttempts;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Set<Long> journaledVoters = ConcurrentHashMap.newKeySet(); // voters with an unapplied record
+    private volatile VoteSink.AppliedListener appliedListener = (voterId, candidateId, status) -> { };
+    private final Object appendLock = new Object();
+    private final Object forceLock = new Object();
+    private Segment active;             // guarded by appendLock
+    private volatile long nextSequence; // next record to write
+    private volatile long forcedSequence; // records below this are on disk
+    private volatile long appliedSequence; // records below this are in MySQL
+    private volatile boolean running = true;
+    private Thread applier;
+    private long failingSequence = -1; // applier thread only: the record that last failed alone
+    private int failingAttempts;
+
+    // Instrumentation
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder fallbackBatches = new LongAdder();
+    private final LongAdder quarantined = new LongAdder();
+
+    private VoteJournal(Path directory, VoteRepository voteRepository, CandidateCatalog candidateCatalog,
+                        int recordsPerSegment, int applyBatchSize, long applyIdleMs, int maxAttempts) {
+        this.directory = directory;
+        this.voteRepository = voteRepository;
+        this.candidateCatalog = candidateCatalog;
+        this.recordsPerSegment = recordsPerSegment;
+        this.applyBatchSize = applyBatchSize;
+        this.applyIdleNanos = TimeUnit.MILLISECONDS.toNanos(applyIdleMs);
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    static VoteJournal open(Path directory, VoteRepository voteRepository,
+                            CandidateCatalog candidateCatalog) throws IOException {
+        VoteJournal journal = new VoteJournal(directory, voteRepository, candidateCatalog,
+            Integer.getInteger("evoting.journal.recordsPerSegment", 65536),
+            Integer.getInteger("evoting.journal.applyBatchSize", 512),
+            Long.getLong("evoting.journal.applyIdleMs", 5L),
+            Integer.getInteger("evoting.journal.maxAttempts", 3));
+        journal.recover();
+        journal.applier = new Thread(journal::runApplier, "vote-journal-applier");
+        journal.applier.setDaemon(true);
+        journal.applier.start();
+        return journal;
+    }
+
+    @Override
+    public CompletableFuture<VoteRepository.VoteStatus> submit(long voterId, int candidateId, String txHash) {
+        if (!running) {
+            CompletableFuture<VoteRepository.VoteStatus> closed = new CompletableFuture<>();
+            closed.completeExceptionally(new IllegalStateException("Vote journal is closed"));
+            return closed;
+        }
+        if (candidateCatalog.current().byId(candidateId) == null) {
+            candidateCatalog.invalidate(); // maybe just added; the voter can retry after the reload
+            return CompletableFuture.completedFuture(VoteRepository.VoteStatus.UNKNOWN_CANDIDATE);
+        }
+        if (!journaledVoters.add(voterId)) {
+            return CompletableFuture.completedFuture(VoteRepository.VoteStatus.ALREADY_VOTED);
+        }
+        try {
+            long sequence = append(voterId, candidateId, System.currentTimeMillis(), txHash);
+            force(sequence);
+            appended.increment();
+            return CompletableFuture.completedFuture(VoteRepository.VoteStatus.JOURNALED);
+        } catch (IOException | RuntimeException e) {
+            journaledVoters.remove(voterId);
+            CompletableFuture<VoteRepository.VoteStatus> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    @Override
+    public void onApplied(VoteSink.AppliedListener listener) {
+        appliedListener = listener;
+    }
+
+    private long append(long voterId, int candidateId, long timestamp, String txHash) throws IOException {
+        byte[] record = encode(voterId, candidateId, timestamp, txHash);
+        synchronized (appendLock) {
+            if (nextSequence >= active.base + active.capacity) {
+                active = Segment.open(segmentPath(nextSequence), nextSequence, recordsPerSegment);
+                segments.put(active.base, active);
+            }
+            long sequence = nextSequence;
+            active.write(sequence, record);
+            nextSequence = sequence + 1;
+            return sequence;
+        }
+    }
+
+    // Group force: whoever gets the lock flushes every record written so far,
+    // so concurrent voters usually find their record already forced.
+    private void force(long sequence) {
+        if (forcedSequence > sequence) return;
+        synchronized (forceLock) {
+            if (forcedSequence > sequence) return;
+            long target = nextSequence; // every record below this has been fully written
+            Map.Entry<Long, Segment> first = segments.floorEntry(forcedSequence);
+            long fromKey = first == null ? forcedSequence : first.getKey();
+            for (Segment segment : segments.subMap(fromKey, true, target, false).values()) {
+                segment.force();
+            }
+            forcedSequence = target;
+            forces.increment();
+        }
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        long checkpoint = readCheckpoint();
+        appliedSequence = checkpoint;
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) files.add(path);
+        }
+        files.sort(null); // zero-padded base sequence keeps lexical order == numeric order
+
+        long end = checkpoint;
+        boolean truncatedTail = false;
+        for (Path path : files) {
+            long base = parseBase(path);
+            if (truncatedTail) {
+                Files.delete(path); // written after a torn record; never acknowledged
+                continue;
+            }
+            Segment segment = Segment.open(path, base, recordsPerSegment);
+            if (base + segment.capacity <= checkpoint) {
+                segment.close();
+                Files.delete(path); // fully applied; truncation did not finish before the crash
+                continue;
+            }
+            segments.put(base, segment);
+            int valid = segment.countValidRecords();
+            end = base + valid;
+            truncatedTail = valid < segment.capacity;
+        }
+
+        nextSequence = Math.max(end, checkpoint);
+        forcedSequence = nextSequence;
+        Map.Entry<Long, Segment> last = segments.lastEntry();
+        if (last != null && nextSequence < last.getKey() + last.getValue().capacity) {
+            active = last.getValue();
+        } else {
+            active = Segment.open(segmentPath(nextSequence), nextSequence, recordsPerSegment);
+            segments.put(active.base, active);
+        }
+
+        List<Record> pending = read(checkpoint, nextSequence);
+        for (Record record : pending) {
+            journaledVoters.add(record.voterId);
+        }
+        if (!pending.isEmpty()) {
+            System.out.println("Vote journal: replaying " + pending.size() + " votes after checkpoint " + checkpoint);
+        }
+    }
+
+    private void runApplier() {
+        long backoffNanos = applyIdleNanos;
+        while (running || appliedSequence < forcedSequence) {
+            long from = appliedSequence;
+            long to = Math.min(forcedSequence, from + applyBatchSize);
+            if (from >= to) {
+                LockSupport.parkNanos(applyIdleNanos);
+                continue;
+            }
+            try {
+                applyRange(from, to);
+                backoffNanos = applyIdleNanos;
+            } catch (SQLException | IOException e) {
+                // Database is down or stalled, or a record failed alone: voters are unaffected,
+                // keep the records and retry
+                System.out.println("Vote journal apply failed, retrying: " + e.getMessage());
+                backoffNanos = Math.min(backoffNanos * 2 + TimeUnit.MILLISECONDS.toNanos(50), TimeUnit.SECONDS.toNanos(5));
+                LockSupport.parkNanos(backoffNanos);
+                if (!running) break;
+            }
+        }
+    }
+
+    private void applyRange(long from, long to) throws SQLException, IOException {
+        List<Record> records = read(from, to);
+        List<VoteRepository.CastRequest> requests = new ArrayList<>(records.size());
+        for (Record record : records) {
+            requests.add(new VoteRepository.CastRequest(record.voterId, record.candidateId, record.txHash));
+        }
+        VoteRepository.VoteStatus[] statuses;
+        try {
+            statuses = voteRepository.applyBatch(requests);
+        } catch (SQLException batchFailure) {
+            if (isUnreachable(batchFailure)) throw batchFailure;
+            fallbackBatches.increment();
+            applyOneByOne(records);
+            return;
+        }
+        for (int i = 0; i < statuses.length; i++) {
+            count(records.get(i), statuses[i]);
+        }
+        advance(to);
+    }
+
+    // Applies records singly after their batch failed. Records applied before a failure
+    // are checkpointed before the failure is rethrown, so a retry starts at the failing
+    // record; once that record has failed maxAttempts times it is quarantined instead.
+    private void applyOneByOne(List<Record> records) throws SQLException, IOException {
+        long done = appliedSequence;
+        for (Record record : records) {
+            try {
+                count(record, voteRepository.castVote(record.voterId, record.candidateId, record.txHash));
+            } catch (SQLException e) {
+                if (record.sequence != failingSequence) {
+                    failingSequence = record.sequence;
+                    failingAttempts = 0;
+                }
+                if (isUnreachable(e) || ++failingAttempts < maxAttempts) {
+                    if (done > appliedSequence) advance(done);
+                    throw e;
+                }
+                quarantine(record, e);
+                settle(record, null);
+            }
+            done = record.sequence + 1;
+        }
+        advance(done);
+    }
+
+    private void count(Record record, VoteRepository.VoteStatus status) {
+        if (status == VoteRepository.VoteStatus.CAST) {
+            applied.increment();
+        } else {
+            dropped.increment();
+            System.out.println("Vote journal: dropped record " + record.sequence +
+                               " for voter " + record.voterId + " (" + status + ")");
+        }
+        settle(record, status);
+    }
+
+    // The record is out of the journal's hands: the database (or quarantine) now speaks for its voter
+    private void settle(Record record, VoteRepository.VoteStatus status) {
+        journaledVoters.remove(record.voterId);
+        try {
+            appliedListener.applied(record.voterId, record.candidateId, status);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void advance(long to) throws IOException {
+        writeCheckpoint(to);
+        appliedSequence = to;
+        truncateApplied();
+    }
+
+    // Keeps the raw record for an operator; the journal then moves past it
+    private void quarantine(Record record, SQLException cause) throws IOException {
+        Segment segment = segments.floorEntry(record.sequence).getValue();
+        ByteBuffer raw = segment.slice(record.sequence);
+        try (FileChannel channel = FileChannel.open(directory.resolve(QUARANTINE_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (raw.hasRemaining()) channel.write(raw);
+            channel.force(true);
+        }
+        quarantined.increment();
+        System.out.println("Vote journal: quarantined record " + record.sequence + " for voter " + record.voterId +
+                           " after " + failingAttempts + " failed attempts: " + cause.getMessage());
+    }
+
+    // The database (or the pool in front of it) is unavailable, as opposed to rejecting
+    // this particular work; such failures are retried and never quarantine a record
+    static boolean isUnreachable(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientException || e instanceof SQLRecoverableException
+            || e instanceof SQLNonTransientConnectionException || (state != null && state.startsWith("08"));
+    }
+
+    // Removes segments whose every record is at or below the checkpoint
+    private void truncateApplied() throws IOException {
+        for (Map.Entry<Long, Segment> entry : segments.headMap(appliedSequence, false).entrySet()) {
+            Segment segment = entry.getValue();
+            if (segment.base + segment.capacity > appliedSequence) continue;
+            synchronized (appendLock) {
+                if (segment == active) continue;
+            }
+            segments.remove(entry.getKey());
+            segment.close();
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    // Records in [from, to); every record there must already be written
+    List<Record> read(long from, long to) {
+        List<Record> records = new ArrayList<>((int) Math.max(0, to - from));
+        for (long sequence = from; sequence < to; sequence++) {
+            Segment segment = segments.floorEntry(sequence).getValue();
+            records.add(segment.read(sequence));
+        }
+        return records;
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) return 0L;
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        long sequence = buffer.getLong();
+        long checksum = buffer.getLong();
+        if (checksum != crc(buffer.array(), 0, 8)) {
+            throw new IOException("Corrupt vote journal checkpoint " + path);
+        }
+        return sequence;
+    }
+
+    private void writeCheckpoint(long sequence) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(sequence);
+        buffer.putLong(crc(buffer.array(), 0, 8));
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.flip();
+            channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(long base) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, base, SEGMENT_SUFFIX));
+    }
+
+    private static long parseBase(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    String stats() {
+        return String.format("journal appended=%d forces=%d applied=%d dropped=%d fallbackBatches=%d quarantined=%d backlog=%d segments=%d",
+            appended.sum(), forces.sum(), applied.sum(), dropped.sum(), fallbackBatches.sum(), quarantined.sum(),
+            forcedSequence - appliedSequence, segments.size());
+    }
+
+    // Stops accepting votes and gives the applier a bounded window to drain into MySQL.
+    // Anything left over is replayed on the next start.
+    @Override
+    public void close() {
+        running = false;
+        if (applier != null) {
+            try {
+                applier.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static byte[] encode(long voterId, int candidateId, long timestamp, String txHash) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.putInt(RECORD_MAGIC);
+        buffer.putLong(voterId);
+        buffer.putInt(candidateId);
+        buffer.putLong(timestamp);
+        buffer.put(txHashToBytes(txHash));
+        buffer.putInt(0); // reserved
+        buffer.putInt((int) crc(buffer.array(), 0, CRC_OFFSET));
+        return buffer.array();
+    }
+
+    private static long crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return crc.getValue();
+    }
+
+    private static byte[] txHashToBytes(String txHash) {
+        byte[] bytes = new byte[TX_HASH_BYTES];
+        if (txHash == null) return bytes;
+        String hex = txHash.startsWith("0x") ? txHash.substring(2) : txHash;
+        for (int i = 0; i < TX_HASH_BYTES && 2 * i + 1 < hex.length(); i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String bytesToTxHash(ByteBuffer record, int offset) {
+        boolean empty = true;
+        StringBuilder sb = new StringBuilder("0x");
+        for (int i = 0; i < TX_HASH_BYTES; i++) {
+            int b = record.get(offset + i) & 0xff;
+            if (b != 0) empty = false;
+            sb.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return empty ? null : sb.toString();
+    }
+
+    // One preallocated, memory-mapped segment file holding `capacity` records
+    private static final class Segment {
+        final Path path;
+        final long base;
+        final int capacity;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(Path path, long base, int capacity, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.base = base;
+            this.capacity = capacity;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, long base, int capacityIfNew) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            int capacity = size == 0 ? capacityIfNew : (int) (size / RECORD_SIZE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+            return new Segment(path, base, capacity, channel, buffer);
+        }
+
+        void write(long sequence, byte[] record) {
+            ByteBuffer target = buffer.duplicate();
+            target.position((int) (sequence - base) * RECORD_SIZE);
+            target.put(record);
+        }
+
+        Record read(long sequence) {
+            ByteBuffer record = slice(sequence);
+            return new Record(sequence, record.getLong(4), record.getInt(12), record.getLong(16),
+                              bytesToTxHash(record, TX_HASH_OFFSET));
+        }
+
+        // Consecutive valid records from the start; stops at the first torn or empty slot
+        int countValidRecords() {
+            byte[] bytes = new byte[RECORD_SIZE];
+            for (int i = 0; i < capacity; i++) {
+                ByteBuffer record = slice(base + i);
+                record.get(bytes);
+                ByteBuffer view = ByteBuffer.wrap(bytes);
+                if (view.getInt(0) != RECORD_MAGIC) return i;
+                if ((int) crc(bytes, 0, CRC_OFFSET) != view.getInt(CRC_OFFSET)) return i;
+            }
+            return capacity;
+        }
+
+        private ByteBuffer slice(long sequence) {
+            ByteBuffer view = buffer.duplicate();
+            int position = (int) (sequence - base) * RECORD_SIZE;
+            view.position(position);
+            view.limit(position + RECORD_SIZE);
+            return view.slice();
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
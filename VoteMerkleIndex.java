@@ -0,0 +1,408 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Merkle trees over individual vote records, one for the database and one for the chain,
+// kept in MySQL so reconciliation never rescans the votes.
+//
+// A vote record is (voter address, candidate name); its id is SHA-256 of the two. Both
+// trees have the same shape:
+//   root -> candidate -> time bucket (evoting.merkle.bucketMinutes) -> id nibble -> id byte (leaf)
+// and a leaf lists its record ids in merkle_records. Node digests combine children with
+// XOR (plus a record count), so a new vote updates its five nodes in place instead of
+// rehashing siblings. The database tree is fed from vote_outbox rows (outbox mode) by a
+// background tailer here; the chain tree is fed by ChainIndexer in the same transaction
+// that advances its block cursor.
+//
+// reconcile() compares the roots and descends only into children whose digests differ,
+// so finding d divergent votes among n costs O(d log n) node reads. A vote whose two
+// timestamps straddle a bucket boundary shows up on both sides of the walk and is
+// cancelled out, so only genuinely missing or extra votes are reported.
+class VoteMerkleIndex implements AutoCloseable {
+
+    static final int DATABASE = 0;
+    static final int CHAIN = 1;
+
+    private static final int ROOT_LEVEL = 0;
+    private static final int LEAF_LEVEL = 4;
+    private static final long ROOT_ID = nodeId("root");
+
+    private static final String NODE_UPSERT_SQL =
+        "INSERT INTO merkle_nodes (side, node_id, parent_id, level, candidate_name, bucket, prefix, digest, records) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE digest = digest ^ VALUES(digest), records = records + VALUES(records)";
+    private static final String RECORD_INSERT_SQL =
+        "INSERT INTO merkle_records (side, leaf_id, record_id, voter_address, candidate_name, voted_at) " +
+        "VALUES (?, ?, ?, ?, ?, ?)";
+
+    // One vote as seen by either side
+    static final class VoteRecord {
+        final String voterAddress;
+        final String candidateName;
+        final long timestamp;
+        final byte[] id;
+
+        VoteRecord(String voterAddress, String candidateName, long timestamp) {
+            this.voterAddress = voterAddress;
+            this.candidateName = candidateName;
+            this.timestamp = timestamp;
+            this.id = LedgerBlockchainService.sha256(
+                (voterAddress.toLowerCase() + "|" + candidateName).getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 63-bit digest so XORed values always fit a signed BIGINT
+        long digest() {
+            return ByteBuffer.wrap(id).getLong() & Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return voterAddress + " -> " + candidateName + " @ " + new Timestamp(timestamp);
+        }
+    }
+
+    static final class Reconciliation {
+        final List<VoteRecord> missingOnChain;   // in the database, not on the chain
+        final List<VoteRecord> extraOnChain;     // on the chain, not in the database
+        final int nodesVisited;
+
+        Reconciliation(List<VoteRecord> missingOnChain, List<VoteRecord> extraOnChain, int nodesVisited) {
+            this.missingOnChain = missingOnChain;
+            this.extraOnChain = extraOnChain;
+            this.nodesVisited = nodesVisited;
+        }
+
+        boolean inSync() {
+            return missingOnChain.isEmpty() && extraOnChain.isEmpty();
+        }
+    }
+
+    // Pending change to one tree node
+    private static final class NodeDelta {
+        final long parentId;
+        final int level;
+        final String candidateName;
+        final Long bucket;
+        final Integer prefix;
+        long digest;
+        long records;
+
+        NodeDelta(long parentId, int level, String candidateName, Long bucket, Integer prefix) {
+            this.parentId = parentId;
+            this.level = level;
+            this.candidateName = candidateName;
+            this.bucket = bucket;
+            this.prefix = prefix;
+        }
+    }
+
+    private final ConnectionPool connectionPool;
+    private final long bucketMillis;
+    private final int batchSize;
+    private final long pollNanos;
+    private final Thread tailer;
+    private volatile boolean running = true;
+
+    // Instrumentation
+    private final LongAdder databaseRecords = new LongAdder();
+    private final LongAdder chainRecords = new LongAdder();
+
+    VoteMerkleIndex(ConnectionPool connectionPool) throws SQLException {
+        this.connectionPool = connectionPool;
+        this.bucketMillis = TimeUnit.MINUTES.toMillis(Math.max(1, Long.getLong("evoting.merkle.bucketMinutes", 60L)));
+        this.batchSize = Math.max(1, Integer.getInteger("evoting.merkle.batchSize", 1000));
+        this.pollNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("evoting.merkle.pollMs", 1000L)));
+        try (Connection connection = connectionPool.getConnection()) {
+            installSchema(connection);
+        }
+        this.tailer = new Thread(this::run, "merkle-db-indexer");
+        this.tailer.setDaemon(true);
+        this.tailer.start();
+    }
+
+    static void installSchema(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS merkle_nodes (" +
+                               "side TINYINT NOT NULL, " +
+                               "node_id BIGINT NOT NULL, " +
+                               "parent_id BIGINT NOT NULL, " +
+                               "level TINYINT NOT NULL, " +
+                               "candidate_name VARCHAR(255) NULL, " +
+                               "bucket BIGINT NULL, " +
+                               "prefix SMALLINT NULL, " +
+                               "digest BIGINT NOT NULL DEFAULT 0, " +
+                               "records BIGINT NOT NULL DEFAULT 0, " +
+                               "PRIMARY KEY (side, node_id), " +
+                               "KEY idx_merkle_nodes_parent (side, parent_id)" +
+                               ")");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS merkle_records (" +
+                               "side TINYINT NOT NULL, " +
+                               "leaf_id BIGINT NOT NULL, " +
+                               "record_id BINARY(32) NOT NULL, " +
+                               "voter_address VARCHAR(42) NOT NULL, " +
+                               "candidate_name VARCHAR(255) NOT NULL, " +
+                               "voted_at TIMESTAMP(3) NOT NULL, " +
+                               "PRIMARY KEY (side, leaf_id, record_id)" +
+                               ")");
+            if (!VoteRepository.hasColumn(connection, "vote_outbox", "merkle_indexed")) {
+                stmt.executeUpdate("ALTER TABLE vote_outbox ADD COLUMN merkle_indexed BOOLEAN NOT NULL DEFAULT FALSE, " +
+                                   "ADD KEY idx_vote_outbox_merkle (merkle_indexed, id)");
+            }
+        }
+    }
+
+    // Adds records to one side's tree inside the caller's transaction
+    void apply(Connection connection, int side, List<VoteRecord> records) throws SQLException {
+        if (records.isEmpty()) return;
+        Map<Long, NodeDelta> deltas = new LinkedHashMap<>();
+        try (PreparedStatement recordStmt = connection.prepareStatement(RECORD_INSERT_SQL)) {
+            for (VoteRecord record : records) {
+                long bucket = record.timestamp / bucketMillis;
+                int leafPrefix = record.id[0] & 0xFF;
+                String candidatePath = "c|" + record.candidateName;
+                String bucketPath = candidatePath + "|t|" + bucket;
+                String nibblePath = bucketPath + "|n|" + (leafPrefix >>> 4);
+                String leafPath = bucketPath + "|l|" + leafPrefix;
+
+                long candidateId = nodeId(candidatePath);
+                long bucketId = nodeId(bucketPath);
+                long nibbleId = nodeId(nibblePath);
+                long leafId = nodeId(leafPath);
+                long digest = record.digest();
+                touch(deltas, ROOT_ID, 0L, ROOT_LEVEL, null, null, null, digest);
+                touch(deltas, candidateId, ROOT_ID, 1, record.candidateName, null, null, digest);
+                touch(deltas, bucketId, candidateId, 2, record.candidateName, bucket, null, digest);
+                touch(deltas, nibbleId, bucketId, 3, record.candidateName, bucket, leafPrefix >>> 4, digest);
+                touch(deltas, leafId, nibbleId, LEAF_LEVEL, record.candidateName, bucket, leafPrefix, digest);
+
+                recordStmt.setInt(1, side);
+                recordStmt.setLong(2, leafId);
+                recordStmt.setBytes(3, record.id);
+                recordStmt.setString(4, record.voterAddress);
+                recordStmt.setString(5, record.candidateName);
+                recordStmt.setTimestamp(6, new Timestamp(record.timestamp));
+                recordStmt.addBatch();
+            }
+            recordStmt.executeBatch();
+        }
+
+        try (PreparedStatement nodeStmt = connection.prepareStatement(NODE_UPSERT_SQL)) {
+            for (Map.Entry<Long, NodeDelta> entry : deltas.entrySet()) {
+                NodeDelta delta = entry.getValue();
+                nodeStmt.setInt(1, side);
+                nodeStmt.setLong(2, entry.getKey());
+                nodeStmt.setLong(3, delta.parentId);
+                nodeStmt.setInt(4, delta.level);
+                nodeStmt.setString(5, delta.candidateName);
+                nodeStmt.setObject(6, delta.bucket, Types.BIGINT);
+                nodeStmt.setObject(7, delta.prefix, Types.SMALLINT);
+                nodeStmt.setLong(8, delta.digest);
+                nodeStmt.setLong(9, delta.records);
+                nodeStmt.addBatch();
+            }
+            nodeStmt.executeBatch();
+        }
+        (side == CHAIN ? chainRecords : databaseRecords).add(records.size());
+    }
+
+    // Drops one side's tree, e.g. when the chain projection is rebuilt
+    static void clear(Connection connection, int side) throws SQLException {
+        try (PreparedStatement nodes = connection.prepareStatement("DELETE FROM merkle_nodes WHERE side = ?");
+             PreparedStatement records = connection.prepareStatement("DELETE FROM merkle_records WHERE side = ?")) {
+            nodes.setInt(1, side);
+            nodes.executeUpdate();
+            records.setInt(1, side);
+            records.executeUpdate();
+        }
+    }
+
+    // Walks both trees from the root, descending only where digests differ
+    Reconciliation reconcile() throws SQLException {
+        Map<String, VoteRecord> missing = new LinkedHashMap<>();
+        Map<String, VoteRecord> extra = new LinkedHashMap<>();
+        int visited = 0;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement rootStmt = connection.prepareStatement(
+                 "SELECT side, digest, records FROM merkle_nodes WHERE node_id = ?");
+             PreparedStatement childStmt = connection.prepareStatement(
+                 "SELECT node_id, digest, records FROM merkle_nodes WHERE side = ? AND parent_id = ?");
+             PreparedStatement leafStmt = connection.prepareStatement(
+                 "SELECT record_id, voter_address, candidate_name, voted_at FROM merkle_records WHERE side = ? AND leaf_id = ?")) {
+            long[][] roots = new long[2][2];
+            rootStmt.setLong(1, ROOT_ID);
+            try (ResultSet resultSet = rootStmt.executeQuery()) {
+                while (resultSet.next()) {
+                    roots[resultSet.getInt("side")] = new long[] {resultSet.getLong("digest"), resultSet.getLong("records")};
+                }
+            }
+            visited++;
+            if (Arrays.equals(roots[DATABASE], roots[CHAIN])) {
+                return new Reconciliation(new ArrayList<>(), new ArrayList<>(), visited);
+            }
+
+            Deque<long[]> pending = new ArrayDeque<>(); // {node id, level}
+            pending.add(new long[] {ROOT_ID, ROOT_LEVEL});
+            while (!pending.isEmpty()) {
+                long[] node = pending.poll();
+                if (node[1] == LEAF_LEVEL) {
+                    Map<String, VoteRecord> databaseLeaf = leafRecords(leafStmt, DATABASE, node[0]);
+                    Map<String, VoteRecord> chainLeaf = leafRecords(leafStmt, CHAIN, node[0]);
+                    for (Map.Entry<String, VoteRecord> entry : databaseLeaf.entrySet()) {
+                        if (!chainLeaf.containsKey(entry.getKey())) missing.put(entry.getKey(), entry.getValue());
+                    }
+                    for (Map.Entry<String, VoteRecord> entry : chainLeaf.entrySet()) {
+                        if (!databaseLeaf.containsKey(entry.getKey())) extra.put(entry.getKey(), entry.getValue());
+                    }
+                    continue;
+                }
+                Map<Long, long[]> databaseChildren = children(childStmt, DATABASE, node[0]);
+                Map<Long, long[]> chainChildren = children(childStmt, CHAIN, node[0]);
+                Set<Long> ids = new HashSet<>(databaseChildren.keySet());
+                ids.addAll(chainChildren.keySet());
+                for (Long id : ids) {
+                    visited++;
+                    if (!Arrays.equals(databaseChildren.get(id), chainChildren.get(id))) {
+                        pending.add(new long[] {id, node[1] + 1});
+                    }
+                }
+            }
+        }
+
+        // Same vote, different bucket on each side: not a divergence
+        Set<String> straddling = new HashSet<>(missing.keySet());
+        straddling.retainAll(extra.keySet());
+        missing.keySet().removeAll(straddling);
+        extra.keySet().removeAll(straddling);
+        return new Reconciliation(new ArrayList<>(missing.values()), new ArrayList<>(extra.values()), visited);
+    }
+
+    String stats() {
+        return String.format("merkle databaseRecords=%d chainRecords=%d", databaseRecords.sum(), chainRecords.sum());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(tailer);
+        try {
+            tailer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Feeds committed outbox rows into the database tree
+    private void run() {
+        while (running) {
+            int indexed = 0;
+            try {
+                indexed = indexOutbox();
+            } catch (SQLException e) {
+                System.out.println("Merkle indexing failed: " + e.getMessage());
+            }
+            if (indexed < batchSize && running) {
+                LockSupport.parkNanos(this, pollNanos);
+            }
+        }
+    }
+
+    // FOR UPDATE OF o locks only the claimed outbox rows, not the users and candidates they
+    // join (which logins and registrations write), and SKIP LOCKED lets a second kiosk take
+    // the next unclaimed rows instead of waiting behind this batch
+    private int indexOutbox() throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                List<Long> ids = new ArrayList<>();
+                List<VoteRecord> records = new ArrayList<>();
+                try (PreparedStatement selectStmt = connection.prepareStatement(
+                         "SELECT o.id, o.user_id, o.created_at, u.username, u.blockchain_address, c.candidate_name " +
+                         "FROM vote_outbox o JOIN users u ON u.id = o.user_id JOIN candidates c ON c.id = o.candidate_id " +
+                         "WHERE o.merkle_indexed = FALSE ORDER BY o.id LIMIT ? FOR UPDATE OF o SKIP LOCKED")) {
+                    selectStmt.setInt(1, batchSize);
+                    try (ResultSet resultSet = selectStmt.executeQuery()) {
+                        while (resultSet.next()) {
+                            ids.add(resultSet.getLong("id"));
+                            String address = resultSet.getString("blockchain_address");
+                            if (address == null) {
+                                address = OutboxDispatcher.derivedAddress(resultSet.getString("username"), resultSet.getLong("user_id"));
+                            }
+                            records.add(new VoteRecord(address, resultSet.getString("candidate_name"),
+                                                       resultSet.getTimestamp("created_at").getTime()));
+                        }
+                    }
+                }
+                if (ids.isEmpty()) {
+                    connection.commit();
+                    return 0;
+                }
+
+                apply(connection, DATABASE, records);
+                try (PreparedStatement flagStmt = connection.prepareStatement(
+                         "UPDATE vote_outbox SET merkle_indexed = TRUE WHERE id = ?")) {
+                    for (Long id : ids) {
+                        flagStmt.setLong(1, id);
+                        flagStmt.addBatch();
+                    }
+                    flagStmt.executeBatch();
+                }
+                connection.commit();
+                return ids.size();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static void touch(Map<Long, NodeDelta> deltas, long nodeId, long parentId, int level,
+                              String candidateName, Long bucket, Integer prefix, long digest) {
+        NodeDelta delta = deltas.computeIfAbsent(nodeId, id -> new NodeDelta(parentId, level, candidateName, bucket, prefix));
+        delta.digest ^= digest;
+        delta.records++;
+    }
+
+    private static Map<Long, long[]> children(PreparedStatement childStmt, int side, long parentId) throws SQLException {
+        Map<Long, long[]> children = new HashMap<>();
+        childStmt.setInt(1, side);
+        childStmt.setLong(2, parentId);
+        try (ResultSet resultSet = childStmt.executeQuery()) {
+            while (resultSet.next()) {
+                children.put(resultSet.getLong("node_id"), new long[] {resultSet.getLong("digest"), resultSet.getLong("records")});
+            }
+        }
+        return children;
+    }
+
+    private static Map<String, VoteRecord> leafRecords(PreparedStatement leafStmt, int side, long leafId) throws SQLException {
+        Map<String, VoteRecord> records = new HashMap<>();
+        leafStmt.setInt(1, side);
+        leafStmt.setLong(2, leafId);
+        try (ResultSet resultSet = leafStmt.executeQuery()) {
+            while (resultSet.next()) {
+                VoteRecord record = new VoteRecord(resultSet.getString("voter_address"), resultSet.getString("candidate_name"),
+                                                   resultSet.getTimestamp("voted_at").getTime());
+                records.put(LedgerBlockchainService.toHex(resultSet.getBytes("record_id")), record);
+            }
+        }
+        return records;
+    }
+
+    // Stable 64-bit id for a tree path, identical on both sides and across processes
+    private static long nodeId(String path) {
+        return ByteBuffer.wrap(LedgerBlockchainService.sha256(path.getBytes(StandardCharsets.UTF_8))).getLong();
+    }
+}
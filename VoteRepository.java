@@ -0,0 +1,564 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Vote persistence shared by both voting frames.
+// A vote is one call to a cast_vote stored procedure: it claims the voter with a
+// conditional UPDATE (has_voted = FALSE) and applies the tally in the same server-side
+// transaction, so the cast costs a single round trip and two kiosks cannot both win.
+//
+// Tallies can be sharded (-Devoting.tally.shards=N, N > 1): each candidate then has N
+// counter rows in candidate_vote_shards and a vote bumps one randomly chosen slot, so
+// concurrent votes for a popular candidate stop queueing on a single InnoDB row lock.
+// Reads always return candidates.votes + SUM(shards), which stays correct whichever
+// mode wrote the counts.
+//
+// In outbox mode (enableOutbox) every successful vote also inserts its vote_outbox row in
+// the same transaction, for OutboxDispatcher to publish to the blockchain.
+//
+// Kiosks sharing a database may run in different modes, so each mode has a procedure of
+// its own whose name carries the mode and the body's version (procedureName). A kiosk only
+// creates its procedure when it is missing and never drops one, so starting a kiosk can
+// neither change another kiosk's write path nor fail its calls mid-restart.
+//
+// Ranked-choice ballots (castRankedBallot) claim the voter the same way but leave the
+// single-choice tallies alone: the ranking goes into ranked_ballots as packed
+// preferences, two bytes per candidate id, for RankedChoiceTally to count.
+class VoteRepository {
+
+    enum VoteStatus {
+        CAST,
+        ALREADY_VOTED,
+        UNKNOWN_CANDIDATE,
+        JOURNALED; // durable in the vote journal; MySQL has not ruled on it yet
+
+        // Taken by the sink: counted (CAST) or provisionally held (JOURNALED)
+        boolean accepted() {
+            return this == CAST || this == JOURNALED;
+        }
+    }
+
+    // Status codes returned through the procedure's OUT parameter
+    private static final int STATUS_CAST = 0;
+    private static final int STATUS_ALREADY_VOTED = 1;
+    private static final int STATUS_UNKNOWN_CANDIDATE = 2;
+
+    private static final int ER_SP_ALREADY_EXISTS = 1304;
+
+    private static final String SHARD_TALLY_SQL =
+        "INSERT INTO candidate_vote_shards (candidate_id, shard, votes) " +
+        "SELECT id, ?, 1 FROM candidates WHERE id = ? " +
+        "ON DUPLICATE KEY UPDATE votes = votes + 1";
+    private static final String LEGACY_TALLY_SQL =
+        "UPDATE candidates SET votes = votes + 1 WHERE id = ?";
+    private static final String SHARD_BATCH_TALLY_SQL =
+        "INSERT INTO candidate_vote_shards (candidate_id, shard, votes) " +
+        "SELECT id, ?, ? FROM candidates WHERE id = ? " +
+        "ON DUPLICATE KEY UPDATE votes = votes + VALUES(votes)";
+    private static final String LEGACY_BATCH_TALLY_SQL =
+        "UPDATE candidates SET votes = votes + ? WHERE id = ?";
+
+    static final int MAX_RANKINGS = 255;
+
+    // Bump whenever the generated procedure body changes; the old procedures stay for
+    // kiosks still running the previous build
+    private static final int PROCEDURE_VERSION = 2;
+
+    private final ConnectionPool connectionPool;
+    private final int tallyShards;
+    private volatile boolean procedureAvailable = false;
+    private boolean recordsTxHash = false;
+    private boolean shardTableExists = false;
+    private boolean outbox = false;
+
+    VoteRepository(ConnectionPool connectionPool) {
+        this(connectionPool, Integer.getInteger("evoting.tally.shards", 1));
+    }
+
+    VoteRepository(ConnectionPool connectionPool, int tallyShards) {
+        this.connectionPool = connectionPool;
+        this.tallyShards = Math.max(1, tallyShards);
+    }
+
+    boolean isSharded() {
+        return tallyShards > 1;
+    }
+
+    // Must be called before installSchema
+    void enableOutbox() {
+        outbox = true;
+    }
+
+    // Creates the shard table (sharded mode) and this mode's cast_vote procedure if it is
+    // missing. The tx hash is only written when the users table has the blockchain column,
+    // so the plain EVotingSystem schema works with the same code.
+    void installSchema() {
+        try (Connection connection = connectionPool.getConnection()) {
+            recordsTxHash = hasColumn(connection, "users", "blockchain_tx_hash");
+            if (isSharded()) {
+                migrateToShards(connection);
+            }
+            shardTableExists = hasTable(connection, "candidate_vote_shards");
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS ranked_ballots (" +
+                                   "user_id BIGINT PRIMARY KEY, " +
+                                   "preferences VARBINARY(" + 2 * MAX_RANKINGS + ") NOT NULL, " +
+                                   "cast_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                                   ")");
+            }
+            if (outbox) {
+                OutboxDispatcher.installSchema(connection);
+            }
+        } catch (SQLException e) {
+            System.out.println("Tally schema setup failed: " + e.getMessage());
+        }
+
+        try (Connection connection = connectionPool.getConnection()) {
+            String markVoted = recordsTxHash
+                ? "UPDATE users SET has_voted = TRUE, blockchain_tx_hash = COALESCE(p_tx_hash, blockchain_tx_hash) "
+                : "UPDATE users SET has_voted = TRUE ";
+            String applyTally = isSharded()
+                ? "INSERT INTO candidate_vote_shards (candidate_id, shard, votes) " +
+                  "SELECT id, p_shard, 1 FROM candidates WHERE id = p_candidate_id " +
+                  "ON DUPLICATE KEY UPDATE votes = votes + 1; "
+                : "UPDATE candidates SET votes = votes + 1 WHERE id = p_candidate_id; ";
+            String publish = outbox
+                ? "INSERT INTO vote_outbox (user_id, candidate_id, idempotency_key) " +
+                  "VALUES (p_user_id, p_candidate_id, SHA2(CONCAT('vote:', p_user_id), 256)); "
+                : "";
+
+            String createProcedureSql =
+                "CREATE PROCEDURE " + procedureName() + "(IN p_user_id BIGINT, IN p_candidate_id INT, " +
+                "IN p_tx_hash VARCHAR(66), IN p_shard INT, OUT p_status INT) " +
+                "BEGIN " +
+                "  DECLARE EXIT HANDLER FOR SQLEXCEPTION BEGIN ROLLBACK; RESIGNAL; END; " +
+                "  START TRANSACTION; " +
+                "  " + markVoted + "WHERE id = p_user_id AND has_voted = FALSE; " +
+                "  IF ROW_COUNT() = 0 THEN " +
+                "    ROLLBACK; SET p_status = " + STATUS_ALREADY_VOTED + "; " +
+                "  ELSE " +
+                "    " + applyTally +
+                "    IF ROW_COUNT() = 0 THEN " +
+                "      ROLLBACK; SET p_status = " + STATUS_UNKNOWN_CANDIDATE + "; " +
+                "    ELSE " +
+                "      " + publish + "COMMIT; SET p_status = " + STATUS_CAST + "; " +
+                "    END IF; " +
+                "  END IF; " +
+                "END";
+
+            if (!hasProcedure(connection, procedureName())) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.executeUpdate(createProcedureSql);
+                } catch (SQLException e) {
+                    // Another kiosk in the same mode created it first
+                    if (e.getErrorCode() != ER_SP_ALREADY_EXISTS) throw e;
+                }
+            }
+            procedureAvailable = true;
+        } catch (SQLException e) {
+            // No CREATE ROUTINE privilege: fall back to the same conditional claim done client-side
+            System.out.println("cast_vote procedure unavailable, using client-side transaction: " + e.getMessage());
+            procedureAvailable = false;
+        }
+    }
+
+    // cast_vote_v<version>[_outbox][_sharded][_tx]: one procedure per write path
+    private String procedureName() {
+        return "cast_vote_v" + PROCEDURE_VERSION + (outbox ? "_outbox" : "") + (isSharded() ? "_sharded" : "") +
+               (recordsTxHash ? "_tx" : "");
+    }
+
+    private static boolean hasProcedure(Connection connection, String name) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT 1 FROM information_schema.ROUTINES " +
+                "WHERE ROUTINE_SCHEMA = DATABASE() AND ROUTINE_TYPE = 'PROCEDURE' AND ROUTINE_NAME = ?")) {
+            stmt.setString(1, name);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    // One-time move of the legacy candidates.votes counts into shard 0. Runs in a single
+    // transaction so a concurrent reader never sees a vote counted twice or not at all.
+    private void migrateToShards(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS candidate_vote_shards (" +
+                               "candidate_id INT NOT NULL, " +
+                               "shard SMALLINT NOT NULL, " +
+                               "votes BIGINT NOT NULL DEFAULT 0, " +
+                               "PRIMARY KEY (candidate_id, shard)" +
+                               ")");
+
+            connection.setAutoCommit(false);
+            try {
+                stmt.executeUpdate("INSERT INTO candidate_vote_shards (candidate_id, shard, votes) " +
+                                   "SELECT id, 0, votes FROM candidates WHERE votes > 0 " +
+                                   "ON DUPLICATE KEY UPDATE votes = candidate_vote_shards.votes + VALUES(votes)");
+                int migrated = stmt.executeUpdate("UPDATE candidates SET votes = 0 WHERE votes > 0");
+                connection.commit();
+                if (migrated > 0) {
+                    System.out.println("Migrated vote counts of " + migrated + " candidates into " + tallyShards + " tally shards");
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    VoteStatus castVote(long voterId, int candidateId, String txHash) throws SQLException {
+        int shard = isSharded() ? ThreadLocalRandom.current().nextInt(tallyShards) : 0;
+        try (Connection connection = connectionPool.getConnection()) {
+            if (procedureAvailable) {
+                try (CallableStatement call = connection.prepareCall("{call " + procedureName() + "(?, ?, ?, ?, ?)}")) {
+                    call.setLong(1, voterId);
+                    call.setInt(2, candidateId);
+                    call.setString(3, txHash);
+                    call.setInt(4, shard);
+                    call.registerOutParameter(5, Types.INTEGER);
+                    call.execute();
+                    return toStatus(call.getInt(5));
+                }
+            }
+            return castVoteInTransaction(connection, voterId, candidateId, txHash, shard);
+        }
+    }
+
+    // Claims the voter and stores their ranking (most preferred first) in one transaction.
+    // Every ranked id must be a current candidate; the candidates' vote counts are untouched.
+    VoteStatus castRankedBallot(long voterId, int[] candidateIds) throws SQLException {
+        byte[] preferences = packPreferences(candidateIds);
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int[] distinct = Arrays.stream(candidateIds).distinct().toArray();
+                StringBuilder in = new StringBuilder();
+                for (int i = 0; i < distinct.length; i++) in.append(i == 0 ? "?" : ", ?");
+                try (PreparedStatement checkStmt = connection.prepareStatement(
+                        "SELECT COUNT(*) FROM candidates WHERE id IN (" + in + ")")) {
+                    for (int i = 0; i < distinct.length; i++) checkStmt.setInt(i + 1, distinct[i]);
+                    try (ResultSet resultSet = checkStmt.executeQuery()) {
+                        if (!resultSet.next() || resultSet.getInt(1) != distinct.length) {
+                            connection.rollback();
+                            return VoteStatus.UNKNOWN_CANDIDATE;
+                        }
+                    }
+                }
+
+                try (PreparedStatement claimStmt = connection.prepareStatement(claimSql())) {
+                    int index = 1;
+                    if (recordsTxHash) claimStmt.setString(index++, null);
+                    claimStmt.setLong(index, voterId);
+                    if (claimStmt.executeUpdate() == 0) {
+                        connection.rollback();
+                        return VoteStatus.ALREADY_VOTED;
+                    }
+                }
+
+                try (PreparedStatement ballotStmt = connection.prepareStatement(
+                        "INSERT INTO ranked_ballots (user_id, preferences) VALUES (?, ?)")) {
+                    ballotStmt.setLong(1, voterId);
+                    ballotStmt.setBytes(2, preferences);
+                    ballotStmt.executeUpdate();
+                }
+
+                connection.commit();
+                return VoteStatus.CAST;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Two big-endian bytes per candidate id, most preferred first
+    static byte[] packPreferences(int[] candidateIds) {
+        if (candidateIds.length == 0 || candidateIds.length > MAX_RANKINGS) {
+            throw new IllegalArgumentException("A ranked ballot needs 1 to " + MAX_RANKINGS + " rankings");
+        }
+        byte[] packed = new byte[candidateIds.length * 2];
+        for (int i = 0; i < candidateIds.length; i++) {
+            int id = candidateIds[i];
+            if (id < 0 || id > 0xFFFF) throw new IllegalArgumentException("Candidate id " + id + " cannot be ranked");
+            packed[i * 2] = (byte) (id >>> 8);
+            packed[i * 2 + 1] = (byte) id;
+        }
+        return packed;
+    }
+
+    // Attaches a chain tx hash to a voter after the fact, for chain submissions made once
+    // the SQL vote had committed
+    void recordTxHash(long voterId, String txHash) throws SQLException {
+        if (!recordsTxHash || txHash == null) return;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                 "UPDATE users SET blockchain_tx_hash = ? WHERE id = ?")) {
+            preparedStatement.setString(1, txHash);
+            preparedStatement.setLong(2, voterId);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    // Two statements instead of one round trip, but still race-free: the conditional
+    // UPDATE takes the voter's row lock and only one session can see has_voted = FALSE.
+    private VoteStatus castVoteInTransaction(Connection connection, long voterId,
+                                             int candidateId, String txHash, int shard) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement claimStmt = connection.prepareStatement(claimSql())) {
+                int index = 1;
+                if (recordsTxHash) claimStmt.setString(index++, txHash);
+                claimStmt.setLong(index, voterId);
+                if (claimStmt.executeUpdate() == 0) {
+                    connection.rollback();
+                    return VoteStatus.ALREADY_VOTED;
+                }
+            }
+
+            try (PreparedStatement tallyStmt = prepareTally(connection, candidateId, shard)) {
+                if (tallyStmt.executeUpdate() == 0) {
+                    connection.rollback();
+                    return VoteStatus.UNKNOWN_CANDIDATE;
+                }
+            }
+
+            if (outbox) {
+                try (PreparedStatement outboxStmt = connection.prepareStatement(OutboxDispatcher.INSERT_SQL)) {
+                    outboxStmt.setLong(1, voterId);
+                    outboxStmt.setInt(2, candidateId);
+                    outboxStmt.setLong(3, voterId);
+                    outboxStmt.executeUpdate();
+                }
+            }
+
+            connection.commit();
+            return VoteStatus.CAST;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    private String claimSql() {
+        return recordsTxHash
+            ? "UPDATE users SET has_voted = TRUE, blockchain_tx_hash = COALESCE(?, blockchain_tx_hash) WHERE id = ? AND has_voted = FALSE"
+            : "UPDATE users SET has_voted = TRUE WHERE id = ? AND has_voted = FALSE";
+    }
+
+    private PreparedStatement prepareTally(Connection connection, int candidateId, int shard) throws SQLException {
+        PreparedStatement tallyStmt;
+        if (isSharded()) {
+            tallyStmt = connection.prepareStatement(SHARD_TALLY_SQL);
+            tallyStmt.setInt(1, shard);
+            tallyStmt.setInt(2, candidateId);
+        } else {
+            tallyStmt = connection.prepareStatement(LEGACY_TALLY_SQL);
+            tallyStmt.setInt(1, candidateId);
+        }
+        return tallyStmt;
+    }
+
+    // Candidate name -> total votes in candidate id order, summing shard slots when present
+    Map<String, Integer> loadResults() throws SQLException {
+        Map<String, Integer> results = new LinkedHashMap<>();
+        for (CandidateTally tally : loadTallies()) {
+            results.put(tally.name, (int) tally.votes);
+        }
+        return results;
+    }
+
+    // One candidate's total as read by loadTallies
+    static final class CandidateTally {
+        final int id;
+        final String name;
+        final long votes;
+
+        CandidateTally(int id, String name, long votes) {
+            this.id = id;
+            this.name = name;
+            this.votes = votes;
+        }
+    }
+
+    // Every candidate with its total votes, in id order
+    List<CandidateTally> loadTallies() throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            return readTallies(connection, shardTableExists);
+        }
+    }
+
+    // loadTallies on a given connection; plain reads, for tools that must not install the schema
+    static List<CandidateTally> readTallies(Connection connection, boolean sharded) throws SQLException {
+        String sql = sharded
+            ? "SELECT c.id, c.candidate_name, c.votes + COALESCE(SUM(s.votes), 0) AS votes " +
+              "FROM candidates c LEFT JOIN candidate_vote_shards s ON s.candidate_id = c.id " +
+              "GROUP BY c.id, c.candidate_name, c.votes ORDER BY c.id"
+            : "SELECT id, candidate_name, votes FROM candidates ORDER BY id";
+
+        List<CandidateTally> tallies = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                tallies.add(new CandidateTally(resultSet.getInt("id"), resultSet.getString("candidate_name"),
+                                               resultSet.getLong("votes")));
+            }
+        }
+        return tallies;
+    }
+
+    // One vote as handed to applyBatch, keyed by users.id and candidates.id
+    static final class CastRequest {
+        final long voterId;
+        final int candidateId;
+        final String txHash;
+
+        CastRequest(long voterId, int candidateId, String txHash) {
+            this.voterId = voterId;
+            this.candidateId = candidateId;
+            this.txHash = txHash;
+        }
+    }
+
+    // Applies many votes in one transaction: one candidate lookup, one batched conditional
+    // claim, and one aggregated tally statement per candidate. statuses[i] belongs to
+    // requests.get(i); a duplicate voter (already voted, or twice in the same batch) only
+    // fails its own entry. Any SQLException rolls back the whole batch.
+    VoteStatus[] applyBatch(List<CastRequest> requests) throws SQLException {
+        VoteStatus[] statuses = new VoteStatus[requests.size()];
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                Set<Integer> knownCandidates = findCandidates(connection, requests);
+
+                // Claim every voter whose candidate exists
+                List<Integer> claimIndexes = new ArrayList<>();
+                try (PreparedStatement claimStmt = connection.prepareStatement(claimSql())) {
+                    for (int i = 0; i < requests.size(); i++) {
+                        CastRequest request = requests.get(i);
+                        if (!knownCandidates.contains(request.candidateId)) {
+                            statuses[i] = VoteStatus.UNKNOWN_CANDIDATE;
+                            continue;
+                        }
+                        int index = 1;
+                        if (recordsTxHash) claimStmt.setString(index++, request.txHash);
+                        claimStmt.setLong(index, request.voterId);
+                        claimStmt.addBatch();
+                        claimIndexes.add(i);
+                    }
+                    if (!claimIndexes.isEmpty()) {
+                        int[] counts = claimStmt.executeBatch();
+                        for (int k = 0; k < counts.length; k++) {
+                            if (counts[k] == Statement.SUCCESS_NO_INFO) {
+                                // Driver rewrote the batch and lost per-row counts; caller retries one by one
+                                throw new SQLException("Batch update counts unavailable");
+                            }
+                            statuses[claimIndexes.get(k)] = counts[k] > 0 ? VoteStatus.CAST : VoteStatus.ALREADY_VOTED;
+                        }
+                    }
+                }
+
+                // Aggregate the successful claims into one increment per candidate
+                Map<Integer, Integer> increments = new LinkedHashMap<>();
+                for (int i = 0; i < statuses.length; i++) {
+                    if (statuses[i] == VoteStatus.CAST) {
+                        increments.merge(requests.get(i).candidateId, 1, Integer::sum);
+                    }
+                }
+                if (!increments.isEmpty()) {
+                    String tallySql = isSharded() ? SHARD_BATCH_TALLY_SQL : LEGACY_BATCH_TALLY_SQL;
+                    try (PreparedStatement tallyStmt = connection.prepareStatement(tallySql)) {
+                        for (Map.Entry<Integer, Integer> increment : increments.entrySet()) {
+                            if (isSharded()) {
+                                tallyStmt.setInt(1, ThreadLocalRandom.current().nextInt(tallyShards));
+                                tallyStmt.setInt(2, increment.getValue());
+                                tallyStmt.setInt(3, increment.getKey());
+                            } else {
+                                tallyStmt.setInt(1, increment.getValue());
+                                tallyStmt.setInt(2, increment.getKey());
+                            }
+                            tallyStmt.addBatch();
+                        }
+                        tallyStmt.executeBatch();
+                    }
+                }
+
+                if (outbox && !increments.isEmpty()) {
+                    try (PreparedStatement outboxStmt = connection.prepareStatement(OutboxDispatcher.INSERT_SQL)) {
+                        for (int i = 0; i < statuses.length; i++) {
+                            if (statuses[i] != VoteStatus.CAST) continue;
+                            outboxStmt.setLong(1, requests.get(i).voterId);
+                            outboxStmt.setInt(2, requests.get(i).candidateId);
+                            outboxStmt.setLong(3, requests.get(i).voterId);
+                            outboxStmt.addBatch();
+                        }
+                        outboxStmt.executeBatch();
+                    }
+                }
+
+                connection.commit();
+                return statuses;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static Set<Integer> findCandidates(Connection connection, List<CastRequest> requests) throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        for (CastRequest request : requests) {
+            ids.add(request.candidateId);
+        }
+        StringBuilder sql = new StringBuilder("SELECT id FROM candidates WHERE id IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        Set<Integer> found = new HashSet<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Integer id : ids) {
+                stmt.setInt(index++, id);
+            }
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    found.add(resultSet.getInt("id"));
+                }
+            }
+        }
+        return found;
+    }
+
+    private static VoteStatus toStatus(int code) throws SQLException {
+        switch (code) {
+            case STATUS_CAST:
+                return VoteStatus.CAST;
+            case STATUS_ALREADY_VOTED:
+                return VoteStatus.ALREADY_VOTED;
+            case STATUS_UNKNOWN_CANDIDATE:
+                return VoteStatus.UNKNOWN_CANDIDATE;
+            default:
+                throw new SQLException("Unexpected cast_vote status " + code);
+        }
+    }
+
+    static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(connection.getCatalog(), null, table, column)) {
+            return columns.next();
+        }
+    }
+
+    static boolean hasTable(Connection connection, String table) throws SQLException {
+        try (ResultSet tables = connection.getMetaData().getTables(connection.getCatalog(), null, table, null)) {
+            return tables.next();
+        }
+    }
+}
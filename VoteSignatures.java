@@ -0,0 +1,454 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Ed25519 vote signatures (JDK 15+, no extra provider).
+//
+// Every voter has one random key pair, created when the voter registers (or, for voters
+// imported or registered without one, at their first login - see VotingEngine). The
+// private key is only ever stored sealed (seal): encrypted with AES-GCM under a key that
+// PBKDF2 stretches from the voter's password with a per-voter salt and
+// evoting.sig.kdfIterations rounds, in users.vote_key. Login unseals it. The chain gets the
+// public key alone, which says nothing about the password, and keeps it with the voter's
+// address (a fingerprint of the key, see addressFor). The client signs
+// "vote|<address>|<candidate>|<millis>" and sends "ed25519:<millis>:<signature>"; the chain
+// checks it against the key registered for that address only.
+//
+// Votes the outbox publishes later have no voter session to sign with, so they are
+// kiosk-attested instead: OutboxDispatcher signs them with the kiosk's private key
+// (evoting.outbox.kioskKeyFile) as "ed25519-kiosk:<millis>:<signature>", and the chain
+// accepts those only against the kiosk public key it is configured with
+// (evoting.sig.kioskKey). Such a vote is vouched for by the kiosk that recorded it in the
+// database, not by the voter. java VoteSignatures --kiosk-key <file> writes a new kiosk
+// private key and prints the matching evoting.sig.kioskKey setting.
+//
+// Chain services verify through an instance: verify() queues the vote and a "sig-batcher"
+// thread drains the queue in batches of up to evoting.sig.batch, handing each batch to
+// one of evoting.sig.threads "sig-verify" workers. Under load the batches fill up, so the
+// hand-off cost is paid once per batch while every core verifies; when idle a vote goes
+// through alone. The JDK has no multi-signature batch equation, so each signature is
+// still checked on its own (one reusable Signature per worker thread).
+//
+// java VoteSignatures [votes] measures verification throughput per thread count, to size
+// evoting.sig.threads above the chain's ingestion rate.
+public class VoteSignatures implements AutoCloseable {
+
+    static final String PREFIX = "ed25519:";
+    static final String KIOSK_PREFIX = "ed25519-kiosk:";
+    static final int KEY_BYTES = 32;
+    static final String SEALED_PREFIX = "pbkdf2-aesgcm:";
+
+    private static final int SALT_BYTES = 16;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // X.509 SubjectPublicKeyInfo header of every Ed25519 public key; the raw key follows
+    private static final byte[] X509_PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00};
+
+    private static final ThreadLocal<Signature> SIGNERS = ThreadLocal.withInitial(VoteSignatures::newSignature);
+    private static final ThreadLocal<Signature> VERIFIERS = ThreadLocal.withInitial(VoteSignatures::newSignature);
+    private static final ThreadLocal<KeyFactory> KEY_FACTORIES = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance("Ed25519");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("This JDK has no Ed25519 support", e);
+        }
+    });
+
+    // One queued verification
+    private static final class Pending {
+        final byte[] voterKey;
+        final String voterAddress;
+        final String candidateName;
+        final String signature;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Pending(byte[] voterKey, String voterAddress, String candidateName, String signature) {
+            this.voterKey = voterKey;
+            this.voterAddress = voterAddress;
+            this.candidateName = candidateName;
+            this.signature = signature;
+        }
+    }
+
+    private final int batchSize;
+    private final PublicKey kioskKey; // null: kiosk-attested votes are refused
+    private final ExecutorService workers;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread batcher;
+    private volatile boolean running = true;
+
+    // Instrumentation
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder verifyNanos = new LongAdder();
+
+    VoteSignatures() {
+        this(Math.max(1, Integer.getInteger("evoting.sig.threads", Runtime.getRuntime().availableProcessors())),
+             Math.max(1, Integer.getInteger("evoting.sig.batch", 64)),
+             configuredKioskKey());
+    }
+
+    VoteSignatures(int threads, int batchSize, PublicKey kioskKey) {
+        this.batchSize = batchSize;
+        this.kioskKey = kioskKey;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "sig-verify-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batcher = new Thread(this::dispatch, "sig-batcher");
+        this.batcher.setDaemon(true);
+        this.batcher.start();
+    }
+
+    // The kiosk public key from evoting.sig.kioskKey, or null when none is set
+    static PublicKey configuredKioskKey() {
+        String encoded = System.getProperty("evoting.sig.kioskKey", "");
+        if (encoded.isEmpty()) return null;
+        try {
+            return decodeKey(encoded);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("evoting.sig.kioskKey is not an Ed25519 public key", e);
+        }
+    }
+
+    // The public key of an encodeKey string; IllegalArgumentException for anything else
+    static PublicKey decodeKey(String encodedKey) {
+        try {
+            return publicKey(rawKey(encodedKey));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Not an Ed25519 public key", e);
+        }
+    }
+
+    static KeyPair newKeyPair() {
+        try {
+            return KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("This JDK has no Ed25519 support", e);
+        }
+    }
+
+    // The key pair sealed under the voter's password, as stored in users.vote_key:
+    // "pbkdf2-aesgcm:<iterations>:<salt>:<public key>:<iv>:<sealed private key>", base64
+    // fields. The public key is authenticated with the private one, so neither can be swapped.
+    static String seal(KeyPair keys, String password) {
+        int iterations = Math.max(1, Integer.getInteger("evoting.sig.kdfIterations", 600_000));
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] iv = new byte[IV_BYTES];
+        RANDOM.nextBytes(salt);
+        RANDOM.nextBytes(iv);
+        String publicKey = encodeKey(keys.getPublic());
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, sealingKey(password, salt, iterations), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(publicKey.getBytes(StandardCharsets.UTF_8));
+            byte[] sealed = cipher.doFinal(keys.getPrivate().getEncoded());
+            Base64.Encoder base64 = Base64.getEncoder();
+            return SEALED_PREFIX + iterations + ":" + base64.encodeToString(salt) + ":" + publicKey + ":" +
+                   base64.encodeToString(iv) + ":" + base64.encodeToString(sealed);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not seal the voter key", e);
+        }
+    }
+
+    // The key pair seal() stored; GeneralSecurityException for the wrong password or a
+    // damaged value
+    static KeyPair unseal(String sealed, String password) throws GeneralSecurityException {
+        String[] fields = sealed.startsWith(SEALED_PREFIX) ? sealed.substring(SEALED_PREFIX.length()).split(":") : null;
+        if (fields == null || fields.length != 5) throw new GeneralSecurityException("Not a sealed voter key");
+        try {
+            int iterations = Integer.parseInt(fields[0]);
+            Base64.Decoder base64 = Base64.getDecoder();
+            PublicKey publicKey = publicKey(rawKey(fields[2]));
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, sealingKey(password, base64.decode(fields[1]), iterations),
+                        new GCMParameterSpec(TAG_BITS, base64.decode(fields[3])));
+            cipher.updateAAD(fields[2].getBytes(StandardCharsets.UTF_8));
+            byte[] privateKey = cipher.doFinal(base64.decode(fields[4]));
+            return new KeyPair(publicKey, KEY_FACTORIES.get().generatePrivate(new PKCS8EncodedKeySpec(privateKey)));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed sealed voter key", e); // bad number, base64 or key
+        }
+    }
+
+    // Public key as registered with the chain: base64 of its X.509 encoding
+    static String encodeKey(PublicKey key) {
+        return Base64.getEncoder().encodeToString(key.getEncoded());
+    }
+
+    // The 32 raw key bytes of an encodeKey string; IllegalArgumentException for anything else
+    static byte[] rawKey(String encodedKey) {
+        byte[] encoded = Base64.getDecoder().decode(encodedKey);
+        if (encoded.length != X509_PREFIX.length + KEY_BYTES
+                || !Arrays.equals(encoded, 0, X509_PREFIX.length, X509_PREFIX, 0, X509_PREFIX.length)) {
+            throw new IllegalArgumentException("Not an Ed25519 public key");
+        }
+        return Arrays.copyOfRange(encoded, X509_PREFIX.length, encoded.length);
+    }
+
+    // A voter's chain address: the first 20 bytes of the SHA-256 of the raw public key
+    static String addressFor(byte[] rawKey) {
+        return "0x" + LedgerBlockchainService.toHex(LedgerBlockchainService.sha256(rawKey)).substring(0, 40);
+    }
+
+    static String addressFor(PublicKey key) {
+        return addressFor(rawKey(encodeKey(key)));
+    }
+
+    // The signature string for a vote, signed with the voter's private key
+    static String sign(KeyPair keys, String voterAddress, String candidateName) {
+        return sign(keys.getPrivate(), PREFIX, voterAddress, candidateName);
+    }
+
+    // The signature string for a vote the kiosk vouches for (see the class comment)
+    static String attest(PrivateKey kioskKey, String voterAddress, String candidateName) {
+        return sign(kioskKey, KIOSK_PREFIX, voterAddress, candidateName);
+    }
+
+    // Raw Ed25519 signature over a whole message (kiosk gossip, see CrdtTally)
+    static byte[] signMessage(PrivateKey key, byte[] message) {
+        try {
+            Signature signer = SIGNERS.get();
+            signer.initSign(key);
+            signer.update(message);
+            return signer.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not sign the message", e);
+        }
+    }
+
+    static boolean verifyMessage(PublicKey key, byte[] message, byte[] signature) {
+        try {
+            Signature verifier = VERIFIERS.get();
+            verifier.initVerify(key);
+            verifier.update(message);
+            return verifier.verify(signature);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    // Reads a kiosk private key written by --kiosk-key
+    static PrivateKey readKioskKey(Path file) throws IOException {
+        try {
+            byte[] encoded = Base64.getDecoder().decode(Files.readString(file).trim());
+            return KEY_FACTORIES.get().generatePrivate(new PKCS8EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IOException("Not an Ed25519 private key: " + file, e);
+        }
+    }
+
+    // Checks one signature on the calling thread: a voter signature against voterKey (the
+    // raw key registered for the address, null if there is none), a kiosk attestation
+    // against kioskKey (null if none is configured). False for anything malformed.
+    static boolean verifyNow(byte[] voterKey, PublicKey kioskKey, String voterAddress, String candidateName,
+                             String signature) {
+        if (signature == null) return false;
+        try {
+            PublicKey key;
+            String body;
+            if (signature.startsWith(PREFIX)) {
+                if (voterKey == null) return false;
+                key = publicKey(voterKey);
+                body = signature.substring(PREFIX.length());
+            } else if (signature.startsWith(KIOSK_PREFIX)) {
+                if (kioskKey == null) return false;
+                key = kioskKey;
+                body = signature.substring(KIOSK_PREFIX.length());
+            } else {
+                return false;
+            }
+            int colon = body.indexOf(':');
+            if (colon < 0) return false;
+            long millis = Long.parseLong(body.substring(0, colon));
+            Signature verifier = VERIFIERS.get();
+            verifier.initVerify(key);
+            verifier.update(message(voterAddress, candidateName, millis));
+            return verifier.verify(Base64.getDecoder().decode(body.substring(colon + 1)));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return false; // bad number, base64, key encoding or signature length
+        }
+    }
+
+    // Completes normally for a valid signature and with BlockchainException otherwise.
+    // voterKey is the raw key registered for the address, null if there is none.
+    CompletableFuture<Void> verify(byte[] voterKey, String voterAddress, String candidateName, String signature) {
+        Pending pending = new Pending(voterKey, voterAddress, candidateName, signature);
+        queue.add(pending);
+        if (!running) failQueued(); // close() may have drained the queue before this add
+        return pending.result;
+    }
+
+    String stats() {
+        long count = verified.sum() + rejected.sum();
+        return String.format("signatures verified=%d rejected=%d batches=%d avgBatch=%.1f avgVerify=%.1fus queued=%d",
+            verified.sum(), rejected.sum(), batches.sum(), (double) count / Math.max(1, batches.sum()),
+            verifyNanos.sum() / 1e3 / Math.max(1, count), queue.size());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        batcher.interrupt();
+        try {
+            batcher.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        failQueued();
+    }
+
+    private void failQueued() {
+        List<Pending> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (Pending pending : left) {
+            pending.result.completeExceptionally(new BlockchainException("Signature verifier is shut down"));
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            List<Pending> batch = new ArrayList<>(batchSize);
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break; // closing
+            }
+            queue.drainTo(batch, batchSize - 1);
+            batches.increment();
+            try {
+                workers.execute(() -> verifyBatch(batch));
+            } catch (RuntimeException rejectedBatch) {
+                for (Pending pending : batch) pending.result.completeExceptionally(rejectedBatch);
+            }
+        }
+    }
+
+    private void verifyBatch(List<Pending> batch) {
+        long start = System.nanoTime();
+        for (Pending pending : batch) {
+            if (verifyNow(pending.voterKey, kioskKey, pending.voterAddress, pending.candidateName, pending.signature)) {
+                verified.increment();
+                pending.result.complete(null);
+            } else {
+                rejected.increment();
+                pending.result.completeExceptionally(new BlockchainException("Invalid vote signature"));
+            }
+        }
+        verifyNanos.add(System.nanoTime() - start);
+    }
+
+    private static String sign(PrivateKey key, String prefix, String voterAddress, String candidateName) {
+        long millis = System.currentTimeMillis();
+        try {
+            Signature signer = SIGNERS.get();
+            signer.initSign(key);
+            signer.update(message(voterAddress, candidateName, millis));
+            return prefix + millis + ":" + Base64.getEncoder().encodeToString(signer.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not sign the vote", e);
+        }
+    }
+
+    private static SecretKey sealingKey(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+        try {
+            byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new SecretKeySpec(key, "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static PublicKey publicKey(byte[] rawKey) throws GeneralSecurityException {
+        byte[] encoded = Arrays.copyOf(X509_PREFIX, X509_PREFIX.length + rawKey.length);
+        System.arraycopy(rawKey, 0, encoded, X509_PREFIX.length, rawKey.length);
+        return KEY_FACTORIES.get().generatePublic(new X509EncodedKeySpec(encoded));
+    }
+
+    private static byte[] message(String voterAddress, String candidateName, long millis) {
+        return ("vote|" + voterAddress + "|" + candidateName + "|" + millis).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Signature newSignature() {
+        try {
+            return Signature.getInstance("Ed25519");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("This JDK has no Ed25519 support", e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 1 && args[0].equals("--kiosk-key")) {
+            KeyPair keys = newKeyPair();
+            Files.writeString(Paths.get(args[1]), Base64.getEncoder().encodeToString(keys.getPrivate().getEncoded()),
+                              StandardOpenOption.CREATE_NEW);
+            System.out.println("Kiosk private key written to " + args[1] + "; start the chain with");
+            System.out.println("-Devoting.sig.kioskKey=" + encodeKey(keys.getPublic()));
+            return;
+        }
+        int votes = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        KeyPair keys = newKeyPair();
+        byte[] voterKey = rawKey(encodeKey(keys.getPublic()));
+        String[] signatures = new String[votes];
+        long signStart = System.nanoTime();
+        for (int i = 0; i < votes; i++) signatures[i] = sign(keys, address(i), "Candidate " + (i % 5));
+        double signSeconds = (System.nanoTime() - signStart) / 1e9;
+        System.out.printf("signed %d votes in %.2fs (%.0f/s on one thread)%n", votes, signSeconds, votes / signSeconds);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(cores, threads * 2) : cores + 1) {
+            try (VoteSignatures verifier = new VoteSignatures(threads, Integer.getInteger("evoting.sig.batch", 64), null)) {
+                List<CompletableFuture<Void>> results = new ArrayList<>(votes);
+                long start = System.nanoTime();
+                for (int i = 0; i < votes; i++) {
+                    results.add(verifier.verify(voterKey, address(i), "Candidate " + (i % 5), signatures[i]));
+                }
+                CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("threads=%d: %.0f verifications/s  %s%n", threads, votes / seconds, verifier.stats());
+            }
+        }
+    }
+
+    private static String address(int i) {
+        return String.format("0x%040x", i);
+    }
+}
@@ -0,0 +1,37 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+
+// Where the cast-vote path hands a vote off. The future completes once the vote is
+// durable: committed in MySQL (VoteBatcher, with the database's status) or forced to the
+// vote journal (VoteJournal, JOURNALED). A journaled vote gets the database's ruling
+// later, through the listener given to onApplied.
+interface VoteSink extends AutoCloseable {
+
+    // A journaled vote left the journal: status is the database's ruling, or null when the
+    // vote was quarantined and never reached the database
+    @FunctionalInterface
+    interface AppliedListener {
+        void applied(long voterId, int candidateId, VoteRepository.VoteStatus status);
+    }
+
+    CompletableFuture<VoteRepository.VoteStatus> submit(long voterId, int candidateId, String txHash);
+
+    // Sinks whose futures already carry the database's status never call the listener
+    default void onApplied(AppliedListener listener) {
+    }
+
+    @Override
+    void close();
+
+    // -Devoting.journal.dir=<dir> puts the write-ahead journal in front of MySQL;
+    // otherwise votes are group-committed straight to the database.
+    static VoteSink fromSystemProperties(VoteRepository voteRepository,
+                                         CandidateCatalog candidateCatalog) throws IOException {
+        String journalDir = System.getProperty("evoting.journal.dir");
+        if (journalDir != null && !journalDir.isEmpty()) {
+            return VoteJournal.open(Paths.get(journalDir), voteRepository, candidateCatalog);
+        }
+        return new VoteBatcher(voteRepository);
+    }
+}
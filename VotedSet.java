@@ -0,0 +1,124 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// One bit per users.id for voters known to have voted, so a repeat attempt is refused
+// before it costs a database or chain round trip.
+//
+// Bits live in 8 KB chunks (65536 ids) allocated on first use, so 50M dense ids take about
+// 6 MB and sparse ids only pay for the chunks they touch. A clear bit means "ask the
+// database", never "has not voted", which keeps the set safe while it is still loading
+// and when another kiosk recorded the vote. The only bit ever cleared is one set for a
+// journaled vote that was quarantined before reaching the database.
+//
+// The startup load reads users.has_voted in id ranges of LOAD_RANGE spread over the
+// executor, and the set serves lookups (answering from whatever is loaded) meanwhile.
+class VotedSet {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_IDS = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 15; // ids below 2^31
+    private static final long LOAD_RANGE = 1_000_000;
+
+    private final AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final LongAdder allocatedChunks = new LongAdder();
+    private final LongAdder size = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private volatile CompletableFuture<Void> loaded = CompletableFuture.completedFuture(null);
+
+    // True only if this voter is known to have voted
+    boolean contains(long userId) {
+        if (userId < 0 || userId >= (long) MAX_CHUNKS * CHUNK_IDS) return false;
+        AtomicLongArray chunk = chunks.get((int) (userId >>> CHUNK_BITS));
+        if (chunk == null) return false;
+        int bit = (int) (userId & (CHUNK_IDS - 1));
+        boolean voted = (chunk.get(bit >>> 6) & (1L << bit)) != 0;
+        if (voted) hits.increment();
+        return voted;
+    }
+
+    void add(long userId) {
+        if (userId < 0 || userId >= (long) MAX_CHUNKS * CHUNK_IDS) return;
+        int index = (int) (userId >>> CHUNK_BITS);
+        AtomicLongArray chunk = chunks.get(index);
+        if (chunk == null) {
+            AtomicLongArray fresh = new AtomicLongArray(CHUNK_IDS / 64);
+            chunk = chunks.compareAndExchange(index, null, fresh);
+            if (chunk == null) {
+                chunk = fresh;
+                allocatedChunks.increment();
+            }
+        }
+        int bit = (int) (userId & (CHUNK_IDS - 1));
+        long mask = 1L << bit;
+        long word = chunk.getAndAccumulate(bit >>> 6, mask, (current, m) -> current | m);
+        if ((word & mask) == 0) size.increment();
+    }
+
+    // Forgets a vote the database never received, so its voter may vote again
+    void remove(long userId) {
+        if (userId < 0 || userId >= (long) MAX_CHUNKS * CHUNK_IDS) return;
+        AtomicLongArray chunk = chunks.get((int) (userId >>> CHUNK_BITS));
+        if (chunk == null) return;
+        int bit = (int) (userId & (CHUNK_IDS - 1));
+        long mask = 1L << bit;
+        long word = chunk.getAndAccumulate(bit >>> 6, mask, (current, m) -> current & ~m);
+        if ((word & mask) != 0) size.decrement();
+    }
+
+    // Loads every voter with has_voted set, in parallel id ranges; completes when done
+    CompletableFuture<Void> load(ConnectionPool connectionPool, Executor executor) {
+        long minId;
+        long maxId;
+        try (Connection connection = connectionPool.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT COALESCE(MIN(id), 0), COALESCE(MAX(id), -1) FROM users")) {
+            resultSet.next();
+            minId = resultSet.getLong(1);
+            maxId = resultSet.getLong(2);
+        } catch (SQLException e) {
+            return AsyncBlockchainService.failed(e);
+        }
+
+        List<CompletableFuture<Void>> ranges = new ArrayList<>();
+        for (long from = minId; from <= maxId; from += LOAD_RANGE) {
+            long start = from;
+            long end = Math.min(maxId, from + LOAD_RANGE - 1);
+            ranges.add(CompletableFuture.runAsync(() -> loadRange(connectionPool, start, end), executor));
+        }
+        loaded = CompletableFuture.allOf(ranges.toArray(new CompletableFuture<?>[0]));
+        return loaded;
+    }
+
+    boolean isLoaded() {
+        return loaded.isDone();
+    }
+
+    long memoryBytes() {
+        return allocatedChunks.sum() * (CHUNK_IDS / 8) + (long) MAX_CHUNKS * 4;
+    }
+
+    String stats() {
+        return String.format("voted set size=%d loaded=%b hits=%d memory=%dKB",
+            size.sum(), isLoaded(), hits.sum(), memoryBytes() / 1024);
+    }
+
+    private void loadRange(ConnectionPool connectionPool, long from, long to) {
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                 "SELECT id FROM users WHERE id BETWEEN ? AND ? AND has_voted = TRUE")) {
+            stmt.setLong(1, from);
+            stmt.setLong(2, to);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) add(resultSet.getLong(1));
+            }
+        } catch (SQLException e) {
+            System.out.println("Loading voted set range " + from + "-" + to + " failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+
+// Streams an electoral roll (CSV: username,password per line, optional header) into the
+// users table, and with --chain onto the blockchain as well.
+//
+// The file is read in chunks of evoting.import.chunkSize rows. While one chunk is being
+// registered on the chain (all of it in flight at once) and inserted with a JDBC batch in
+// a single transaction, the next chunk is already being hashed on a ForkJoinPool. After
+// each committed chunk the number of rows consumed is written to <csv>.checkpoint, so an
+// interrupted import resumes where it stopped. Rows go in with INSERT IGNORE and voter
+// hashes are derived from the username, so replaying the chunk that was in flight at a
+// crash inserts nobody twice and re-registering a voter maps to the same chain address.
+// Voters go onto the chain without a signing key: VotingEngine creates each voter's key
+// at their first login and registers it then, so the import does no key stretching.
+//
+// Usage: java VoterImport <jdbcUrl> <dbUser> <dbPassword> <csvFile> [--chain]
+public class VoterImport {
+
+    // One roll entry, hashed
+    private static final class Voter {
+        final String username;
+        final String passwordHash;
+        final String voterHash;
+        String txHash;
+
+        Voter(String username, String passwordHash, String voterHash) {
+            this.username = username;
+            this.passwordHash = passwordHash;
+            this.voterHash = voterHash;
+        }
+    }
+
+    // Rows read from the file; lines counts every line consumed, including skipped ones
+    private static final class Chunk {
+        final List<String[]> rows = new ArrayList<>();
+        long lines;
+        int malformed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: java VoterImport <jdbcUrl> <dbUser> <dbPassword> <csvFile> [--chain]");
+            return;
+        }
+        Path csv = Paths.get(args[3]);
+        Path checkpointPath = Paths.get(args[3] + ".checkpoint");
+        boolean withChain = Arrays.asList(args).contains("--chain");
+        int chunkSize = Math.max(1, Integer.getInteger("evoting.import.chunkSize", 5000));
+        int threads = Math.max(1, Integer.getInteger("evoting.import.threads", Runtime.getRuntime().availableProcessors()));
+
+        ConnectionPool connectionPool = ConnectionPool.fromSystemProperties(args[0], args[1], args[2]);
+        connectionPool.warmUp();
+        BlockchainService blockchainService = withChain ? BlockchainService.fromSystemProperties() : null;
+        ExecutorService chainExecutor = Executors.newFixedThreadPool(Math.max(4, threads));
+        AsyncBlockchainService chain = blockchainService == null ? null : AsyncBlockchainService.of(blockchainService, chainExecutor);
+        ForkJoinPool hashers = new ForkJoinPool(threads);
+
+        boolean recordsChain;
+        try (Connection connection = connectionPool.getConnection()) {
+            recordsChain = VoteRepository.hasColumn(connection, "users", "voter_hash")
+                && VoteRepository.hasColumn(connection, "users", "blockchain_tx_hash");
+        }
+        if (chain != null && !recordsChain) {
+            System.out.println("users has no voter_hash / blockchain_tx_hash columns; run EnhancedEVotingSystem once first");
+            return;
+        }
+        String insertSql = recordsChain
+            ? "INSERT IGNORE INTO users (username, password, role, voter_hash, blockchain_tx_hash) VALUES (?, ?, 'voter', ?, ?)"
+            : "INSERT IGNORE INTO users (username, password, role) VALUES (?, ?, 'voter')";
+
+        long resumeLine = readCheckpoint(checkpointPath);
+        long line = 0;
+        long imported = 0;
+        long duplicates = 0;
+        long malformed = 0;
+        long start = System.nanoTime();
+        long lastReport = start;
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            while (line < resumeLine && reader.readLine() != null) line++;
+            if (resumeLine > 0) System.out.println("Resuming after line " + line + " from " + checkpointPath);
+
+            Chunk chunk = readChunk(reader, chunkSize);
+            CompletableFuture<List<Voter>> hashed = hash(chunk, hashers);
+            while (!chunk.rows.isEmpty() || chunk.lines > 0) {
+                List<Voter> voters = hashed.join();
+                Chunk next = readChunk(reader, chunkSize);
+                hashed = hash(next, hashers); // overlaps with this chunk's chain and database work
+
+                if (chain != null) register(chain, voters);
+                int inserted = insert(connectionPool, insertSql, recordsChain, voters);
+
+                line += chunk.lines;
+                writeCheckpoint(checkpointPath, line);
+                imported += inserted;
+                duplicates += voters.size() - inserted;
+                malformed += chunk.malformed;
+
+                long now = System.nanoTime();
+                if (now - lastReport >= 2_000_000_000L) {
+                    double seconds = (now - start) / 1e9;
+                    System.out.printf("line %d: %d imported, %d already present, %d malformed (%.0f rows/s)%n",
+                        line, imported, duplicates, malformed, (imported + duplicates) / seconds);
+                    lastReport = now;
+                }
+                chunk = next;
+            }
+        } finally {
+            hashers.shutdown();
+            chainExecutor.shutdown();
+            connectionPool.close();
+            if (blockchainService instanceof AutoCloseable) {
+                ((AutoCloseable) blockchainService).close(); // seals pending ledger blocks
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Imported %d voters (%d already present, %d malformed lines) in %.2fs (%.0f rows/s)%n",
+            imported, duplicates, malformed, seconds, (imported + duplicates) / Math.max(seconds, 1e-9));
+        Files.deleteIfExists(checkpointPath); // finished; a rerun starts from the top
+    }
+
+    private static Chunk readChunk(BufferedReader reader, int chunkSize) throws IOException {
+        Chunk chunk = new Chunk();
+        String text;
+        while (chunk.rows.size() < chunkSize && (text = reader.readLine()) != null) {
+            chunk.lines++;
+            text = text.trim();
+            if (text.isEmpty() || text.equalsIgnoreCase("username,password")) continue;
+            int comma = text.indexOf(',');
+            if (comma <= 0 || comma == text.length() - 1 || comma > 50) {
+                chunk.malformed++;
+                continue;
+            }
+            chunk.rows.add(new String[] {text.substring(0, comma).trim(), text.substring(comma + 1)});
+        }
+        return chunk;
+    }
+
+    // SHA-256 of every password and voter hash in the chunk, spread over the pool
+    private static CompletableFuture<List<Voter>> hash(Chunk chunk, ForkJoinPool hashers) {
+        return CompletableFuture.supplyAsync(() -> Arrays.asList(chunk.rows.parallelStream()
+            .map(row -> new Voter(row[0], VotingEngine.hashPassword(row[1]), VotingEngine.hashPassword("voter:" + row[0])))
+            .toArray(Voter[]::new)), hashers);
+    }
+
+    // Whole chunk in flight at once; a failed registration fails the import at this chunk
+    private static void register(AsyncBlockchainService chain, List<Voter> voters) throws BlockchainException {
+        List<CompletableFuture<String>> registrations = new ArrayList<>(voters.size());
+        for (Voter voter : voters) registrations.add(chain.registerVoterOnBlockchainAsync(voter.voterHash, null));
+        for (int i = 0; i < voters.size(); i++) {
+            voters.get(i).txHash = AsyncBlockchainService.join(registrations.get(i));
+        }
+    }
+
+    // One batch, one transaction; returns the rows actually inserted
+    private static int insert(ConnectionPool connectionPool, String insertSql, boolean recordsChain,
+                              List<Voter> voters) throws SQLException {
+        if (voters.isEmpty()) return 0;
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insertStmt = connection.prepareStatement(insertSql)) {
+                for (Voter voter : voters) {
+                    insertStmt.setString(1, voter.username);
+                    insertStmt.setString(2, voter.passwordHash);
+                    if (recordsChain) {
+                        insertStmt.setString(3, voter.voterHash);
+                        insertStmt.setString(4, voter.txHash);
+                    }
+                    insertStmt.addBatch();
+                }
+                int inserted = 0;
+                for (int count : insertStmt.executeBatch()) {
+                    if (count > 0 || count == Statement.SUCCESS_NO_INFO) inserted++;
+                }
+                connection.commit();
+                return inserted;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static long readCheckpoint(Path path) throws IOException {
+        if (!Files.exists(path)) return 0L;
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        long line = buffer.getLong();
+        long checksum = buffer.getLong();
+        if (checksum != crc(buffer.array())) {
+            throw new IOException("Corrupt import checkpoint " + path);
+        }
+        return line;
+    }
+
+    private static void writeCheckpoint(Path path, long line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(line);
+        buffer.putLong(crc(buffer.array()));
+        Path tmp = Paths.get(path + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.flip();
+            channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, 8);
+        return crc.getValue();
+    }
+}
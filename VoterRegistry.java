@@ -0,0 +1,357 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// On-chain voter roll: voter hash (32 bytes) <-> address (20 bytes) plus the voter's
+// Ed25519 public key (32 bytes) and voted state.
+//
+// Every voter gets a slot; keys are stored as raw longs in chunked arrays instead of hex
+// strings, and two open-addressing tables map hash -> slot (forward) and address -> slot
+// (reverse). Lookups, verification and the double-vote check are O(1), and memory per
+// voter is fixed (see BYTES_PER_VOTER), so a roll of N voters costs a predictable
+// N * BYTES_PER_VOTER once the tables are sized for N.
+//
+// Reads are lock-free. Writers (registration, first sighting of an address) serialize on
+// the registry; slot data is written before the index entry that makes it visible, and
+// the index entries are volatile, so readers never see a half-written slot.
+//
+// A voter registered without a key (imported, or registered before votes were signed)
+// can be given one later by registering again with it: the voter hash moves to a new slot
+// under the key's own address (voted state included), and the old keyless address stops
+// counting as registered.
+//
+// writeSnapshot / fromSnapshot copy the slots as raw longs plus a state byte and rebuild
+// the indexes on load, so restoring millions of voters parses no hex at all. Snapshots
+// written before keys were registered are read with withKeys = false.
+class VoterRegistry {
+
+    private static final int HASH_LONGS = 4;        // 256-bit voter hash
+    private static final int ADDRESS_LONGS = 3;     // 160-bit address, last long holds 32 bits
+    private static final int KEY_LONGS = 4;         // 256-bit public key, all zero when none
+    private static final int KEY_OFFSET = HASH_LONGS + ADDRESS_LONGS;
+    private static final int SLOT_LONGS = KEY_OFFSET + KEY_LONGS;
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+
+    // Two state bits per slot, 32 slots per long: registered (has a voter hash) and voted
+    private static final int REGISTERED = 1;
+    private static final int VOTED = 2;
+
+    // Slot data + two index tables at <= 50% load (+ 2 state bits)
+    static final int BYTES_PER_VOTER = SLOT_LONGS * 8 + 2 * 2 * 4;
+
+    // Snapshot record per slot: hash, address and key longs, then the state bits
+    private static final int SNAPSHOT_SLOT_BYTES = SLOT_LONGS * 8 + 1;
+    private static final int KEYLESS_SLOT_BYTES = KEY_OFFSET * 8 + 1;
+
+    private volatile long[][] slotChunks = new long[0][];
+    private volatile AtomicLongArray[] stateChunks = new AtomicLongArray[0];
+    private volatile AtomicIntegerArray forwardIndex;   // voter hash -> slot + 1
+    private volatile AtomicIntegerArray reverseIndex;   // address -> slot + 1
+    private volatile int slotCount;
+    private int registeredCount;
+
+    VoterRegistry(int expectedVoters) {
+        int capacity = tableCapacityFor(Math.max(16, expectedVoters));
+        forwardIndex = new AtomicIntegerArray(capacity);
+        reverseIndex = new AtomicIntegerArray(capacity);
+    }
+
+    // Registers a voter hash and its public key (raw bytes, null for none) under the given
+    // address and returns the address the voter ends up with. Registering a known hash again
+    // is a no-op that returns the address it already has, unless the voter has no key yet
+    // and publicKey is given: then the voter moves to the given address with that key.
+    synchronized String register(String voterHash, String address, byte[] publicKey) {
+        long[] hashKey = parseHex(voterHash, 0, HASH_LONGS);
+        int existing = find(forwardIndex, hashKey, 0);
+        if (existing >= 0 && (publicKey == null || hasKey(existing))) return formatAddress(existing);
+
+        long[] addressKey = parseAddress(address);
+        if (existing >= 0) {
+            // Slot data and state first, then the index entry that makes it visible
+            int slot = find(reverseIndex, addressKey, HASH_LONGS);
+            if (slot < 0) {
+                slot = newSlot();
+                writeKey(slot, addressKey, HASH_LONGS);
+                insert(false, slot, addressKey);
+            }
+            writeKey(slot, hashKey, 0);
+            writeKey(slot, packKey(publicKey), KEY_OFFSET);
+            setState(slot, REGISTERED | (state(existing) & VOTED)); // a vote already cast stays cast
+            replace(forwardIndex, hashKey, existing, slot);
+            clearState(existing, REGISTERED);
+            return address;
+        }
+        int slot = find(reverseIndex, addressKey, HASH_LONGS);
+        if (slot < 0) {
+            slot = newSlot();
+            writeKey(slot, addressKey, HASH_LONGS);
+            writeKey(slot, hashKey, 0);
+            insert(false, slot, addressKey);
+        } else {
+            // Address seen in a vote before it was registered: attach the hash to it
+            writeKey(slot, hashKey, 0);
+        }
+        if (publicKey != null) writeKey(slot, packKey(publicKey), KEY_OFFSET);
+        insert(true, slot, hashKey);
+        setState(slot, REGISTERED);
+        registeredCount++;
+        return address;
+    }
+
+    // Address for a voter hash, or null if it is not registered
+    String addressOf(String voterHash) {
+        int slot = find(forwardIndex, parseHex(voterHash, 0, HASH_LONGS), 0);
+        return slot < 0 ? null : formatAddress(slot);
+    }
+
+    // Raw public key registered with the address, or null if it has none
+    byte[] publicKey(String address) {
+        int slot = find(reverseIndex, parseAddress(address), HASH_LONGS);
+        if (slot < 0 || (state(slot) & REGISTERED) == 0) return null;
+        if (!hasKey(slot)) return null;
+        long[] key = keyAt(slot, KEY_OFFSET, KEY_LONGS);
+        ByteBuffer bytes = ByteBuffer.allocate(KEY_LONGS * 8);
+        for (long part : key) bytes.putLong(part);
+        return bytes.array();
+    }
+
+    // Registered and has not voted yet
+    boolean verify(String address) {
+        int slot = find(reverseIndex, parseAddress(address), HASH_LONGS);
+        return slot >= 0 && state(slot) == REGISTERED;
+    }
+
+    // Atomically flags the address as voted; false if it had already voted. Addresses the
+    // registry has not seen yet get a slot of their own, as the chain would accept them.
+    boolean markVoted(String address) {
+        long[] addressKey = parseAddress(address);
+        int slot = find(reverseIndex, addressKey, HASH_LONGS);
+        if (slot < 0) slot = addressSlot(addressKey);
+        return (setState(slot, VOTED) & VOTED) == 0;
+    }
+
+    synchronized int size() {
+        return registeredCount;
+    }
+
+    long memoryBytes() {
+        long slots = (long) slotChunks.length * CHUNK_SLOTS;
+        return slots * SLOT_LONGS * 8 + slots / 4 + 4L * (forwardIndex.length() + reverseIndex.length());
+    }
+
+    // Bytes writeSnapshot needs: slot count, then one record per slot
+    synchronized long snapshotBytes() {
+        return 4 + (long) slotCount * SNAPSHOT_SLOT_BYTES;
+    }
+
+    synchronized void writeSnapshot(ByteBuffer out) {
+        out.putInt(slotCount);
+        for (int slot = 0; slot < slotCount; slot++) {
+            long[] chunk = slotChunks[slot >>> CHUNK_SHIFT];
+            int base = (slot & CHUNK_MASK) * SLOT_LONGS;
+            for (int i = 0; i < SLOT_LONGS; i++) out.putLong(chunk[base + i]);
+            out.put((byte) state(slot));
+        }
+    }
+
+    // Reads what writeSnapshot wrote into a new registry, slots in their original order
+    static VoterRegistry fromSnapshot(ByteBuffer in, int expectedVoters, boolean withKeys) {
+        int slots = in.getInt();
+        if (slots < 0 || (long) slots * (withKeys ? SNAPSHOT_SLOT_BYTES : KEYLESS_SLOT_BYTES) > in.remaining()) {
+            throw new IllegalArgumentException("Bad voter snapshot slot count " + slots);
+        }
+        VoterRegistry registry = new VoterRegistry(Math.max(expectedVoters, slots));
+        synchronized (registry) {
+            long[] hashKey = new long[HASH_LONGS];
+            long[] addressKey = new long[ADDRESS_LONGS];
+            long[] publicKey = new long[KEY_LONGS];
+            for (int i = 0; i < slots; i++) {
+                for (int j = 0; j < HASH_LONGS; j++) hashKey[j] = in.getLong();
+                for (int j = 0; j < ADDRESS_LONGS; j++) addressKey[j] = in.getLong();
+                if (withKeys) {
+                    for (int j = 0; j < KEY_LONGS; j++) publicKey[j] = in.getLong();
+                }
+                int state = in.get() & 3;
+                int slot = registry.newSlot();
+                registry.writeKey(slot, hashKey, 0);
+                registry.writeKey(slot, addressKey, HASH_LONGS);
+                registry.writeKey(slot, publicKey, KEY_OFFSET);
+                registry.insert(false, slot, addressKey);
+                if ((state & REGISTERED) != 0) {
+                    registry.insert(true, slot, hashKey);
+                    registry.registeredCount++;
+                }
+                if (state != 0) registry.setState(slot, state);
+            }
+        }
+        return registry;
+    }
+
+    private synchronized int addressSlot(long[] addressKey) {
+        int slot = find(reverseIndex, addressKey, HASH_LONGS);
+        if (slot >= 0) return slot;
+        slot = newSlot();
+        writeKey(slot, addressKey, HASH_LONGS);
+        insert(false, slot, addressKey);
+        return slot;
+    }
+
+    private int newSlot() {
+        int slot = slotCount;
+        int chunk = slot >>> CHUNK_SHIFT;
+        if (chunk == slotChunks.length) {
+            long[][] slots = Arrays.copyOf(slotChunks, chunk + 1);
+            AtomicLongArray[] states = Arrays.copyOf(stateChunks, chunk + 1);
+            slots[chunk] = new long[CHUNK_SLOTS * SLOT_LONGS];
+            states[chunk] = new AtomicLongArray(CHUNK_SLOTS / 32);
+            stateChunks = states;
+            slotChunks = slots;
+        }
+        slotCount = slot + 1;
+        return slot;
+    }
+
+    private void writeKey(int slot, long[] key, int offset) {
+        long[] chunk = slotChunks[slot >>> CHUNK_SHIFT];
+        System.arraycopy(key, 0, chunk, (slot & CHUNK_MASK) * SLOT_LONGS + offset, key.length);
+    }
+
+    private int state(int slot) {
+        long bits = stateChunks[slot >>> CHUNK_SHIFT].get((slot & CHUNK_MASK) >>> 5);
+        return (int) (bits >>> ((slot & 31) * 2)) & 3;
+    }
+
+    private boolean hasKey(int slot) {
+        long[] key = keyAt(slot, KEY_OFFSET, KEY_LONGS);
+        return (key[0] | key[1] | key[2] | key[3]) != 0;
+    }
+
+    private void clearState(int slot, int flag) {
+        int shift = (slot & 31) * 2;
+        stateChunks[slot >>> CHUNK_SHIFT].getAndAccumulate((slot & CHUNK_MASK) >>> 5,
+            ~((long) flag << shift), (current, mask) -> current & mask);
+    }
+
+    // Sets a state flag and returns the slot's previous state
+    private int setState(int slot, int flag) {
+        int shift = (slot & 31) * 2;
+        long bits = stateChunks[slot >>> CHUNK_SHIFT].getAndAccumulate((slot & CHUNK_MASK) >>> 5,
+            (long) flag << shift, (current, mask) -> current | mask);
+        return (int) (bits >>> shift) & 3;
+    }
+
+    // Adds slot to an index under the writer lock, doubling the table past 50% load
+    private void insert(boolean forward, int slot, long[] key) {
+        AtomicIntegerArray table = forward ? forwardIndex : reverseIndex;
+        int offset = forward ? 0 : HASH_LONGS;
+        int entries = forward ? registeredCount + 1 : slotCount;
+        if (entries * 2 > table.length()) {
+            AtomicIntegerArray grown = new AtomicIntegerArray(table.length() * 2);
+            for (int i = 0; i < table.length(); i++) {
+                int entry = table.get(i);
+                if (entry != 0) place(grown, entry, keyAt(entry - 1, offset, key.length));
+            }
+            table = grown;
+            if (forward) forwardIndex = grown; else reverseIndex = grown;
+        }
+        place(table, slot + 1, key);
+    }
+
+    // Points the index entry for key at a new slot; both slots hold the same key
+    private static void replace(AtomicIntegerArray table, long[] key, int oldSlot, int newSlot) {
+        int mask = table.length() - 1;
+        int index = mix(key) & mask;
+        while (table.get(index) != oldSlot + 1) index = (index + 1) & mask;
+        table.set(index, newSlot + 1);
+    }
+
+    private static void place(AtomicIntegerArray table, int entry, long[] key) {
+        int mask = table.length() - 1;
+        int index = mix(key) & mask;
+        while (table.get(index) != 0) index = (index + 1) & mask;
+        table.set(index, entry);
+    }
+
+    private int find(AtomicIntegerArray table, long[] key, int offset) {
+        int mask = table.length() - 1;
+        int index = mix(key) & mask;
+        while (true) {
+            int entry = table.get(index);
+            if (entry == 0) return -1;
+            if (keyEquals(entry - 1, key, offset)) return entry - 1;
+            index = (index + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int slot, long[] key, int offset) {
+        long[] chunk = slotChunks[slot >>> CHUNK_SHIFT];
+        int base = (slot & CHUNK_MASK) * SLOT_LONGS + offset;
+        for (int i = 0; i < key.length; i++) {
+            if (chunk[base + i] != key[i]) return false;
+        }
+        return true;
+    }
+
+    private long[] keyAt(int slot, int offset, int length) {
+        long[] chunk = slotChunks[slot >>> CHUNK_SHIFT];
+        int base = (slot & CHUNK_MASK) * SLOT_LONGS + offset;
+        return Arrays.copyOfRange(chunk, base, base + length);
+    }
+
+    private String formatAddress(int slot) {
+        long[] key = keyAt(slot, HASH_LONGS, ADDRESS_LONGS);
+        StringBuilder sb = new StringBuilder(42).append("0x");
+        for (int i = 0; i < ADDRESS_LONGS; i++) {
+            int digits = i == ADDRESS_LONGS - 1 ? 8 : 16;
+            for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+                sb.append(Character.forDigit((int) (key[i] >>> shift) & 0xF, 16));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long[] parseAddress(String address) {
+        if (address == null || address.length() != 42 || !address.startsWith("0x")) {
+            throw new IllegalArgumentException("Malformed address: " + address);
+        }
+        return parseHex(address, 2, ADDRESS_LONGS);
+    }
+
+    // Packs hex into longs, 16 digits per long (the last long may be shorter)
+    private static long[] parseHex(String hex, int start, int longs) {
+        long[] key = new long[longs];
+        int digits = hex == null ? -1 : hex.length() - start;
+        if (digits <= (longs - 1) * 16 || digits > longs * 16) {
+            throw new IllegalArgumentException("Malformed hex key: " + hex);
+        }
+        for (int i = 0; i < digits; i++) {
+            int value = Character.digit(hex.charAt(start + i), 16);
+            if (value < 0) throw new IllegalArgumentException("Malformed hex key: " + hex);
+            key[i / 16] = (key[i / 16] << 4) | value;
+        }
+        return key;
+    }
+
+    private static long[] packKey(byte[] publicKey) {
+        if (publicKey.length != KEY_LONGS * 8) throw new IllegalArgumentException("Public key must be 32 bytes");
+        ByteBuffer bytes = ByteBuffer.wrap(publicKey);
+        long[] key = new long[KEY_LONGS];
+        for (int i = 0; i < KEY_LONGS; i++) key[i] = bytes.getLong();
+        return key;
+    }
+
+    private static int mix(long[] key) {
+        long h = key[0] ^ (key[1] * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static int tableCapacityFor(int entries) {
+        return Integer.highestOneBit(entries * 2 - 1) << 1;
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives the real VotingEngine code path with many concurrent simulated voters.
+// Each voter registers, logs in, loads the ballot and casts a random vote; all of it is
+// in flight at once, so this measures the engine, pool and vote sink under contention.
+// With --ranked each voter instead ranks a random subset of the candidates.
+//
+// Usage: java VoterSimulation <jdbcUrl> <dbUser> <dbPassword> [voters] [--chain] [--ranked]
+public class VoterSimulation {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java VoterSimulation <jdbcUrl> <dbUser> <dbPassword> [voters] [--chain] [--ranked]");
+            return;
+        }
+        int voters = args.length > 3 && !args[3].startsWith("--") ? Math.max(1, Integer.parseInt(args[3])) : 1000;
+        boolean withChain = Arrays.asList(args).contains("--chain");
+        boolean ranked = Arrays.asList(args).contains("--ranked");
+
+        ConnectionPool connectionPool = ConnectionPool.fromSystemProperties(args[0], args[1], args[2]);
+        connectionPool.warmUp();
+        VotingEngine engine = VotingEngine.start(connectionPool, withChain ? BlockchainService.fromSystemProperties() : null);
+
+        List<VotingEngine.Candidate> candidates = engine.listCandidates().get();
+        if (candidates.isEmpty()) {
+            System.out.println("No candidates in the database; nothing to vote for.");
+            return;
+        }
+
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        AtomicLongArray latenciesMicros = new AtomicLongArray(voters);
+        LongAdder failures = new LongAdder();
+        List<CompletableFuture<?>> inFlight = new ArrayList<>(voters);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < voters; i++) {
+            int voter = i;
+            String username = "sim-" + runId + "-" + i;
+            String password = "pw-" + i;
+            long voterStart = System.nanoTime();
+            CompletableFuture<?> flow = engine.register(username, password)
+                .thenCompose(tx -> engine.authenticate(username, password))
+                .thenCompose(session -> {
+                    if (ranked) {
+                        List<VotingEngine.Candidate> ranking = new ArrayList<>(candidates);
+                        Collections.shuffle(ranking, ThreadLocalRandom.current());
+                        int ranks = 1 + ThreadLocalRandom.current().nextInt(ranking.size());
+                        return engine.castRankedVote(session, ranking.subList(0, ranks));
+                    }
+                    VotingEngine.Candidate choice = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+                    return engine.castVote(session, choice).thenApply(receipt -> receipt.status);
+                })
+                .whenComplete((status, error) -> {
+                    latenciesMicros.set(voter, (System.nanoTime() - voterStart) / 1000);
+                    if (error != null || !status.accepted()) failures.increment();
+                });
+            inFlight.add(flow);
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).exceptionally(t -> null).join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] sorted = new long[voters];
+        for (int i = 0; i < voters; i++) sorted[i] = latenciesMicros.get(i);
+        Arrays.sort(sorted);
+        System.out.printf("%d voters in %.2fs (%.0f voters/s), failures=%d%n", voters, seconds, voters / seconds, failures.sum());
+        System.out.printf("end-to-end latency p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms%n",
+            sorted[voters / 2] / 1000.0, sorted[(int) (voters * 0.95)] / 1000.0,
+            sorted[(int) (voters * 0.99)] / 1000.0, sorted[voters - 1] / 1000.0);
+        System.out.println(connectionPool.stats());
+
+        engine.close();
+    }
+}
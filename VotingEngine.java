@@ -0,0 +1,632 @@
+import java.lang.reflect.Method;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// Headless voting API. All voting logic lives here; the Swing frames are thin clients
+// that call these methods and render the results. Nothing in this class touches Swing,
+// so the same code path can be driven by thousands of simulated voters (see VoterSimulation).
+//
+// Every request runs on the engine's executor: one virtual thread per request when the
+// JDK supports it, otherwise a cached pool; -Devoting.engine.threads=N pins a fixed pool.
+// The blockchain service is optional - without it the engine behaves like the plain
+// EVotingSystem. With -Devoting.chain.outbox=true the chain is taken off the voter's path
+// entirely: votes commit with an outbox row and OutboxDispatcher publishes them. With the
+// ledger chain, a ChainIndexer keeps a MySQL projection of the chain's tallies, and
+// blockchainResults() reads that instead of asking the chain to count every vote. With
+// both, a VoteMerkleIndex lets reconcile() name the exact votes the two sides disagree on.
+// Every CAST vote also bumps the in-memory ResultsProjection that live dashboards follow,
+// and a VotedSet bitmap refuses repeat voters before any database or chain round trip.
+// Logins go through AuthService (bounded queue, session tokens), and castVote only
+// accepts a session whose token is still live.
+// A kiosk started with -Devoting.election=<id> serves one of several simultaneous
+// elections instead: the ballot, the voted check and the tally all come from that
+// election's partitions (see Elections), and its votes do not go to the chain.
+// With -Devoting.crdt.port set, every accepted vote is also counted in a CrdtTally that
+// gossips with the other kiosks, so kiosk totals converge without the central database.
+class VotingEngine implements AutoCloseable {
+
+    // Result of a successful login
+    static final class Session {
+        final long userId;
+        final String username;
+        final String role;
+        final boolean hasVoted;
+        final String blockchainAddress;
+        final String token; // issued by AuthService, null until then
+        final KeyPair keys; // the voter's Ed25519 keys, unsealed at login when the voter signs their chain vote
+
+        Session(long userId, String username, String role, boolean hasVoted, String blockchainAddress, String token,
+                KeyPair keys) {
+            this.userId = userId;
+            this.username = username;
+            this.role = role;
+            this.hasVoted = hasVoted;
+            this.blockchainAddress = blockchainAddress;
+            this.token = token;
+            this.keys = keys;
+        }
+
+        boolean isAdmin() {
+            return "admin".equals(role);
+        }
+    }
+
+    static final class Candidate {
+        final int id;
+        final String name;
+
+        Candidate(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    static final class VoteReceipt {
+        final VoteRepository.VoteStatus status;
+        final String txHash;
+
+        VoteReceipt(VoteRepository.VoteStatus status, String txHash) {
+            this.status = status;
+            this.txHash = txHash;
+        }
+    }
+
+    private final ConnectionPool connectionPool;
+    private final VoteRepository voteRepository;
+    private final VoteSink voteSink;
+    private final BlockchainService blockchainService;
+    private final AsyncBlockchainService chain;
+    private final OutboxDispatcher outboxDispatcher;
+    private final ChainIndexer chainIndexer;
+    private final VoteMerkleIndex merkleIndex;
+    private final ResultsProjection resultsProjection;
+    private final CandidateCatalog candidateCatalog;
+    private final VotedSet votedSet;
+    private final CrdtTally crdtTally;
+    private final AuthService authService = new AuthService();
+    private final TurnoutSeries turnout = new TurnoutSeries();
+    private final Elections elections;
+    private final int electionId; // 0 for the single global election
+    private volatile List<Candidate> electionBallot = List.of();
+    private final ExecutorService executor;
+
+    VotingEngine(ConnectionPool connectionPool, VoteRepository voteRepository, VoteSink voteSink,
+                 BlockchainService blockchainService, OutboxDispatcher outboxDispatcher,
+                 ChainIndexer chainIndexer, VoteMerkleIndex merkleIndex, ResultsProjection resultsProjection,
+                 CandidateCatalog candidateCatalog, VotedSet votedSet, CrdtTally crdtTally, ExecutorService executor) {
+        this.connectionPool = connectionPool;
+        this.voteRepository = voteRepository;
+        this.voteSink = voteSink;
+        this.blockchainService = blockchainService;
+        this.chain = blockchainService == null ? null : AsyncBlockchainService.of(blockchainService, executor);
+        this.outboxDispatcher = outboxDispatcher;
+        this.chainIndexer = chainIndexer;
+        this.merkleIndex = merkleIndex;
+        this.resultsProjection = resultsProjection;
+        this.candidateCatalog = candidateCatalog;
+        this.votedSet = votedSet;
+        this.crdtTally = crdtTally;
+        this.executor = executor;
+        this.elections = new Elections(connectionPool);
+        this.electionId = Integer.getInteger("evoting.election", 0);
+        voteSink.onApplied(this::journalApplied);
+    }
+
+    // Installs the vote schema, opens the configured vote sink and wires the engine onto
+    // an already warmed-up pool. The engine owns the pool from here on: closing it (or JVM
+    // shutdown) drains in-flight requests, flushes the vote sink and closes the pool.
+    static VotingEngine start(ConnectionPool connectionPool, BlockchainService blockchainService) throws SQLException {
+        boolean outbox = blockchainService != null && Boolean.getBoolean("evoting.chain.outbox");
+        VoteRepository voteRepository = new VoteRepository(connectionPool);
+        if (outbox) voteRepository.enableOutbox();
+        voteRepository.installSchema();
+        try (Connection connection = connectionPool.getConnection()) {
+            Elections.installSchema(connection);
+        } catch (SQLException e) {
+            System.out.println("Election schema setup failed: " + e.getMessage());
+        }
+        if (blockchainService != null) {
+            // Sealed signing keys (VoteSignatures.seal)
+            try (Connection connection = connectionPool.getConnection()) {
+                if (!VoteRepository.hasColumn(connection, "users", "vote_key")) {
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.executeUpdate("ALTER TABLE users ADD COLUMN vote_key VARCHAR(512) NULL");
+                    }
+                }
+            } catch (SQLException e) {
+                System.out.println("Voter key schema setup failed: " + e.getMessage());
+            }
+        }
+        ExecutorService executor = defaultExecutor();
+        CandidateCatalog candidateCatalog = new CandidateCatalog(connectionPool, executor);
+        VoteSink voteSink;
+        try {
+            voteSink = VoteSink.fromSystemProperties(voteRepository, candidateCatalog);
+        } catch (java.io.IOException e) {
+            throw new SQLException("Could not open the vote journal", e);
+        }
+        ResultsProjection resultsProjection = new ResultsProjection(voteRepository);
+        VotedSet votedSet = new VotedSet();
+        votedSet.load(connectionPool, executor); // serves lookups while loading
+        CrdtTally crdtTally;
+        try {
+            crdtTally = CrdtTally.fromSystemProperties();
+        } catch (java.io.IOException e) {
+            throw new SQLException("Could not start kiosk gossip", e);
+        }
+        OutboxDispatcher outboxDispatcher;
+        try {
+            outboxDispatcher = outbox ? new OutboxDispatcher(connectionPool, blockchainService, executor) : null;
+        } catch (java.io.IOException e) {
+            throw new SQLException("Could not set up the outbox kiosk key: " + e.getMessage(), e);
+        }
+        // -Devoting.chain.indexer=false turns the projection off and results hit the chain directly
+        boolean indexed = blockchainService instanceof LedgerBlockchainService
+                && !"false".equals(System.getProperty("evoting.chain.indexer"));
+        // Per-vote trees need vote records on both sides: outbox rows and indexed ledger blocks
+        VoteMerkleIndex merkleIndex = outbox && indexed && !"false".equals(System.getProperty("evoting.chain.merkle"))
+            ? new VoteMerkleIndex(connectionPool) : null;
+        ChainIndexer chainIndexer = indexed
+            ? new ChainIndexer(connectionPool, (LedgerBlockchainService) blockchainService, merkleIndex) : null;
+        VotingEngine engine = new VotingEngine(connectionPool, voteRepository, voteSink, blockchainService,
+                                               outboxDispatcher, chainIndexer, merkleIndex, resultsProjection,
+                                               candidateCatalog, votedSet, crdtTally, executor);
+        if (engine.electionId > 0) {
+            if (engine.elections.find(engine.electionId) == null) {
+                engine.close();
+                throw new SQLException("No election with id " + engine.electionId);
+            }
+            engine.electionBallot = engine.elections.ballot(engine.electionId);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(engine::close));
+        return engine;
+    }
+
+    static ExecutorService defaultExecutor() {
+        int threads = Integer.getInteger("evoting.engine.threads", 0);
+        if (threads > 0) {
+            return Executors.newFixedThreadPool(threads);
+        }
+        try {
+            // JDK 21+: a virtual thread per request; looked up reflectively so older JDKs still run
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    boolean hasBlockchain() {
+        return blockchainService != null;
+    }
+
+    BlockchainService blockchain() {
+        return blockchainService;
+    }
+
+    // Registers a voter; returns the blockchain registration tx hash, or null without a chain
+    CompletableFuture<String> register(String username, String password) {
+        if (chain == null) {
+            return supply(() -> {
+                String sql = "INSERT INTO users (username, password, role) VALUES (?, ?, 'voter')";
+                try (Connection connection = connectionPool.getConnection();
+                     PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                    preparedStatement.setString(1, username);
+                    preparedStatement.setString(2, hashPassword(password));
+                    preparedStatement.executeUpdate();
+                }
+                return null;
+            });
+        }
+
+        String voterHash = hashPassword(username + System.currentTimeMillis());
+        // The voter's one key pair; the chain keeps the public half with the voter's address
+        // and users.vote_key the pair sealed under the password
+        KeyPair keys = VoteSignatures.newKeyPair();
+        String address = VoteSignatures.addressFor(keys.getPublic());
+
+        // Register on blockchain first, then in SQL database; no thread waits on the chain
+        String encodedKey = VoteSignatures.encodeKey(keys.getPublic());
+        return chain.registerVoterOnBlockchainAsync(voterHash, encodedKey).thenCompose(blockchainTxHash -> supply(() -> {
+            String sql = "INSERT INTO users (username, password, role, voter_hash, blockchain_tx_hash, " +
+                         "blockchain_address, vote_key) VALUES (?, ?, 'voter', ?, ?, ?, ?)";
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setString(1, username);
+                preparedStatement.setString(2, hashPassword(password));
+                preparedStatement.setString(3, voterHash);
+                preparedStatement.setString(4, blockchainTxHash);
+                preparedStatement.setString(5, address);
+                preparedStatement.setString(6, VoteSignatures.seal(keys, password));
+                preparedStatement.executeUpdate();
+            }
+            return blockchainTxHash;
+        }));
+    }
+
+    // Completes with null when the credentials do not match, and exceptionally with
+    // RejectedExecutionException when too many logins are already queued
+    CompletableFuture<Session> authenticate(String username, String password) {
+        return authService.authenticate(username, password, this::findSession);
+    }
+
+    // Ends the session; its token stops being accepted
+    void logout(Session session) {
+        authService.revoke(session);
+    }
+
+    // One query returns everything the voter panel needs (role, has_voted, blockchain
+    // address); with a chain, a voter who has not voted also gets their signing keys
+    private Session findSession(String username, String password) throws Exception {
+        String sql = "SELECT id, role, has_voted" + (chain != null ? ", blockchain_address, voter_hash, vote_key" : "") +
+                     " FROM users WHERE username = ? AND password = ?";
+        Session found;
+        String voterHash = null;
+        String sealedKey = null;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, username);
+            preparedStatement.setString(2, hashPassword(password));
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (!resultSet.next()) return null;
+                String address = null;
+                if (chain != null) {
+                    address = resultSet.getString("blockchain_address");
+                    voterHash = resultSet.getString("voter_hash");
+                    sealedKey = resultSet.getString("vote_key");
+                }
+                long userId = resultSet.getLong("id");
+                // The bitmap also covers votes still queued in the vote sink
+                boolean hasVoted = electionId > 0
+                    ? elections.hasVoted(electionId, userId)
+                    : resultSet.getBoolean("has_voted") || votedSet.contains(userId);
+                found = new Session(userId, username, resultSet.getString("role"), hasVoted, address, null, null);
+            }
+        }
+        // Outbox votes are kiosk-attested, so only a voter who signs their own vote needs keys
+        if (chain == null || outboxDispatcher != null || found.hasVoted || electionId > 0) return found;
+        KeyPair keys = voteKeys(found.userId, username, password, voterHash, sealedKey);
+        return new Session(found.userId, username, found.role, false, VoteSignatures.addressFor(keys.getPublic()), null,
+                           keys);
+    }
+
+    // Unseals the voter's keys from users.vote_key. A voter without any (imported, or
+    // registered without the chain) gets a new pair here, stored before the chain hears of
+    // it. Either way the chain is then made to hold the public key unless it already does,
+    // so no vote of this voter can commit to the database with a key the chain would refuse.
+    private KeyPair voteKeys(long userId, String username, String password, String voterHash,
+                             String sealedKey) throws Exception {
+        if (sealedKey == null) {
+            KeyPair keys = VoteSignatures.newKeyPair();
+            String newHash = voterHash != null ? voterHash : hashPassword(username + System.currentTimeMillis());
+            String sql = "UPDATE users SET vote_key = ?, blockchain_address = ?, voter_hash = COALESCE(voter_hash, ?) " +
+                         "WHERE id = ? AND vote_key IS NULL";
+            String readSql = "SELECT voter_hash, vote_key FROM users WHERE id = ?";
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement updateStmt = connection.prepareStatement(sql)) {
+                updateStmt.setString(1, VoteSignatures.seal(keys, password));
+                updateStmt.setString(2, VoteSignatures.addressFor(keys.getPublic()));
+                updateStmt.setString(3, newHash);
+                updateStmt.setLong(4, userId);
+                if (updateStmt.executeUpdate() == 1) {
+                    return registerKey(voterHash != null ? voterHash : newHash, keys);
+                }
+                // A concurrent login of the same voter stored its pair first; use that one
+                try (PreparedStatement readStmt = connection.prepareStatement(readSql)) {
+                    readStmt.setLong(1, userId);
+                    try (ResultSet resultSet = readStmt.executeQuery()) {
+                        if (!resultSet.next()) throw new SQLException("Voter " + userId + " disappeared during login");
+                        voterHash = resultSet.getString("voter_hash");
+                        sealedKey = resultSet.getString("vote_key");
+                    }
+                }
+            }
+        }
+        return registerKey(voterHash, VoteSignatures.unseal(sealedKey, password));
+    }
+
+    private KeyPair registerKey(String voterHash, KeyPair keys) throws BlockchainException {
+        if (!AsyncBlockchainService.join(chain.verifyVoterAsync(VoteSignatures.addressFor(keys.getPublic())))) {
+            AsyncBlockchainService.join(chain.registerVoterOnBlockchainAsync(voterHash,
+                                                                             VoteSignatures.encodeKey(keys.getPublic())));
+        }
+        return keys;
+    }
+
+    // Served from the candidate catalog; no query per voter session
+    CompletableFuture<List<Candidate>> listCandidates() {
+        if (electionId > 0) return CompletableFuture.completedFuture(electionBallot);
+        return CompletableFuture.completedFuture(candidateCatalog.candidates());
+    }
+
+    // Elections hosted on this deployment, for the admin views
+    CompletableFuture<List<Elections.Election>> listElections() {
+        return supply(elections::list);
+    }
+
+    // One election's totals and per-precinct breakdown, aggregated in parallel
+    CompletableFuture<Elections.Results> electionResults(int electionId) {
+        return supply(() -> {
+            ForkJoinPool pool = Elections.newPool();
+            try {
+                return elections.results(electionId, pool);
+            } finally {
+                pool.shutdown();
+            }
+        });
+    }
+
+    // Hands the vote to the vote sink and, with a chain, submits it to the chain once the
+    // sink has accepted it; the receipt completes once both are done. With the batcher that
+    // means MySQL committed it, so a vote the database rejects never reaches the chain and
+    // the voter's chain address is not spent. The vote journal only accepts provisionally
+    // (JOURNALED): the chain gets the vote before MySQL rules on it, so one the applier
+    // later drops (say, a duplicate from another kiosk) stays on the chain, and VoteAudit
+    // reports the drift. A chain failure after the sink accepted the vote fails the receipt
+    // so the voter is told (the outbox mode retries it instead).
+    CompletableFuture<VoteReceipt> castVote(Session session, Candidate candidate) {
+        if (!authService.validate(session)) {
+            return AsyncBlockchainService.failed(new IllegalStateException("Your session has expired; please log in again"));
+        }
+        if (electionId > 0) {
+            return supply(() -> {
+                VoteRepository.VoteStatus status = elections.castVote(electionId, session.userId, candidate.id);
+                if (status == VoteRepository.VoteStatus.CAST) turnout.recordVote(candidate.id);
+                if (status == VoteRepository.VoteStatus.UNKNOWN_CANDIDATE) {
+                    electionBallot = elections.ballot(electionId); // ballot edited since startup
+                }
+                return new VoteReceipt(status, null);
+            });
+        }
+        if (votedSet.contains(session.userId)) {
+            return CompletableFuture.completedFuture(new VoteReceipt(VoteRepository.VoteStatus.ALREADY_VOTED, null));
+        }
+        if (outboxDispatcher != null) {
+            // The outbox row commits with the vote; the chain tx hash arrives later
+            return submitVote(session, candidate).thenApply(status -> {
+                if (status == VoteRepository.VoteStatus.CAST) outboxDispatcher.wakeUp();
+                return new VoteReceipt(status, null);
+            });
+        }
+        if (chain == null) {
+            return submitVote(session, candidate).thenApply(status -> new VoteReceipt(status, null));
+        }
+
+        if (session.keys == null) {
+            // Only a voter who had already voted logs in without keys (see findSession)
+            return CompletableFuture.completedFuture(new VoteReceipt(VoteRepository.VoteStatus.ALREADY_VOTED, null));
+        }
+        // The address the chain holds the voter's key under, as login saved it
+        String chainAddress = session.blockchainAddress;
+
+        return submitVote(session, candidate)
+            .thenCompose(status -> {
+                if (!status.accepted()) {
+                    return CompletableFuture.completedFuture(new VoteReceipt(status, null));
+                }
+                String signature;
+                try {
+                    signature = VoteSignatures.sign(session.keys, chainAddress, candidate.name);
+                } catch (RuntimeException e) {
+                    return AsyncBlockchainService.<VoteReceipt>failed(e);
+                }
+                return chain.castVoteAsync(chainAddress, candidate.name, signature)
+                    .handle((txHash, chainError) -> chainReceipt(session, status, txHash, chainError))
+                    .thenCompose(receipt -> receipt);
+            });
+    }
+
+    private CompletableFuture<VoteReceipt> chainReceipt(Session session, VoteRepository.VoteStatus status,
+                                                        String txHash, Throwable chainError) {
+        if (chainError != null) {
+            Throwable cause = chainError instanceof CompletionException ? chainError.getCause() : chainError;
+            return AsyncBlockchainService.failed(new BlockchainException(
+                "Vote recorded in the database, but the blockchain submission failed: " + cause.getMessage(), cause));
+        }
+        return supply(() -> {
+            voteRepository.recordTxHash(session.userId, txHash);
+            return new VoteReceipt(status, txHash);
+        });
+    }
+
+    // Ranked-choice ballot, most preferred first. It goes straight to ranked_ballots rather
+    // than through the vote sink, and is not submitted to the chain, whose contract only
+    // records single choices.
+    CompletableFuture<VoteRepository.VoteStatus> castRankedVote(Session session, List<Candidate> ranking) {
+        if (!authService.validate(session)) {
+            return AsyncBlockchainService.failed(new IllegalStateException("Your session has expired; please log in again"));
+        }
+        if (votedSet.contains(session.userId)) {
+            return CompletableFuture.completedFuture(VoteRepository.VoteStatus.ALREADY_VOTED);
+        }
+        int[] candidateIds = ranking.stream().mapToInt(candidate -> candidate.id).toArray();
+        return supply(() -> {
+            VoteRepository.VoteStatus status = voteRepository.castRankedBallot(session.userId, candidateIds);
+            if (status == VoteRepository.VoteStatus.CAST) turnout.recordVote(candidateIds[0]);
+            if (status != VoteRepository.VoteStatus.UNKNOWN_CANDIDATE) votedSet.add(session.userId);
+            return status;
+        });
+    }
+
+    // Instant-runoff rounds over every ranked ballot, on a pool of its own
+    CompletableFuture<RankedChoiceTally.Result> rankedChoiceResults() {
+        return supply(() -> {
+            ForkJoinPool pool = RankedChoiceTally.newPool();
+            try {
+                return RankedChoiceTally.tabulate(RankedChoiceTally.load(connectionPool, candidateCatalog.candidates()), pool);
+            } finally {
+                pool.shutdown();
+            }
+        });
+    }
+
+    // Hands the vote to the sink, counts it in the live projection and the turnout series
+    // once it is CAST (a JOURNALED vote waits for journalApplied) and remembers the voter
+    // either way
+    private CompletableFuture<VoteRepository.VoteStatus> submitVote(Session session, Candidate candidate) {
+        if (candidateCatalog.current().byId(candidate.id) == null) {
+            candidateCatalog.invalidate(); // ballot older than the catalog version; the database still decides
+        }
+        return voteSink.submit(session.userId, candidate.id, null).thenApply(status -> {
+            if (status == VoteRepository.VoteStatus.CAST) {
+                resultsProjection.recordVote(candidate.id);
+                turnout.recordVote(candidate.id);
+            }
+            if (status.accepted() && crdtTally != null) {
+                String address = session.blockchainAddress != null
+                    ? session.blockchainAddress : OutboxDispatcher.derivedAddress(session.username, session.userId);
+                crdtTally.recordVote(address, candidate.name);
+            }
+            if (status != VoteRepository.VoteStatus.UNKNOWN_CANDIDATE) votedSet.add(session.userId);
+            return status;
+        });
+    }
+
+    // The database's ruling on a journaled vote: counted once MySQL has it; a quarantined
+    // vote never got there, so its voter may vote again
+    private void journalApplied(long voterId, int candidateId, VoteRepository.VoteStatus status) {
+        if (status == VoteRepository.VoteStatus.CAST) {
+            resultsProjection.recordVote(candidateId);
+            turnout.recordVote(candidateId);
+        } else if (status == null) {
+            votedSet.remove(voterId);
+        }
+    }
+
+    // Candidate name -> database vote count
+    CompletableFuture<Map<String, Integer>> results() {
+        return supply(voteRepository::loadResults);
+    }
+
+    // Candidate name -> vote count as reported by the blockchain (via the indexed projection
+    // when there is one, so the cost does not grow with the number of votes)
+    CompletableFuture<Map<String, Integer>> blockchainResults() {
+        if (chain == null) return AsyncBlockchainService.failed(new BlockchainException("No blockchain configured"));
+        if (chainIndexer != null) return supply(chainIndexer::projectedResults);
+        return chain.getVoteResultsAsync();
+    }
+
+    // In-memory totals, pushed to subscribers as votes commit
+    ResultsProjection liveResults() {
+        return resultsProjection;
+    }
+
+    // Kiosk tally merged over gossip, or null when -Devoting.crdt.port is not set
+    CrdtTally kioskTally() {
+        return crdtTally;
+    }
+
+    // Per-second and per-minute turnout of the votes committed here
+    TurnoutSeries turnout() {
+        return turnout;
+    }
+
+    // Chain blocks reflected in blockchainResults(), or -1 when results come straight from the chain
+    long indexedBlockHeight() {
+        return chainIndexer != null ? chainIndexer.indexedHeight() : -1;
+    }
+
+    // Votes present on only one side, found by walking the differing branches of the two
+    // Merkle trees; fails when divergence detection is not running
+    CompletableFuture<VoteMerkleIndex.Reconciliation> reconcile() {
+        if (merkleIndex == null) {
+            return AsyncBlockchainService.failed(
+                new IllegalStateException("Vote-level reconciliation needs the ledger chain in outbox mode"));
+        }
+        return supply(merkleIndex::reconcile);
+    }
+
+    boolean canReconcile() {
+        return merkleIndex != null;
+    }
+
+    @Override
+    public void close() {
+        authService.close();
+        turnout.close();
+        if (crdtTally != null) crdtTally.close();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        voteSink.close(); // flush queued / journaled votes before the pool goes away
+        resultsProjection.close();
+        if (outboxDispatcher != null) outboxDispatcher.close();
+        if (chainIndexer != null) chainIndexer.close();
+        if (merkleIndex != null) merkleIndex.close();
+        connectionPool.close();
+        if (blockchainService instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) blockchainService).close(); // seals pending ledger blocks
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Blocks on the result of an engine call, unwrapping the engine's own exception
+    static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws Exception;
+    }
+
+    private <T> CompletableFuture<T> supply(Call<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(call.call());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException rejected) {
+            result.completeExceptionally(rejected);
+        }
+        return result;
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE ships SHA-256
+        }
+    });
+
+    // Lowercase hex SHA-256; one digest per thread and a single char[] per call
+    static String hashPassword(String password) {
+        byte[] hashedBytes = SHA_256.get().digest(password.getBytes());
+        char[] hex = new char[hashedBytes.length * 2];
+        for (int i = 0; i < hashedBytes.length; i++) {
+            hex[i * 2] = HEX[(hashedBytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[hashedBytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}